@@ -3,6 +3,8 @@ package main;
 import main.service.LibraryManagementSystem;
 import main.demo.SystemDemonstration;
 import main.demo.QuickDemo;
+import main.model.system.SystemConfig;
+import main.web.LibraryHttpServer;
 import java.util.Scanner;
 
 /**
@@ -17,9 +19,10 @@ public class Main {
         System.out.println("1. 正常使用模式 - 完整的图书管理系统");
         System.out.println("2. 快速演示模式 - 核心功能演示");
         System.out.println("3. 完整演示模式 - 所有功能详细演示");
+        System.out.println("4. HTTP 服务模式 - 通过 HTTP 接口提供服务");
         System.out.println("0. 退出");
         System.out.println();
-        System.out.print("请输入选择 (0-3): ");
+        System.out.print("请输入选择 (0-4): ");
         
         try {
             String choice = scanner.nextLine().trim();
@@ -29,6 +32,7 @@ public class Main {
                     System.out.println("\n启动正常使用模式...");
                     System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
                     LibraryManagementSystem system = new LibraryManagementSystem();
+                    system.start();
                     system.startConsole();
                     break;
                     
@@ -45,6 +49,19 @@ public class Main {
                     SystemDemonstration fullDemo = new SystemDemonstration();
                     fullDemo.runAllDemonstrations();
                     break;
+                
+                case "4":
+                    System.out.println("\n启动 HTTP 服务模式...");
+                    System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
+                    LibraryManagementSystem httpSystem = new LibraryManagementSystem();
+                    httpSystem.start();
+                    LibraryHttpServer server = new LibraryHttpServer(httpSystem, SystemConfig.HTTP_PORT);
+                    server.start();
+                    System.out.println("HTTP 服务已启动，端口 " + server.getPort() + "，按回车键停止...");
+                    scanner.nextLine();
+                    server.stop();
+                    httpSystem.shutdown();
+                    break;
                 case "0":
                     System.out.println("\n感谢使用图书管理系统！");
                     break;
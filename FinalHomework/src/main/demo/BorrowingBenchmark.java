@@ -0,0 +1,159 @@
+package main.demo;
+
+import main.model.document.DocumentFactory;
+import main.model.user.RegularUser;
+import main.model.user.User;
+import main.model.system.SystemConfig;
+import main.service.AdmissionController;
+import main.service.AuditService;
+import main.service.BorrowingService;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 借阅服务吞吐量基准测试
+ * 不模拟处理耗时（ProcessingHook.NONE），N 个线程各自对不同的文档反复借阅、归还，
+ * 测量线程数从 1 增加到 CPU 核数时的吞吐量；各线程之间没有共享的锁，吞吐量应随线程数近似线性增长。
+ *
+ * 指定执行方式（FIXED_POOL / VIRTUAL_THREADS / SHARDED）时，请求通过异步接口提交并等待结果，
+ * 测量的是该执行方式下的吞吐量；不指定时在调用线程上同步处理。
+ *
+ * 运行：java main.demo.BorrowingBenchmark [每个线程的借还次数] [执行方式]
+ */
+public class BorrowingBenchmark {
+    
+    // 借阅记录会一直保留，每个用户借还一定次数后换一个用户，避免借阅记录过长影响测量
+    private static final int LOANS_PER_USER = 200;
+    
+    private final BorrowingService borrowingService;
+    private final int loansPerThread;
+    private final boolean async;
+    private int round;
+    
+    /**
+     * @param executionMode 异步请求的执行方式，null 表示同步处理
+     */
+    public BorrowingBenchmark(int loansPerThread, BorrowingService.ExecutionMode executionMode) {
+        this.borrowingService = executionMode == null
+                ? new BorrowingService(BorrowingService.ProcessingHook.NONE)
+                : new BorrowingService(BorrowingService.ProcessingHook.NONE, executionMode,
+                                       SystemConfig.BORROW_MAX_CONCURRENT_REQUESTS, AdmissionController.unlimited());
+        this.loansPerThread = loansPerThread;
+        this.async = executionMode != null;
+    }
+    
+    /**
+     * 运行全部轮次并输出结果
+     */
+    public void run() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("借阅服务吞吐量基准测试");
+        System.out.printf("CPU 核数: %d，每个线程借还 %d 次，执行方式: %s%n", cores, loansPerThread,
+                          async ? borrowingService.getExecutionMode() : "同步");
+        
+        // 预热
+        measure(cores);
+        
+        System.out.println("线程数    吞吐量(次/秒)    加速比    效率");
+        double baseline = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            double throughput = measure(threads);
+            if (threads == 1) {
+                baseline = throughput;
+            }
+            double speedup = throughput / baseline;
+            System.out.printf("%6d    %13.0f    %6.2f    %3.0f%%%n",
+                              threads, throughput, speedup, speedup / threads * 100);
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * 用指定线程数运行一轮
+     * @return 每秒完成的借阅+归还次数
+     */
+    private double measure(int threads) throws InterruptedException {
+        round++;
+        List<Thread> workers = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong failures = new AtomicLong();
+        
+        for (int t = 0; t < threads; t++) {
+            // 每个线程使用自己的文档和用户
+            String documentId = String.format("BENCH-%d-D%d", round, t);
+            borrowingService.addDocument(DocumentFactory.createEBook(documentId, "基准测试文档" + t, "作者", "出版社",
+                                                                     "测试", "基准测试", LocalDate.now(),
+                                                                     "ISBN-" + documentId, 100, "中文",
+                                                                     "PDF", 1024, "http://example.com/" + documentId));
+            List<String> userIds = new ArrayList<>();
+            for (int u = 0; u * LOANS_PER_USER < loansPerThread; u++) {
+                String userId = String.format("BENCH-%d-U%d-%d", round, t, u);
+                User user = new RegularUser(userId, userId, "password", "测试用户", "bench@example.com",
+                                            "10000000000", "测试部门");
+                borrowingService.addUser(user);
+                userIds.add(userId);
+            }
+            
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < loansPerThread; i++) {
+                        String userId = userIds.get(i / LOANS_PER_USER);
+                        if (!borrow(userId, documentId) || !giveBack(userId, documentId)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "borrow-bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        
+        if (failures.get() > 0) {
+            System.out.println("警告：" + failures.get() + " 次借还失败");
+        }
+        long operations = 2L * threads * loansPerThread;
+        return operations * 1_000_000_000.0 / elapsed;
+    }
+    
+    private boolean borrow(String userId, String documentId) throws InterruptedException {
+        return async ? borrowingService.borrowAsync(userId, documentId).join().isSuccess()
+                     : borrowingService.borrowSync(userId, documentId).isSuccess();
+    }
+    
+    private boolean giveBack(String userId, String documentId) {
+        return async ? borrowingService.returnAsync(userId, documentId).join().isSuccess()
+                     : borrowingService.returnSync(userId, documentId).isSuccess();
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int loansPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        BorrowingService.ExecutionMode executionMode = args.length > 1
+                ? BorrowingService.ExecutionMode.valueOf(args[1]) : null;
+        AuditService auditService = AuditService.getInstance();
+        auditService.setConsoleEcho(false);
+        
+        BorrowingBenchmark benchmark = new BorrowingBenchmark(loansPerThread, executionMode);
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.borrowingService.shutdown();
+            auditService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package main.demo;
+
+import main.model.document.DocumentFactory;
+import main.model.user.RegularUser;
+import main.service.AdmissionController;
+import main.service.AuditService;
+import main.service.BorrowingService;
+import main.service.LibraryManagementSystem;
+import main.web.LibraryHttpServer;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP 接口闭环压测
+ * 在本进程内启动 LibraryManagementSystem 和 LibraryHttpServer（随机端口、不限流），
+ * N 个客户端（虚拟线程）各自登录后循环执行 搜索 -> 借阅 -> 归还，每个请求收到响应后才发下一个。
+ * 预热后统计吞吐量和 p50/p99/p999 延迟。
+ *
+ * 压测用户和文档只存在于内存中，不调用 saveSystemData，不会写入数据文件。
+ *
+ * 运行：java main.demo.HttpLoadGenerator [客户端数] [持续秒数]
+ */
+public class HttpLoadGenerator {
+    
+    private static final String ADMIN_USERNAME = "admin";
+    private static final String ADMIN_PASSWORD = "admin123";
+    private static final String PASSWORD = "password";
+    private static final Duration WARMUP = Duration.ofSeconds(2);
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("\"token\":\"([^\"]+)\"");
+    
+    private final LibraryManagementSystem system;
+    private final LibraryHttpServer server;
+    private final HttpClient client;
+    private final String baseUrl;
+    private final int clients;
+    private final Duration duration;
+    private final LongAdder errors;
+    private final LongAdder rejected;
+    
+    public HttpLoadGenerator(int clients, Duration duration) throws IOException {
+        // 不启用借阅日志，压测数据不会写入数据文件
+        this.system = new LibraryManagementSystem(BorrowingService.ProcessingHook.NONE,
+                                                  AdmissionController.unlimited(), null);
+        system.start();
+        this.server = new LibraryHttpServer(system, 0);
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.baseUrl = "http://127.0.0.1:" + server.getPort();
+        this.clients = clients;
+        this.duration = duration;
+        this.errors = new LongAdder();
+        this.rejected = new LongAdder();
+    }
+    
+    /**
+     * 运行压测并输出结果
+     */
+    public void run() throws InterruptedException {
+        server.start();
+        prepare();
+        System.out.println("HTTP 接口闭环压测");
+        System.out.printf("地址: %s，客户端数: %d，预热 %d 秒，测量 %d 秒%n", baseUrl, clients,
+                          WARMUP.getSeconds(), duration.getSeconds());
+        
+        long measureStart = System.nanoTime() + WARMUP.toNanos();
+        long measureEnd = measureStart + duration.toNanos();
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        CountDownLatch done = new CountDownLatch(clients);
+        
+        for (int c = 0; c < clients; c++) {
+            int index = c;
+            Thread.ofVirtual().name("http-load-" + c).start(() -> {
+                try {
+                    runClient(index, measureStart, measureEnd, latencies, counts);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        
+        report(latencies, counts);
+    }
+    
+    /**
+     * 以管理员身份创建每个客户端的用户和文档
+     */
+    private void prepare() {
+        String adminToken = system.openSession(ADMIN_USERNAME, ADMIN_PASSWORD, null);
+        if (adminToken == null) {
+            throw new IllegalStateException("管理员登录失败");
+        }
+        for (int c = 0; c < clients; c++) {
+            String userId = "LOAD-U" + c;
+            system.addUser(adminToken, new RegularUser(userId, userId, PASSWORD, "压测用户", "load@example.com",
+                                                       "10000000000", "测试部门"));
+            String documentId = "LOAD-D" + c;
+            system.addDocument(adminToken, DocumentFactory.createEBook(documentId, "压测文档" + c, "作者", "出版社",
+                                                                       "测试", "压测", LocalDate.now(),
+                                                                       "ISBN-" + documentId, 100, "中文", "PDF",
+                                                                       1024, "http://example.com/" + documentId));
+        }
+        system.closeSession(adminToken);
+    }
+    
+    private void runClient(int index, long measureStart, long measureEnd, long[][] latencies, int[] counts) {
+        String documentId = "LOAD-D" + index;
+        long[] samples = new long[1024];
+        int count = 0;
+        try {
+            String token = login("LOAD-U" + index);
+            while (true) {
+                for (int step = 0; step < 3; step++) {
+                    long begin = System.nanoTime();
+                    if (begin - measureEnd >= 0) {
+                        return;
+                    }
+                    HttpResponse<String> response = switch (step) {
+                        case 0 -> send(get("/api/search?keyword=" + documentId, token));
+                        case 1 -> send(post("/api/borrow", "documentId=" + documentId, token));
+                        default -> send(post("/api/return", "documentId=" + documentId, token));
+                    };
+                    long end = System.nanoTime();
+                    if (begin - measureStart < 0) {
+                        continue;
+                    }
+                    if (response.statusCode() == 429) {
+                        rejected.increment();
+                    } else if (response.statusCode() != 200 || response.body().contains("\"success\":false")) {
+                        errors.increment();
+                    }
+                    if (count == samples.length) {
+                        samples = Arrays.copyOf(samples, count * 2);
+                    }
+                    samples[count++] = end - begin;
+                }
+            }
+        } catch (IOException e) {
+            errors.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            latencies[index] = samples;
+            counts[index] = count;
+        }
+    }
+    
+    private String login(String username) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(post("/api/login", "username=" + username + "&password=" + PASSWORD,
+                                                  null));
+        Matcher matcher = TOKEN_PATTERN.matcher(response.body());
+        if (response.statusCode() != 200 || !matcher.find()) {
+            throw new IOException("登录失败: " + response.body());
+        }
+        return matcher.group(1);
+    }
+    
+    private HttpRequest get(String path, String token) {
+        return request(path, token).GET().build();
+    }
+    
+    private HttpRequest post(String path, String form, String token) {
+        return request(path, token)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+    }
+    
+    private HttpRequest.Builder request(String path, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+    
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private void report(long[][] latencies, int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, offset, counts[c]);
+            offset += counts[c];
+        }
+        Arrays.sort(all);
+        
+        System.out.printf("请求数: %d，吞吐量: %.0f 次/秒%n", total, total / (double) duration.getSeconds());
+        System.out.printf("延迟(ms): p50 %.3f  p99 %.3f  p999 %.3f  max %.3f%n",
+                          percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999),
+                          total == 0 ? 0.0 : all[total - 1] / 1e6);
+        System.out.printf("错误: %d，限流(429): %d%n", errors.sum(), rejected.sum());
+    }
+    
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        AuditService auditService = AuditService.getInstance();
+        auditService.setConsoleEcho(false);
+        
+        HttpLoadGenerator generator = new HttpLoadGenerator(clients, Duration.ofSeconds(seconds));
+        try {
+            generator.run();
+        } finally {
+            // 只停止服务，不保存系统数据
+            generator.server.stop();
+            auditService.shutdown();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,218 @@
+package main.demo;
+
+import main.model.document.Document;
+import main.model.document.DocumentFactory;
+import main.model.document.LoanState;
+import main.model.user.AuthorizedUser;
+import main.model.user.RegularUser;
+import main.model.user.User;
+import main.util.DataPersistenceUtil;
+import main.util.ModelCodec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据持久化格式基准测试
+ * 生成指定数量的文档（四种类型轮流）和每100个文档一个用户，约10%的文档处于借出状态，
+ * 每个用户另有若干条已归还记录；分别以 Java 序列化（旧快照格式）和 ModelCodec 二进制格式
+ * 保存、读取同一份快照，比较文件大小和耗时。每种格式运行多轮，第一轮为预热，取其余轮次的最短耗时。
+ *
+ * 只写入临时文件，运行结束后删除，不影响数据目录。100 万个文档时建议 -Xmx4g。
+ *
+ * 运行：java main.demo.PersistenceBenchmark [文档数] [轮数]
+ */
+public class PersistenceBenchmark {
+    
+    private static final int DOCUMENTS_PER_USER = 100;
+    private static final int BORROWED_PERCENT = 10;
+    private static final int RETURNED_PER_USER = 5;
+    
+    private final DataPersistenceUtil.Snapshot snapshot;
+    private final int rounds;
+    
+    public PersistenceBenchmark(int documentCount, int rounds) {
+        this.snapshot = generate(documentCount);
+        this.rounds = rounds;
+    }
+    
+    /**
+     * 运行两种格式并输出结果
+     */
+    public void run() throws IOException {
+        System.out.println("数据持久化格式基准测试");
+        System.out.printf("用户: %d，文档: %d，轮数: %d（第一轮预热）%n", snapshot.getUsers().size(),
+                          snapshot.getDocuments().size(), rounds);
+        System.out.println("格式            文件大小        保存(ms)    读取(ms)");
+        long[] java = measure(new JavaFormat());
+        long[] binary = measure(new BinaryFormat());
+        print("Java 序列化", java);
+        print("二进制编码", binary);
+        System.out.printf("二进制 / Java: 大小 %.1f%%，保存 %.1f%%，读取 %.1f%%%n",
+                          binary[0] * 100.0 / java[0], binary[1] * 100.0 / java[1], binary[2] * 100.0 / java[2]);
+    }
+    
+    /**
+     * @return [文件字节数, 最短保存耗时(纳秒), 最短读取耗时(纳秒)]
+     */
+    private long[] measure(Format format) throws IOException {
+        Path file = Files.createTempFile("persistence-benchmark", ".dat");
+        try {
+            long bestSave = Long.MAX_VALUE;
+            long bestLoad = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    format.save(out, snapshot);
+                }
+                long saved = System.nanoTime();
+                DataPersistenceUtil.Snapshot loaded = format.load(file);
+                long end = System.nanoTime();
+                if (loaded.getDocuments().size() != snapshot.getDocuments().size()) {
+                    throw new IllegalStateException("读取的文档数量不一致");
+                }
+                if (round > 0 || rounds == 1) {
+                    bestSave = Math.min(bestSave, saved - start);
+                    bestLoad = Math.min(bestLoad, end - saved);
+                }
+            }
+            return new long[] {Files.size(file), bestSave, bestLoad};
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    private static void print(String name, long[] result) {
+        System.out.printf("%-12s %12.1f MB %11.0f %11.0f%n", name, result[0] / 1024.0 / 1024.0,
+                          result[1] / 1e6, result[2] / 1e6);
+    }
+    
+    private static DataPersistenceUtil.Snapshot generate(int documentCount) {
+        int userCount = Math.max(1, documentCount / DOCUMENTS_PER_USER);
+        List<User> users = new ArrayList<>(userCount);
+        for (int u = 0; u < userCount; u++) {
+            String userId = "BENCH-U" + u;
+            users.add(u % 2 == 0
+                    ? new RegularUser(userId, userId, "password", "测试用户" + u, userId + "@example.com",
+                                      "13800000000", "测试部门")
+                    : new AuthorizedUser(userId, userId, "password", "测试用户" + u, userId + "@example.com",
+                                         "13800000000", "研究部门", "机密", "计算机"));
+        }
+        
+        LocalDate today = LocalDate.now();
+        List<Document> documents = new ArrayList<>(documentCount);
+        for (int d = 0; d < documentCount; d++) {
+            Document document = createDocument(d, today);
+            documents.add(document);
+            if (d % 100 < BORROWED_PERCENT) {
+                // 直接设置借阅状态，不受借阅上限和访问权限限制
+                User user = users.get(d % userCount);
+                LocalDate borrowDate = today.minusDays(d % 20);
+                LocalDate dueDate = borrowDate.plusDays(30);
+                document.restoreLoanState(LoanState.borrowed(user, borrowDate, dueDate));
+                user.addBorrowRecord(document.getDocumentId(), document.getTitle(), borrowDate, dueDate);
+            }
+        }
+        for (int u = 0; u < userCount; u++) {
+            User user = users.get(u);
+            for (int r = 0; r < RETURNED_PER_USER; r++) {
+                Document document = documents.get((u * RETURNED_PER_USER + r) % documentCount);
+                String documentId = document.getDocumentId() + "-H" + r;
+                user.addBorrowRecord(documentId, document.getTitle(), today.minusDays(60), today.minusDays(30));
+                user.returnDocument(documentId, today.minusDays(35));
+            }
+        }
+        return new DataPersistenceUtil.Snapshot(0, users, documents);
+    }
+    
+    private static Document createDocument(int index, LocalDate today) {
+        String id = "BENCH-D" + index;
+        String title = "测试文档" + index;
+        LocalDate publishDate = today.minusDays(index % 3650);
+        switch (index % 4) {
+            case 0:
+                return DocumentFactory.createPhysicalBook(id, title, "作者" + index % 1000, "测试出版社", "计算机",
+                                                          "基准测试生成的实体书", publishDate, "ISBN-" + index,
+                                                          100 + index % 900, "中文", "一楼", "A-" + index % 500);
+            case 1:
+                return DocumentFactory.createEBook(id, title, "作者" + index % 1000, "测试出版社", "计算机",
+                                                   "基准测试生成的电子书", publishDate, "ISBN-" + index,
+                                                   100 + index % 900, "中文", "PDF", 1024L * (index % 10000),
+                                                   "http://example.com/" + id);
+            case 2:
+                return DocumentFactory.createInternalDocument(id, title, "研究员" + index % 1000, "研究所", "研究报告",
+                                                              "基准测试生成的内部资料", publishDate, "机密", "计算机",
+                                                              "P-" + index % 100, "批-" + index, "定密人");
+            default:
+                return DocumentFactory.createArchiveDocument(id, title, "档案员" + index % 1000, "档案馆", "档案",
+                                                             "基准测试生成的档案", publishDate, "绝密", "档案室",
+                                                             "AR-" + index, "归档人", index % 8 == 3);
+        }
+    }
+    
+    /**
+     * 被比较的保存格式
+     */
+    private interface Format {
+        void save(OutputStream out, DataPersistenceUtil.Snapshot snapshot) throws IOException;
+        
+        DataPersistenceUtil.Snapshot load(Path file) throws IOException;
+    }
+    
+    /**
+     * 改用二进制编码之前的快照格式
+     */
+    private static class JavaFormat implements Format {
+        
+        @Override
+        public void save(OutputStream out, DataPersistenceUtil.Snapshot snapshot) throws IOException {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeLong(snapshot.getLsn());
+            oos.writeObject(new ArrayList<>(snapshot.getUsers()));
+            oos.writeObject(new ArrayList<>(snapshot.getDocuments()));
+            oos.flush();
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public DataPersistenceUtil.Snapshot load(Path file) throws IOException {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+                 ObjectInputStream ois = new ObjectInputStream(in)) {
+                long lsn = ois.readLong();
+                List<User> users = (List<User>) ois.readObject();
+                List<Document> documents = (List<Document>) ois.readObject();
+                return new DataPersistenceUtil.Snapshot(lsn, users, documents);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+    
+    private static class BinaryFormat implements Format {
+        
+        @Override
+        public void save(OutputStream out, DataPersistenceUtil.Snapshot snapshot) throws IOException {
+            ModelCodec.writeSnapshot(out, snapshot);
+        }
+        
+        @Override
+        public DataPersistenceUtil.Snapshot load(Path file) throws IOException {
+            return ModelCodec.readSnapshot(Files.readAllBytes(file));
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        new PersistenceBenchmark(documents, rounds).run();
+    }
+}
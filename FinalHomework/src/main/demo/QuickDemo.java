@@ -16,6 +16,7 @@ public class QuickDemo {
     
     public QuickDemo() {
         this.system = new LibraryManagementSystem();
+        system.start();
     }
     
     /**
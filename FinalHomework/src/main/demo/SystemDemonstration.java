@@ -16,6 +16,7 @@ public class SystemDemonstration {
     
     public SystemDemonstration() {
         this.system = new LibraryManagementSystem();
+        system.start();
     }
     
     /**
@@ -0,0 +1,13 @@
+package main.exception;
+
+/**
+ * 请求被准入控制拒绝（限流或系统繁忙）
+ * 搜索等接口的返回值无法表达拒绝原因，因此以非受检异常抛出，由界面层提示用户
+ */
+public class RequestRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
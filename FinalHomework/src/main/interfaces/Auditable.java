@@ -38,16 +38,34 @@ public interface Auditable {
     void logAccess(String userId, String resourceId, LocalDateTime timestamp, String accessType);
     
     /**
-     * 获取用户操作历史
+     * 获取用户最近的操作历史（最后一页，条数为默认每页条数）
      * @param userId 用户ID
      * @return 操作历史记录
      */
     String getOperationHistory(String userId);
     
     /**
-     * 获取资源访问历史
+     * 分页获取用户操作历史
+     * @param userId 用户ID
+     * @param page 页码（从1开始）
+     * @param pageSize 每页条数
+     * @return 该页的操作历史记录
+     */
+    String getOperationHistory(String userId, int page, int pageSize);
+    
+    /**
+     * 获取资源最近的访问历史（最后一页，条数为默认每页条数）
      * @param resourceId 资源ID
      * @return 访问历史记录
      */
     String getAccessHistory(String resourceId);
+    
+    /**
+     * 分页获取资源访问历史
+     * @param resourceId 资源ID
+     * @param page 页码（从1开始）
+     * @param pageSize 每页条数
+     * @return 该页的访问历史记录
+     */
+    String getAccessHistory(String resourceId, int page, int pageSize);
 }
@@ -0,0 +1,26 @@
+package main.interfaces;
+
+import main.model.user.BorrowRecord;
+import java.util.List;
+
+/**
+ * 借阅历史存储接口
+ * 用户对象只保留最近的已归还记录，更早的记录移交给借阅历史存储长期保存
+ */
+public interface BorrowHistoryStore {
+    
+    /**
+     * 保存用户的已归还记录，返回时记录已经落盘
+     * @param userId 用户ID
+     * @param records 已归还的借阅记录
+     * @return 是否保存成功，失败时调用方应保留这些记录
+     */
+    boolean archive(String userId, List<BorrowRecord> records);
+    
+    /**
+     * 查询用户已移交的借阅记录
+     * @param userId 用户ID
+     * @return 按移交顺序排列的借阅记录
+     */
+    List<BorrowRecord> findByUser(String userId);
+}
@@ -2,15 +2,22 @@ package main.model.document;
 
 import main.model.user.User;
 import main.model.user.ArchiveManager;
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 档案资料类
  * 重要历史档案、机密文件，仅档案管理员可管理和授权访问
  */
 public class ArchiveDocument extends Document {
+    // 与 data/documents.dat 中已保存对象的版本号保持一致
+    private static final long serialVersionUID = -4759151210016260847L;
     
     private String archiveLevel; // 档案级别 (机密、绝密等)
     private String storageLocation; // 存储位置
@@ -37,6 +44,38 @@ public class ArchiveDocument extends Document {
         this.authorizedUsers = new HashMap<>();
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public ArchiveDocument(BinaryReader in) throws IOException {
+        super(in);
+        this.archiveLevel = in.readSharedString();
+        this.storageLocation = in.readSharedString();
+        this.archiveNumber = in.readString();
+        this.archiveDate = in.readDate();
+        this.archivedBy = in.readSharedString();
+        this.requiresSpecialPermission = in.readBoolean();
+        int count = in.readVarInt();
+        this.authorizedUsers = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            authorizedUsers.put(in.readSharedString(), in.readString());
+        }
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeSharedString(archiveLevel)
+           .writeSharedString(storageLocation)
+           .writeString(archiveNumber)
+           .writeDate(archiveDate)
+           .writeSharedString(archivedBy)
+           .writeBoolean(requiresSpecialPermission);
+        // 授权用户以用户ID引用，不写出用户对象
+        out.writeVarInt(authorizedUsers.size());
+        authorizedUsers.forEach((userId, reason) -> out.writeSharedString(userId).writeString(reason));
+    }
+    
     @Override
     public String getDocumentType() {
         return "档案资料";
@@ -149,6 +188,14 @@ public class ArchiveDocument extends Document {
         return sb.toString();
     }
     
+    /**
+     * 获取被特别授权的用户ID集合
+     * @return 用户ID集合的副本
+     */
+    public Set<String> getAuthorizedUserIds() {
+        return new HashSet<>(authorizedUsers.keySet());
+    }
+    
     // Getter方法
     
     public String getArchiveLevel() {
@@ -2,13 +2,22 @@ package main.model.document;
 
 import main.interfaces.Borrowable;
 import main.model.user.User;
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 文档抽象基类
  * 定义了所有文档资源的公共属性和方法
+ *
+ * 借阅状态保存在不可变的 LoanState 快照中，借阅、归还、续借通过 CAS 整体替换快照，不需要加锁；
+ * 读取借阅状态（如 isAvailableFor）只需一次读取，不会看到更新到一半的状态。
  */
 public abstract class Document implements Borrowable, Serializable {
     private static final long serialVersionUID = 1L;
@@ -22,9 +31,12 @@ public abstract class Document implements Borrowable, Serializable {
     private String description;
     private LocalDate publishDate;
     private LocalDateTime createTime;
-    private boolean isAvailable;
     
-    // 借阅相关属性
+    // 借阅状态
+    private transient AtomicReference<LoanState> loanState;
+    
+    // 序列化格式中的借阅状态字段，只在读写对象时与 loanState 同步
+    private boolean isAvailable;
     private User currentBorrower;
     private LocalDate borrowDate;
     private LocalDate dueDate;
@@ -42,7 +54,36 @@ public abstract class Document implements Borrowable, Serializable {
         this.description = description;
         this.publishDate = publishDate;
         this.createTime = LocalDateTime.now();
-        this.isAvailable = true;
+        this.loanState = new AtomicReference<>(LoanState.AVAILABLE);
+    }
+    
+    /**
+     * 从二进制格式读取文档属性（借阅状态由 ModelCodec 另行恢复）
+     */
+    protected Document(BinaryReader in) throws IOException {
+        this.documentId = in.readSharedString();
+        this.title = in.readSharedString();
+        this.author = in.readSharedString();
+        this.publisher = in.readSharedString();
+        this.category = in.readSharedString();
+        this.description = in.readSharedString();
+        this.publishDate = in.readDate();
+        this.createTime = in.readDateTime();
+        this.loanState = new AtomicReference<>(LoanState.AVAILABLE);
+    }
+    
+    /**
+     * 以二进制格式写出文档属性，子类先调用父类方法再写出自己的属性；顺序须与读取的构造方法一致
+     */
+    public void writeFields(BinaryWriter out) {
+        out.writeSharedString(documentId)
+           .writeSharedString(title)
+           .writeSharedString(author)
+           .writeSharedString(publisher)
+           .writeSharedString(category)
+           .writeSharedString(description)
+           .writeDate(publishDate)
+           .writeDateTime(createTime);
     }
     
     // 抽象方法 - 不同文档类型有不同的实现（体现多态）
@@ -76,29 +117,35 @@ public abstract class Document implements Borrowable, Serializable {
     
     @Override
     public boolean borrow(User user, LocalDate borrowDate) {
-        if (!isAvailableFor(user)) {
+        // 先预占用户的借阅名额，文档借出失败时释放
+        if (!checkAccessPermission(user) || !user.tryReserveLoanSlot()) {
             return false;
         }
-          this.currentBorrower = user;
-        this.borrowDate = borrowDate;
-        this.dueDate = borrowDate.plusDays(user.getMaxBorrowDays());
-        this.isAvailable = false;
+        LoanState borrowed = LoanState.borrowed(user, borrowDate, borrowDate.plusDays(user.getMaxBorrowDays()));
+        LoanState current;
+        do {
+            current = loanState.get();
+            if (!current.isAvailable()) {
+                user.releaseLoanSlot();
+                return false;
+            }
+        } while (!loanState.compareAndSet(current, borrowed));
         
         // 添加到用户的借阅记录
-        user.addBorrowRecord(this.documentId, this.title, borrowDate, this.dueDate);
+        user.addReservedBorrowRecord(this.documentId, this.title, borrowDate, borrowed.getDueDate());
         
         return true;
     }
     
     @Override
     public boolean returnResource(User user, LocalDate returnDate) {
-        if (currentBorrower == null || !currentBorrower.getUserId().equals(user.getUserId())) {
-            return false;
-        }
-          this.currentBorrower = null;
-        this.borrowDate = null;
-        this.dueDate = null;
-        this.isAvailable = true;
+        LoanState current;
+        do {
+            current = loanState.get();
+            if (!current.isBorrowedBy(user)) {
+                return false;
+            }
+        } while (!loanState.compareAndSet(current, LoanState.AVAILABLE));
         
         // 标记用户的借阅记录为已归还
         user.returnDocument(this.documentId, returnDate);
@@ -106,38 +153,97 @@ public abstract class Document implements Borrowable, Serializable {
         return true;
     }
     
-    @Override
-    public boolean extend(User user, int extendDays) {
-        if (currentBorrower == null || !currentBorrower.getUserId().equals(user.getUserId())) {
-            return false;
-        }
+    /**
+     * 撤销用户对本文档的借阅（批量借阅回滚），与归还不同，不会在用户历史中留下记录
+     * @return 该用户不是当前借阅者时返回false
+     */
+    public boolean cancelBorrow(User user) {
+        LoanState current;
+        do {
+            current = loanState.get();
+            if (!current.isBorrowedBy(user)) {
+                return false;
+            }
+        } while (!loanState.compareAndSet(current, LoanState.AVAILABLE));
         
-        if (isOverdue()) {
-            return false; // 已逾期不能续借
+        user.cancelBorrowRecord(this.documentId);
+        return true;
+    }
+    
+    /**
+     * 归还并直接借给下一位用户（预约交接），文档不会出现可借状态
+     * @param from 当前借阅者
+     * @param to 下一位借阅者
+     * @param date 交接日期
+     * @return from 不是当前借阅者或 to 不满足借阅条件时返回false
+     */
+    public boolean transfer(User from, User to, LocalDate date) {
+        if (!checkAccessPermission(to) || !to.tryReserveLoanSlot()) {
+            return false;
         }
+        LoanState borrowed = LoanState.borrowed(to, date, date.plusDays(to.getMaxBorrowDays()));
+        LoanState current;
+        do {
+            current = loanState.get();
+            if (!current.isBorrowedBy(from)) {
+                to.releaseLoanSlot();
+                return false;
+            }
+        } while (!loanState.compareAndSet(current, borrowed));
         
-        this.dueDate = this.dueDate.plusDays(extendDays);
+        from.returnDocument(this.documentId, date);
+        to.addReservedBorrowRecord(this.documentId, this.title, date, borrowed.getDueDate());
+        return true;
+    }
+    
+    @Override
+    public boolean extend(User user, int extendDays) {
+        LoanState current;
+        do {
+            current = loanState.get();
+            if (!current.isBorrowedBy(user)) {
+                return false;
+            }
+            if (current.isOverdue(LocalDate.now())) {
+                return false; // 已逾期不能续借
+            }
+        } while (!loanState.compareAndSet(current, current.withDueDate(current.getDueDate().plusDays(extendDays))));
         return true;
     }
     
     @Override
     public boolean isAvailableFor(User user) {
-        return isAvailable && checkAccessPermission(user) && user.canBorrowMore();
+        return loanState.get().isAvailable() && checkAccessPermission(user) && user.canBorrowMore();
     }
     
     @Override
     public User getCurrentBorrower() {
-        return currentBorrower;
+        return loanState.get().getBorrower();
     }
     
     @Override
     public LocalDate getDueDate() {
-        return dueDate;
+        return loanState.get().getDueDate();
     }
     
     @Override
     public boolean isOverdue() {
-        return dueDate != null && LocalDate.now().isAfter(dueDate);
+        return loanState.get().isOverdue(LocalDate.now());
+    }
+    
+    /**
+     * 获取当前借阅状态快照，需要同时读取多个借阅属性时使用
+     */
+    public LoanState getLoanState() {
+        return loanState.get();
+    }
+    
+    /**
+     * 直接设置借阅状态，只用于启动时重放借阅日志
+     * 不检查权限和借阅上限，也不修改用户的借阅记录
+     */
+    public void restoreLoanState(LoanState state) {
+        loanState.set(state);
     }
     
     // 公共方法
@@ -184,15 +290,16 @@ public abstract class Document implements Borrowable, Serializable {
     public String getAuditInfo() {
         return String.format("文档ID: %s, 标题: %s, 创建时间: %s, 当前状态: %s", 
                            documentId, title, createTime.toString(), 
-                           isAvailable ? "可借阅" : "已借出");
+                           isAvailable() ? "可借阅" : "已借出");
     }
       /**
      * 文档归还方法（简化版，为演示接口功能）
      * @return 归还是否成功
      */
     public boolean returnDocument() {
-        if (currentBorrower != null) {
-            return returnResource(currentBorrower, LocalDate.now());
+        User borrower = getCurrentBorrower();
+        if (borrower != null) {
+            return returnResource(borrower, LocalDate.now());
         }
         return false;
     }
@@ -252,11 +359,11 @@ public abstract class Document implements Borrowable, Serializable {
     }
     
     public boolean isAvailable() {
-        return isAvailable;
+        return loanState.get().isAvailable();
     }
     
     public LocalDate getBorrowDate() {
-        return borrowDate;
+        return loanState.get().getBorrowDate();
     }
     
     @Override
@@ -264,6 +371,22 @@ public abstract class Document implements Borrowable, Serializable {
         return String.format("Document{id='%s', title='%s', author='%s', type='%s', " +
                            "level='%s', available=%s}", 
                            documentId, title, author, getDocumentType(), 
-                           getAccessLevel(), isAvailable);
+                           getAccessLevel(), isAvailable());
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        LoanState state = loanState.get();
+        this.isAvailable = state.isAvailable();
+        this.currentBorrower = state.getBorrower();
+        this.borrowDate = state.getBorrowDate();
+        this.dueDate = state.getDueDate();
+        out.defaultWriteObject();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.loanState = new AtomicReference<>(isAvailable || currentBorrower == null
+                ? LoanState.AVAILABLE
+                : LoanState.borrowed(currentBorrower, borrowDate, dueDate));
     }
 }
@@ -1,5 +1,8 @@
 package main.model.document;
 
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
 import java.time.LocalDate;
 
 /**
@@ -7,6 +10,8 @@ import java.time.LocalDate;
  * 可以在线阅读或下载的电子图书
  */
 public class EBook extends PublicBook {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = 4040508894649011056L;
     
     private String fileFormat; // 文件格式 (PDF, EPUB, etc.)
     private long fileSize; // 文件大小 (字节)
@@ -32,6 +37,30 @@ public class EBook extends PublicBook {
         this.allowPrint = true;
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public EBook(BinaryReader in) throws IOException {
+        super(in);
+        this.fileFormat = in.readSharedString();
+        this.fileSize = in.readSignedVarLong();
+        this.downloadUrl = in.readString();
+        this.downloadCount = in.readSignedVarInt();
+        this.allowDownload = in.readBoolean();
+        this.allowPrint = in.readBoolean();
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeSharedString(fileFormat)
+           .writeSignedVarLong(fileSize)
+           .writeString(downloadUrl)
+           .writeSignedVarInt(downloadCount)
+           .writeBoolean(allowDownload)
+           .writeBoolean(allowPrint);
+    }
+    
     @Override
     public String getDocumentType() {
         return "电子书";
@@ -1,6 +1,9 @@
 package main.model.document;
 
 import main.model.user.User;
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
 import java.time.LocalDate;
 
 /**
@@ -8,6 +11,8 @@ import java.time.LocalDate;
  * 仅限授权用户访问的科研报告、技术文档等
  */
 public class InternalDocument extends Document {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = 4383787570398077209L;
     
     private String securityLevel; // 安全级别
     private String researchField; // 研究领域
@@ -32,6 +37,30 @@ public class InternalDocument extends Document {
         this.classifiedBy = classifiedBy;
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public InternalDocument(BinaryReader in) throws IOException {
+        super(in);
+        this.securityLevel = in.readSharedString();
+        this.researchField = in.readSharedString();
+        this.projectCode = in.readSharedString();
+        this.approvalNumber = in.readString();
+        this.classificationDate = in.readDate();
+        this.classifiedBy = in.readSharedString();
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeSharedString(securityLevel)
+           .writeSharedString(researchField)
+           .writeSharedString(projectCode)
+           .writeString(approvalNumber)
+           .writeDate(classificationDate)
+           .writeSharedString(classifiedBy);
+    }
+    
     @Override
     public String getDocumentType() {
         return "内部资料";
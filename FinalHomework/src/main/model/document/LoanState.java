@@ -0,0 +1,70 @@
+package main.model.document;
+
+import main.model.user.User;
+import java.time.LocalDate;
+
+/**
+ * 文档借阅状态快照（不可变）
+ * 借阅、归还、续借都以新快照整体替换旧快照，借阅者、借阅日期和到期日总是一致的
+ */
+public final class LoanState {
+    
+    /**
+     * 可借阅状态
+     */
+    public static final LoanState AVAILABLE = new LoanState(null, null, null);
+    
+    private final User borrower;
+    private final LocalDate borrowDate;
+    private final LocalDate dueDate;
+    
+    private LoanState(User borrower, LocalDate borrowDate, LocalDate dueDate) {
+        this.borrower = borrower;
+        this.borrowDate = borrowDate;
+        this.dueDate = dueDate;
+    }
+    
+    /**
+     * 已借出状态
+     */
+    public static LoanState borrowed(User borrower, LocalDate borrowDate, LocalDate dueDate) {
+        return new LoanState(borrower, borrowDate, dueDate);
+    }
+    
+    /**
+     * 修改到期日后的新状态
+     */
+    public LoanState withDueDate(LocalDate newDueDate) {
+        return new LoanState(borrower, borrowDate, newDueDate);
+    }
+    
+    public boolean isAvailable() {
+        return borrower == null;
+    }
+    
+    /**
+     * 是否由指定用户借出
+     */
+    public boolean isBorrowedBy(User user) {
+        return borrower != null && borrower.getUserId().equals(user.getUserId());
+    }
+    
+    /**
+     * 在指定日期是否已逾期
+     */
+    public boolean isOverdue(LocalDate today) {
+        return dueDate != null && today.isAfter(dueDate);
+    }
+    
+    public User getBorrower() {
+        return borrower;
+    }
+    
+    public LocalDate getBorrowDate() {
+        return borrowDate;
+    }
+    
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+}
@@ -1,5 +1,8 @@
 package main.model.document;
 
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
 import java.time.LocalDate;
 
 /**
@@ -7,6 +10,8 @@ import java.time.LocalDate;
  * 需要到馆借阅的纸质图书
  */
 public class PhysicalBook extends PublicBook {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = -7371248999729481679L;
     
     private String location; // 存放位置
     private String shelfNumber; // 书架号
@@ -28,6 +33,26 @@ public class PhysicalBook extends PublicBook {
         this.condition = "良好";
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public PhysicalBook(BinaryReader in) throws IOException {
+        super(in);
+        this.location = in.readSharedString();
+        this.shelfNumber = in.readSharedString();
+        this.isDamaged = in.readBoolean();
+        this.condition = in.readSharedString();
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeSharedString(location)
+           .writeSharedString(shelfNumber)
+           .writeBoolean(isDamaged)
+           .writeSharedString(condition);
+    }
+    
     @Override
     public String getDocumentType() {
         return "实体书";
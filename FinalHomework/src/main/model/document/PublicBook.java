@@ -1,6 +1,9 @@
 package main.model.document;
 
 import main.model.user.User;
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
 import java.time.LocalDate;
 
 /**
@@ -8,6 +11,8 @@ import java.time.LocalDate;
  * 所有用户都可以访问的图书资源基类
  */
 public abstract class PublicBook extends Document {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = -3327545918196180331L;
     
     private String isbn;
     private int totalPages;
@@ -25,6 +30,21 @@ public abstract class PublicBook extends Document {
         this.language = language;
     }
     
+    protected PublicBook(BinaryReader in) throws IOException {
+        super(in);
+        this.isbn = in.readString();
+        this.totalPages = in.readSignedVarInt();
+        this.language = in.readSharedString();
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeString(isbn)
+           .writeSignedVarInt(totalPages)
+           .writeSharedString(language);
+    }
+    
     @Override
     public String getAccessLevel() {
         return "PUBLIC";
@@ -17,19 +17,76 @@ public class SystemConfig {
     public static final String DOCUMENTS_FILE = DATA_DIR + "documents.dat";
     public static final String LOGS_FILE = DATA_DIR + "system.log";
     public static final String AUDIT_LOG_FILE = DATA_DIR + "audit.log";
+    public static final String AUDIT_STORE_DIR = DATA_DIR + "audit/"; // 审计记录段文件及索引
+    public static final String AUDIT_CLEARED_FILE = AUDIT_STORE_DIR + "cleared.dat"; // 用户/资源历史的清空时间点
+    public static final String SNAPSHOT_FILE = DATA_DIR + "snapshot.dat"; // 用户和文档的快照（含对应的日志序号）
+    public static final String JOURNAL_DIR = DATA_DIR + "journal/"; // 借阅日志段文件
+    public static final String BORROW_HISTORY_FILE = DATA_DIR + "borrow_history.dat"; // 从用户对象中移出的已归还借阅记录
     
     // 系统限制配置
     public static final int MAX_LOGIN_ATTEMPTS = 3;
     public static final int SESSION_TIMEOUT_MINUTES = 30;
     public static final int PASSWORD_MIN_LENGTH = 8;
     public static final int MAX_SEARCH_RESULTS = 100;
-      // 借阅配置
+    public static final int RANKED_SEARCH_TOP_K = 20; // 相关度搜索默认返回条数
+    public static final String SEARCH_MODE = "NGRAM"; // 搜索匹配模式：SUBSTRING / TOKEN / NGRAM，见 SearchService.SearchMode
+    
+    // 审计日志写入配置
+    public static final int AUDIT_QUEUE_CAPACITY = 8192; // 待写入队列容量，满时记录日志的线程阻塞
+    public static final int AUDIT_SYNC_BATCH = 256; // 累计多少条记录刷盘一次
+    public static final long AUDIT_SYNC_INTERVAL_MS = 1000; // 最长刷盘间隔（毫秒）
+    public static final long AUDIT_SEGMENT_MAX_BYTES = 16L * 1024 * 1024; // 单个审计段文件的最大字节数
+    public static final int AUDIT_RETENTION_DAYS = 180; // 审计段的保留天数，段内最新记录超过该天数后删除整段（0 表示不按时间删除）
+    public static final long AUDIT_MAX_TOTAL_BYTES = 1024L * 1024 * 1024; // 审计段文件的总大小上限，超出时从最早的段开始删除（0 表示不限制）
+    public static final int AUDIT_SPARSE_INDEX_INTERVAL = 128; // 稀疏时间索引每隔多少条记录一项
+    public static final long AUDIT_CLOCK_SKEW_MS = 5000; // 容许的审计记录时间乱序（毫秒）
+    public static final int AUDIT_HISTORY_PAGE_SIZE = 20; // 历史查询默认每页条数
+    public static final int AUDIT_HISTORY_MAX_LIMIT = 1000; // 一次历史查询最多返回的条数
+    public static final int AUDIT_MAX_USERNAME_LENGTH = 64; // 登录失败记录中保留的未知用户名长度
+    public static final boolean AUDIT_CONSOLE_ECHO = true; // 是否在控制台输出审计日志（可通过 AuditService.setConsoleEcho 修改）
+    
+    // 借阅日志配置
+    public static final boolean JOURNAL_ENABLED = true; // 关闭时只在 saveSystemData 时整体保存
+    public static final long JOURNAL_SEGMENT_MAX_BYTES = 4L * 1024 * 1024; // 单个日志段文件的最大字节数
+    public static final int JOURNAL_QUEUE_CAPACITY = 8192;
+    public static final int JOURNAL_SYNC_BATCH = 256;
+    public static final long JOURNAL_SYNC_INTERVAL_MS = 100; // 不等待落盘的记录最长多久刷盘一次
+    public static final long JOURNAL_CHECKPOINT_INTERVAL_SECONDS = 300; // 定期生成快照并删除已覆盖的日志段
+    
+    // 借阅历史归档配置
+    public static final int BORROW_HISTORY_QUEUE_CAPACITY = 1024;
+    public static final int BORROW_HISTORY_SYNC_BATCH = 256;
+    public static final long BORROW_HISTORY_SYNC_INTERVAL_MS = 1000;
+    
+    // HTTP 服务配置
+    public static final int HTTP_PORT = 8080;
+    public static final int HTTP_BACKLOG = 1024; // 等待 accept 的连接队列长度
+    public static final int HTTP_MAX_BODY_BYTES = 8 * 1024; // 请求体的最大字节数，超出时返回 413
+    
+    // 借阅配置
     public static final int DEFAULT_BORROW_DAYS = 30;
     public static final int MAX_EXTEND_TIMES = 2;
     public static final int OVERDUE_FINE_PER_DAY = 1; // 元/天
     public static final int MAX_EXTEND_DAYS = 15; // 最大续借天数
     public static final int REGULAR_USER_BORROW_LIMIT = 5; // 普通用户借阅限制
     public static final int AUTHORIZED_USER_BORROW_LIMIT = 10; // 授权用户借阅限制
+    public static final int USER_RECENT_HISTORY_SIZE = 100; // 用户对象中保留的已归还借阅记录条数，更早的记录移入借阅历史归档
+    
+    // 借阅请求执行配置
+    public static final boolean BORROW_USE_VIRTUAL_THREADS = true; // 异步请求每个使用一个虚拟线程，false 时使用固定线程池
+    public static final int BORROW_THREAD_POOL_SIZE = 10; // 固定线程池的线程数
+    public static final int BORROW_MAX_CONCURRENT_REQUESTS = 1000; // 同时处理的异步请求上限，超出的请求排队等待
+    public static final int BORROW_QUEUE_CAPACITY = 10000; // 等待执行的异步请求上限，超出时直接拒绝（系统繁忙）
+    public static final int BORROW_SHARD_COUNT = Runtime.getRuntime().availableProcessors(); // 分片模式的分片数，默认每个CPU核一个
+    
+    // 请求准入配置（借阅和搜索共用）
+    public static final double RATE_LIMIT_GLOBAL_PER_SECOND = 5000; // 全局每秒请求数
+    public static final int RATE_LIMIT_GLOBAL_BURST = 10000; // 全局突发请求数
+    public static final double RATE_LIMIT_USER_PER_SECOND = 20; // 每个用户每秒请求数
+    public static final int RATE_LIMIT_USER_BURST = 50; // 每个用户突发请求数
+    public static final double RATE_LIMIT_LOGIN_PER_SECOND = 1; // 每个客户端地址每秒登录请求数
+    public static final int RATE_LIMIT_LOGIN_BURST = 10; // 每个客户端地址突发登录请求数
+    public static final int RATE_LIMIT_MAX_CLIENTS = 100000; // 按地址限流时最多保留的令牌桶数
     
     // 用户类型配置
     public static final class UserLimits {
@@ -72,6 +129,7 @@ public class SystemConfig {
         public static final String PRINT = "打印";
         public static final String AUTHORIZE = "授权";
         public static final String REVOKE = "撤销授权";
+        public static final String CHECKOUT = "批量借阅";
     }
     
     // 日期时间格式配置
@@ -1,10 +1,16 @@
 package main.model.user;
 
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
+
 /**
  * 系统管理员类
  * IT管理员，负责系统维护和用户管理，不直接借阅图书
  */
 public class Administrator extends User {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = 7771151339105776137L;
     
     private static final int MAX_BORROW_COUNT = 0; // 管理员不借阅图书
     private static final int MAX_BORROW_DAYS = 0;
@@ -23,6 +29,22 @@ public class Administrator extends User {
         this.systemPermissions = systemPermissions;
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public Administrator(BinaryReader in) throws IOException {
+        super(in);
+        this.adminLevel = in.readSharedString();
+        this.systemPermissions = in.readSharedString();
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeSharedString(adminLevel)
+           .writeSharedString(systemPermissions);
+    }
+    
     @Override
     public int getMaxBorrowCount() {
         return MAX_BORROW_COUNT;
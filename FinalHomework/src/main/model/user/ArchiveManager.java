@@ -1,10 +1,16 @@
 package main.model.user;
 
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
+
 /**
  * 档案管理员类
  * 专门的档案管理人员，拥有最高权限
  */
 public class ArchiveManager extends User {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = 4534629855557280494L;
     
     private static final int MAX_BORROW_COUNT = 20;
     private static final int MAX_BORROW_DAYS = 60;
@@ -23,6 +29,22 @@ public class ArchiveManager extends User {
         this.certificationLevel = certificationLevel;
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public ArchiveManager(BinaryReader in) throws IOException {
+        super(in);
+        this.managementArea = in.readSharedString();
+        this.certificationLevel = in.readSharedString();
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeSharedString(managementArea)
+           .writeSharedString(certificationLevel);
+    }
+    
     @Override
     public int getMaxBorrowCount() {
         return MAX_BORROW_COUNT;
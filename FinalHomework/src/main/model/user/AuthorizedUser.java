@@ -1,10 +1,16 @@
 package main.model.user;
 
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
+
 /**
  * 授权用户类
  * 科研人员、项目负责人等，有更高权限
  */
 public class AuthorizedUser extends User {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = 2057956562271347155L;
     
     private static final int MAX_BORROW_COUNT = 10;
     private static final int MAX_BORROW_DAYS = 45;
@@ -23,6 +29,22 @@ public class AuthorizedUser extends User {
         this.researchField = researchField;
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public AuthorizedUser(BinaryReader in) throws IOException {
+        super(in);
+        this.securityLevel = in.readSharedString();
+        this.researchField = in.readSharedString();
+    }
+    
+    @Override
+    public void writeFields(BinaryWriter out) {
+        super.writeFields(out);
+        out.writeSharedString(securityLevel)
+           .writeSharedString(researchField);
+    }
+    
     @Override
     public int getMaxBorrowCount() {
         return MAX_BORROW_COUNT;
@@ -1,7 +1,10 @@
 package main.model.user;
 
 import main.model.document.Document;
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
 import java.time.LocalDate;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -31,6 +34,32 @@ public class BorrowRecord implements Serializable {
         this.renewalCount = 0;
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public BorrowRecord(BinaryReader in) throws IOException {
+        this.documentId = in.readSharedString();
+        this.documentTitle = in.readSharedString();
+        this.borrowDate = in.readDate();
+        this.dueDate = in.readDate();
+        this.returnDate = in.readDate();
+        this.isReturned = in.readBoolean();
+        this.renewalCount = in.readVarInt();
+    }
+    
+    /**
+     * 以二进制格式写出，顺序须与读取的构造方法一致
+     */
+    public void writeTo(BinaryWriter out) {
+        out.writeSharedString(documentId)
+           .writeSharedString(documentTitle)
+           .writeDate(borrowDate)
+           .writeDate(dueDate)
+           .writeDate(returnDate)
+           .writeBoolean(isReturned)
+           .writeVarInt(renewalCount);
+    }
+    
     /**
      * 标记为已归还
      */
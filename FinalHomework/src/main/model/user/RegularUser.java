@@ -1,10 +1,15 @@
 package main.model.user;
 
+import main.util.BinaryReader;
+import java.io.IOException;
+
 /**
  * 普通用户类
  * 一般工作人员，权限最基本
  */
 public class RegularUser extends User {
+    // 与 data 目录中已保存对象的版本号保持一致
+    private static final long serialVersionUID = 3597280802724882143L;
     
     private static final int MAX_BORROW_COUNT = 5;
     private static final int MAX_BORROW_DAYS = 30;
@@ -17,6 +22,13 @@ public class RegularUser extends User {
         super(userId, username, password, realName, email, phone, department);
     }
     
+    /**
+     * 从二进制格式读取
+     */
+    public RegularUser(BinaryReader in) throws IOException {
+        super(in);
+    }
+    
     @Override
     public int getMaxBorrowCount() {
         return MAX_BORROW_COUNT;
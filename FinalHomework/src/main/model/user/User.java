@@ -1,19 +1,40 @@
 package main.model.user;
 
+import main.interfaces.BorrowHistoryStore;
+import main.model.system.SystemConfig;
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 用户抽象基类
  * 定义了所有用户的公共属性和方法
+ *
+ * 未归还的借阅记录另外按文档ID索引，并维护当前借阅数量，借阅资格检查、归还和续借都不需要遍历历史记录。
+ * 借阅数量以 CAS 预占（tryReserveLoanSlot），不同线程同时为同一用户借阅不同文档时也不会超过上限。
+ * 设置了借阅历史存储（setHistoryStore）时，用户对象只保留最近 USER_RECENT_HISTORY_SIZE 条已归还记录，
+ * 更早的记录写入历史存储并落盘后才从用户对象中移除；未设置或写入失败时保留全部记录。
+ * 写入历史存储不持有用户锁，等待落盘期间其他线程照常借阅、归还；同一用户同时只有一批记录在写入。
  */
 public abstract class User implements Serializable {
     private static final long serialVersionUID = 1L;
     
+    private static volatile BorrowHistoryStore historyStore; // 为null时不整理历史记录
+    
     // 私有属性 - 体现封装特性
     private String userId;
     private String username;
@@ -26,8 +47,14 @@ public abstract class User implements Serializable {
     private LocalDateTime lastLoginTime;
     private boolean isActive;
     
-    // 用户借阅记录列表 - 改进的设计
+    // 用户借阅记录列表 - 改进的设计（借阅顺序，包括未归还记录和最近的已归还记录）
     private List<BorrowRecord> borrowRecords;
+    
+    // 未归还记录按文档ID索引，由 borrowRecords 重建，不参与序列化；修改时持有 this 锁
+    private transient Map<String, BorrowRecord> activeLoans;
+    private transient AtomicInteger activeLoanCount;
+    private transient int returnedCount; // borrowRecords 中已归还的记录数
+    private transient boolean trimming;  // 已取出一批记录正在写入历史存储
       /**
      * 构造方法
      */
@@ -43,6 +70,49 @@ public abstract class User implements Serializable {
         this.createTime = LocalDateTime.now();
         this.isActive = true;
         this.borrowRecords = new ArrayList<>();
+        rebuildActiveLoans();
+    }
+    
+    /**
+     * 从二进制格式读取用户属性和借阅记录
+     */
+    protected User(BinaryReader in) throws IOException {
+        this.userId = in.readSharedString();
+        this.username = in.readString();
+        this.password = in.readString();
+        this.realName = in.readSharedString();
+        this.email = in.readString();
+        this.phone = in.readString();
+        this.department = in.readSharedString();
+        this.createTime = in.readDateTime();
+        this.lastLoginTime = in.readDateTime();
+        this.isActive = in.readBoolean();
+        int count = in.readVarInt();
+        this.borrowRecords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            borrowRecords.add(new BorrowRecord(in));
+        }
+        rebuildActiveLoans();
+    }
+    
+    /**
+     * 以二进制格式写出用户属性和借阅记录，子类先调用父类方法再写出自己的属性；顺序须与读取的构造方法一致
+     */
+    public synchronized void writeFields(BinaryWriter out) {
+        out.writeSharedString(userId)
+           .writeString(username)
+           .writeString(password)
+           .writeSharedString(realName)
+           .writeString(email)
+           .writeString(phone)
+           .writeSharedString(department)
+           .writeDateTime(createTime)
+           .writeDateTime(lastLoginTime)
+           .writeBoolean(isActive);
+        out.writeVarInt(borrowRecords.size());
+        for (BorrowRecord record : borrowRecords) {
+            record.writeTo(out);
+        }
     }
     
     // 抽象方法 - 不同用户类型有不同的实现（体现多态）
@@ -127,10 +197,47 @@ public abstract class User implements Serializable {
      * @param borrowDate 借阅日期
      * @param dueDate 到期日期
      */
-    public void addBorrowRecord(String documentId, String documentTitle, 
-                               LocalDate borrowDate, LocalDate dueDate) {
+    public synchronized void addBorrowRecord(String documentId, String documentTitle, 
+                                            LocalDate borrowDate, LocalDate dueDate) {
+        activeLoanCount.incrementAndGet();
+        addReservedBorrowRecord(documentId, documentTitle, borrowDate, dueDate);
+    }
+    
+    /**
+     * 添加借阅记录，借阅数量已由 tryReserveLoanSlot 预占
+     */
+    public synchronized void addReservedBorrowRecord(String documentId, String documentTitle,
+                                                    LocalDate borrowDate, LocalDate dueDate) {
         BorrowRecord record = new BorrowRecord(documentId, documentTitle, borrowDate, dueDate);
         borrowRecords.add(record);
+        if (activeLoans.put(documentId, record) != null) {
+            // 同一文档的旧记录被覆盖，不应重复计数
+            activeLoanCount.decrementAndGet();
+        }
+    }
+    
+    /**
+     * 预占一个借阅名额，未达到上限时当前借阅数量加一
+     * 预占后须调用 addReservedBorrowRecord 或 releaseLoanSlot
+     * @return 已达到借阅上限时返回false
+     */
+    public boolean tryReserveLoanSlot() {
+        int max = getMaxBorrowCount();
+        int count;
+        do {
+            count = activeLoanCount.get();
+            if (count >= max) {
+                return false;
+            }
+        } while (!activeLoanCount.compareAndSet(count, count + 1));
+        return true;
+    }
+    
+    /**
+     * 释放 tryReserveLoanSlot 预占但未使用的名额
+     */
+    public void releaseLoanSlot() {
+        activeLoanCount.decrementAndGet();
     }
     
     /**
@@ -139,9 +246,39 @@ public abstract class User implements Serializable {
      * @param returnDate 归还日期
      */
     public void returnDocument(String documentId, LocalDate returnDate) {
-        for (BorrowRecord record : borrowRecords) {
-            if (record.getDocumentId().equals(documentId) && !record.isReturned()) {
-                record.markAsReturned(returnDate);
+        List<BorrowRecord> trimmed = null;
+        synchronized (this) {
+            BorrowRecord record = activeLoans.remove(documentId);
+            if (record == null) {
+                return;
+            }
+            record.markAsReturned(returnDate);
+            activeLoanCount.decrementAndGet();
+            returnedCount++;
+            // 已归还记录超过保留条数的两倍时才整理一次，均摊到每次归还为 O(1)
+            if (returnedCount > 2 * SystemConfig.USER_RECENT_HISTORY_SIZE) {
+                trimmed = takeHistoryToTrim();
+            }
+        }
+        if (trimmed != null) {
+            archiveHistory(trimmed);
+        }
+    }
+    
+    /**
+     * 撤销一条未归还的借阅记录（批量借阅回滚时使用），不留下历史
+     * @param documentId 文档ID
+     */
+    public synchronized void cancelBorrowRecord(String documentId) {
+        BorrowRecord record = activeLoans.remove(documentId);
+        if (record == null) {
+            return;
+        }
+        activeLoanCount.decrementAndGet();
+        // 回滚的记录通常是最后几条，从末尾查找
+        for (int i = borrowRecords.size() - 1; i >= 0; i--) {
+            if (borrowRecords.get(i) == record) {
+                borrowRecords.remove(i);
                 break;
             }
         }
@@ -152,41 +289,52 @@ public abstract class User implements Serializable {
      * @param documentId 文档ID
      * @param newDueDate 新的到期日期
      */
-    public void renewDocument(String documentId, LocalDate newDueDate) {
-        for (BorrowRecord record : borrowRecords) {
-            if (record.getDocumentId().equals(documentId) && !record.isReturned()) {
-                record.renew(newDueDate);
-                break;
-            }
+    public synchronized void renewDocument(String documentId, LocalDate newDueDate) {
+        BorrowRecord record = activeLoans.get(documentId);
+        if (record != null) {
+            record.renew(newDueDate);
         }
     }
     
+    /**
+     * 是否有该文档未归还的借阅记录
+     */
+    public synchronized boolean hasActiveLoan(String documentId) {
+        return activeLoans.containsKey(documentId);
+    }
+    
     /**
      * 获取当前借阅数量（未归还的）
      * @return 当前借阅数量
      */
     public int getCurrentBorrowCount() {
-        return (int) borrowRecords.stream()
-                                 .filter(record -> !record.isReturned())
-                                 .count();
+        return activeLoanCount.get();
     }
     
     /**
      * 获取当前借阅的文档ID列表
      * @return 当前借阅的文档ID列表
      */
-    public List<String> getCurrentBorrowedDocumentIds() {
-        return borrowRecords.stream()
-                           .filter(record -> !record.isReturned())
-                           .map(BorrowRecord::getDocumentId)
-                           .collect(Collectors.toList());
+    public synchronized List<String> getCurrentBorrowedDocumentIds() {
+        return new ArrayList<>(activeLoans.keySet());
     }
     
     /**
-     * 获取所有借阅记录
+     * 设置接收整理出的已归还记录的借阅历史存储
+     */
+    public static void setHistoryStore(BorrowHistoryStore store) {
+        historyStore = store;
+    }
+    
+    public static BorrowHistoryStore getHistoryStore() {
+        return historyStore;
+    }
+    
+    /**
+     * 获取借阅记录（未归还的记录和最近的已归还记录，更早的历史在借阅历史存储中查询）
      * @return 借阅记录列表
      */
-    public List<BorrowRecord> getBorrowRecords() {
+    public synchronized List<BorrowRecord> getBorrowRecords() {
         return new ArrayList<>(borrowRecords);
     }
     
@@ -194,20 +342,22 @@ public abstract class User implements Serializable {
      * 获取当前借阅记录（未归还的）
      * @return 当前借阅记录列表
      */
-    public List<BorrowRecord> getCurrentBorrowRecords() {
-        return borrowRecords.stream()
-                           .filter(record -> !record.isReturned())
-                           .collect(Collectors.toList());
+    public synchronized List<BorrowRecord> getCurrentBorrowRecords() {
+        return new ArrayList<>(activeLoans.values());
     }
     
     /**
      * 获取逾期记录
      * @return 逾期记录列表
      */
-    public List<BorrowRecord> getOverdueRecords() {
-        return borrowRecords.stream()
-                           .filter(record -> !record.isReturned() && record.isOverdue())
-                           .collect(Collectors.toList());
+    public synchronized List<BorrowRecord> getOverdueRecords() {
+        List<BorrowRecord> overdue = new ArrayList<>();
+        for (BorrowRecord record : activeLoans.values()) {
+            if (record.isOverdue()) {
+                overdue.add(record);
+            }
+        }
+        return overdue;
     }
     
     /**
@@ -218,6 +368,80 @@ public abstract class User implements Serializable {
         return getCurrentBorrowCount() < getMaxBorrowCount();
     }
     
+    /**
+     * 取出超过 USER_RECENT_HISTORY_SIZE 条的最早的已归还记录（仍留在 borrowRecords 中），调用方需持有 this 锁
+     * @return 未设置历史存储或已有一批记录正在写入时返回null
+     */
+    private List<BorrowRecord> takeHistoryToTrim() {
+        if (historyStore == null || trimming) {
+            return null;
+        }
+        int toRemove = returnedCount - SystemConfig.USER_RECENT_HISTORY_SIZE;
+        List<BorrowRecord> trimmed = new ArrayList<>(toRemove);
+        for (BorrowRecord record : borrowRecords) {
+            if (trimmed.size() == toRemove) {
+                break;
+            }
+            if (record.isReturned()) {
+                trimmed.add(record);
+            }
+        }
+        trimming = true;
+        return trimmed;
+    }
+    
+    /**
+     * 在用户锁之外把取出的记录写入历史存储，落盘后再从 borrowRecords 中移除；失败时保留
+     */
+    private void archiveHistory(List<BorrowRecord> trimmed) {
+        BorrowHistoryStore store = historyStore;
+        boolean archived = store != null && store.archive(userId, trimmed);
+        synchronized (this) {
+            trimming = false;
+            if (!archived) {
+                return;
+            }
+            // 已归还记录不会再变化，按对象本身移除
+            Set<BorrowRecord> archivedRecords = Collections.newSetFromMap(new IdentityHashMap<>());
+            archivedRecords.addAll(trimmed);
+            Iterator<BorrowRecord> iterator = borrowRecords.iterator();
+            while (!archivedRecords.isEmpty() && iterator.hasNext()) {
+                if (archivedRecords.remove(iterator.next())) {
+                    iterator.remove();
+                    returnedCount--;
+                }
+            }
+        }
+    }
+    
+    /**
+     * 由借阅记录重建未归还记录索引
+     */
+    private void rebuildActiveLoans() {
+        this.activeLoans = new LinkedHashMap<>();
+        this.returnedCount = 0;
+        for (BorrowRecord record : borrowRecords) {
+            if (record.isReturned()) {
+                returnedCount++;
+            } else {
+                activeLoans.put(record.getDocumentId(), record);
+            }
+        }
+        this.activeLoanCount = new AtomicInteger(activeLoans.size());
+    }
+    
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (borrowRecords == null) {
+            borrowRecords = new ArrayList<>();
+        }
+        rebuildActiveLoans();
+    }
+    
     // Getter和Setter方法
     
     public String getUserId() {
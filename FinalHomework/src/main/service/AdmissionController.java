@@ -0,0 +1,219 @@
+package main.service;
+
+import main.model.system.SystemConfig;
+import main.util.IdRegistry;
+import main.util.OrdinalMap;
+import main.util.TokenBucket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 请求准入控制
+ * 每个请求先取所属用户的令牌，再取全局令牌，任何一个不足都直接拒绝；
+ * 处理队列已满而被丢弃的请求由调用方通过 recordShed 记录。
+ * 被拒绝的请求都计入统计，系统饱和时表现为拒绝数上升，而不是队列无限增长。
+ *
+ * 登录等尚未确定用户的请求通过 tryAdmitClient 按客户端地址限流。地址不加入用户序号表，
+ * 令牌桶数量达到 RATE_LIMIT_MAX_CLIENTS 时移除令牌已积满的桶（删除后重建与保留没有区别，不会放宽限流），
+ * 移除后仍没有空位时拒绝新地址的请求，已有地址的限流不受影响，内存不随攻击者地址数增长。
+ * 清理最多每 CLIENT_SWEEP_INTERVAL_NANOS 进行一次，避免桶已满时每个新地址都遍历全部令牌桶。
+ */
+public class AdmissionController {
+    
+    private static AdmissionController instance;
+    private static final long CLIENT_SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    /**
+     * 准入结果
+     */
+    public enum Decision {
+        ADMITTED(null),
+        USER_RATE_LIMITED("请求过于频繁，请稍后再试"),
+        CLIENT_RATE_LIMITED("请求过于频繁，请稍后再试"),
+        GLOBAL_RATE_LIMITED("系统繁忙，请稍后再试");
+        
+        private final String message;
+        
+        Decision(String message) {
+            this.message = message;
+        }
+        
+        /**
+         * 拒绝原因，ADMITTED 为null
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+    
+    private final TokenBucket globalBucket; // 为null表示不限流
+    private final OrdinalMap<TokenBucket> userBuckets; // 以用户序号为键
+    private final double userRatePerSecond;
+    private final int userBurst;
+    private final ConcurrentHashMap<String, TokenBucket> clientBuckets; // 客户端地址 -> 令牌桶
+    private final double clientRatePerSecond;
+    private final int clientBurst;
+    private final AtomicLong nextClientSweep; // 下次允许清理客户端令牌桶的时间（纳秒）
+    private final IdRegistry userIds;
+    private final LongAdder admitted;
+    private final LongAdder userLimited;
+    private final LongAdder clientLimited;
+    private final LongAdder globalLimited;
+    private final LongAdder shed;
+    
+    /**
+     * 构造方法
+     * @param globalRatePerSecond 全局每秒请求数，不大于0表示不限
+     * @param globalBurst 全局突发请求数
+     * @param userRatePerSecond 每个用户每秒请求数，不大于0表示不限
+     * @param userBurst 每个用户的突发请求数
+     * @param clientRatePerSecond 每个客户端地址每秒请求数（登录），不大于0表示不限
+     * @param clientBurst 每个客户端地址的突发请求数
+     */
+    public AdmissionController(double globalRatePerSecond, int globalBurst,
+                               double userRatePerSecond, int userBurst,
+                               double clientRatePerSecond, int clientBurst) {
+        this.globalBucket = globalRatePerSecond > 0 ? new TokenBucket(globalRatePerSecond, globalBurst) : null;
+        this.userBuckets = new OrdinalMap<>();
+        this.userRatePerSecond = userRatePerSecond;
+        this.userBurst = userBurst;
+        this.clientBuckets = new ConcurrentHashMap<>();
+        this.clientRatePerSecond = clientRatePerSecond;
+        this.clientBurst = clientBurst;
+        this.nextClientSweep = new AtomicLong(System.nanoTime());
+        this.userIds = IdRegistry.users();
+        this.admitted = new LongAdder();
+        this.userLimited = new LongAdder();
+        this.clientLimited = new LongAdder();
+        this.globalLimited = new LongAdder();
+        this.shed = new LongAdder();
+    }
+    
+    /**
+     * 按 SystemConfig 配置的共享实例，借阅和搜索共用
+     */
+    public static synchronized AdmissionController getInstance() {
+        if (instance == null) {
+            instance = new AdmissionController(SystemConfig.RATE_LIMIT_GLOBAL_PER_SECOND,
+                                               SystemConfig.RATE_LIMIT_GLOBAL_BURST,
+                                               SystemConfig.RATE_LIMIT_USER_PER_SECOND,
+                                               SystemConfig.RATE_LIMIT_USER_BURST,
+                                               SystemConfig.RATE_LIMIT_LOGIN_PER_SECOND,
+                                               SystemConfig.RATE_LIMIT_LOGIN_BURST);
+        }
+        return instance;
+    }
+    
+    /**
+     * 不限流的实例（基准测试等场景）
+     */
+    public static AdmissionController unlimited() {
+        return new AdmissionController(0, 0, 0, 0, 0, 0);
+    }
+    
+    /**
+     * 判断请求能否进入系统
+     * @param userId 请求用户，为null时只检查全局限流
+     */
+    public Decision tryAdmit(String userId) {
+        if (userId != null && userRatePerSecond > 0) {
+            TokenBucket bucket = userBuckets.computeIfAbsent(userIds.intern(userId),
+                                                             k -> new TokenBucket(userRatePerSecond, userBurst));
+            if (!bucket.tryAcquire()) {
+                userLimited.increment();
+                return Decision.USER_RATE_LIMITED;
+            }
+        }
+        return admitGlobal();
+    }
+    
+    /**
+     * 判断尚未确定用户的请求（如登录）能否进入系统
+     * @param address 客户端地址，为null时只检查全局限流
+     */
+    public Decision tryAdmitClient(String address) {
+        if (address != null && clientRatePerSecond > 0) {
+            TokenBucket bucket = clientBuckets.get(address);
+            if (bucket == null) {
+                if (clientBuckets.size() >= SystemConfig.RATE_LIMIT_MAX_CLIENTS) {
+                    sweepClientBuckets();
+                    if (clientBuckets.size() >= SystemConfig.RATE_LIMIT_MAX_CLIENTS) {
+                        clientLimited.increment();
+                        return Decision.CLIENT_RATE_LIMITED;
+                    }
+                }
+                bucket = clientBuckets.computeIfAbsent(address,
+                                                       k -> new TokenBucket(clientRatePerSecond, clientBurst));
+            }
+            if (!bucket.tryAcquire()) {
+                clientLimited.increment();
+                return Decision.CLIENT_RATE_LIMITED;
+            }
+        }
+        return admitGlobal();
+    }
+    
+    /**
+     * 移除令牌已积满的客户端令牌桶，同一时间只有一个线程清理
+     */
+    private void sweepClientBuckets() {
+        long now = System.nanoTime();
+        long next = nextClientSweep.get();
+        if (now - next < 0 || !nextClientSweep.compareAndSet(next, now + CLIENT_SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+        clientBuckets.values().removeIf(TokenBucket::isFull);
+    }
+    
+    private Decision admitGlobal() {
+        if (globalBucket != null && !globalBucket.tryAcquire()) {
+            globalLimited.increment();
+            return Decision.GLOBAL_RATE_LIMITED;
+        }
+        admitted.increment();
+        return Decision.ADMITTED;
+    }
+    
+    /**
+     * 记录一个因处理队列已满而被丢弃的请求
+     */
+    public void recordShed() {
+        shed.increment();
+    }
+    
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+    
+    public long getUserLimitedCount() {
+        return userLimited.sum();
+    }
+    
+    public long getClientLimitedCount() {
+        return clientLimited.sum();
+    }
+    
+    public long getGlobalLimitedCount() {
+        return globalLimited.sum();
+    }
+    
+    public long getShedCount() {
+        return shed.sum();
+    }
+    
+    /**
+     * 获取准入统计信息
+     */
+    public String getStatistics() {
+        return String.format("请求准入统计：\n" +
+                           "- 已接受: %d\n" +
+                           "- 用户限流拒绝: %d\n" +
+                           "- 客户端地址限流拒绝: %d\n" +
+                           "- 全局限流拒绝: %d\n" +
+                           "- 队列已满丢弃: %d\n",
+                           getAdmittedCount(), getUserLimitedCount(), getClientLimitedCount(),
+                           getGlobalLimitedCount(), getShedCount());
+    }
+}
@@ -2,31 +2,67 @@ package main.service;
 
 import main.interfaces.Auditable;
 import main.model.system.SystemConfig;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import main.service.audit.AuditQuery;
+import main.service.audit.AuditRecord;
+import main.service.audit.AuditRecordRenderer;
+import main.service.audit.AuditStore;
+import main.util.GroupCommitWriter;
+import main.util.IdRegistry;
+import main.util.OrdinalMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 审计日志服务
  * 实现系统操作的完整日志记录
+ *
+ * 每次审计生成一条结构化的 AuditRecord（用户/资源以序号保存），由 GroupCommitWriter 在后台线程中
+ * 批量写入 AuditStore 并定期刷盘，记录日志的线程只负责入队。
+ * 历史记录不在内存中保留：AuditStore 为每个日志段维护时间索引和用户/资源索引，
+ * 查询历史时先等待已入队的记录写入，再从磁盘按索引读取，重启后历史依然可查。
+ * 可读文本只在查询历史或开启控制台输出时由 AuditRecordRenderer 生成。
+ * 清空历史不删除日志段中的记录，而是把清空的时间点写入 cleared.dat，重启后加载，查询时过滤此前的记录。
  */
 public class AuditService implements Auditable {
     
     private static AuditService instance;
-    private Map<String, List<String>> userOperationHistory;
-    private Map<String, List<String>> resourceAccessHistory;
-    private DateTimeFormatter formatter;
+    private final IdRegistry userIds;
+    private final IdRegistry resourceIds;
+    private final AuditRecordRenderer renderer;
+    private final AuditStore store; // 打开存储目录失败时为null
+    private volatile GroupCommitWriter<AuditRecord> logWriter; // 打开存储失败或关闭后为null
+    private volatile boolean consoleEcho;
+    // 清空历史的时间点（毫秒），此前的记录不再出现在该用户/资源的历史中；修改时持有 this 锁并写入文件
+    private final OrdinalMap<Long> userClearedAt;
+    private final OrdinalMap<Long> resourceClearedAt;
     
     private AuditService() {
-        this.userOperationHistory = new HashMap<>();
-        this.resourceAccessHistory = new HashMap<>();
-        this.formatter = DateTimeFormatter.ofPattern(SystemConfig.DATETIME_FORMAT);
+        this.userIds = IdRegistry.users();
+        this.resourceIds = IdRegistry.documents();
+        this.renderer = new AuditRecordRenderer();
+        this.userClearedAt = new OrdinalMap<>();
+        this.resourceClearedAt = new OrdinalMap<>();
+        this.store = openStore(SystemConfig.AUDIT_STORE_DIR);
+        loadClearedAt();
+        this.logWriter = store == null ? null
+                : new GroupCommitWriter<>("audit", store, SystemConfig.AUDIT_QUEUE_CAPACITY,
+                                          SystemConfig.AUDIT_SYNC_BATCH, SystemConfig.AUDIT_SYNC_INTERVAL_MS);
+        this.consoleEcho = SystemConfig.AUDIT_CONSOLE_ECHO;
+        // 进程退出前写完队列中的日志
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "audit-shutdown"));
     }
     
     /**
@@ -42,98 +78,245 @@ public class AuditService implements Auditable {
     @Override
     public void logOperation(String userId, String operation, String resourceId, 
                            LocalDateTime timestamp, String details) {
-        String logEntry = String.format("[%s] 用户: %s | 操作: %s | 资源: %s | 详情: %s", 
-                                       timestamp.format(formatter), userId, operation, 
-                                       resourceId != null ? resourceId : "N/A", details);
+        int userOrdinal = userIds.intern(userId);
+        int resourceOrdinal = resourceId != null ? resourceIds.intern(resourceId) : -1;
+        AuditRecord record = AuditRecord.operation(toEpochMillis(timestamp), userOrdinal, resourceOrdinal,
+                                                   operation, details);
         
-        // 添加到用户操作历史
-        userOperationHistory.computeIfAbsent(userId, k -> new ArrayList<>()).add(logEntry);
-        
-        // 如果有资源ID，也添加到资源访问历史
-        if (resourceId != null) {
-            resourceAccessHistory.computeIfAbsent(resourceId, k -> new ArrayList<>()).add(logEntry);
-        }
-        
-        // 写入日志文件
-        writeToLogFile(logEntry, SystemConfig.AUDIT_LOG_FILE);
+        // 写入日志文件（同时进入用户索引和资源索引）
+        writeToLogFile(record);
         
         // 控制台输出（开发调试用）
-        System.out.println("【审计日志】" + logEntry);
+        if (consoleEcho) {
+            System.out.println("【审计日志】" + renderer.render(record));
+        }
     }
     
     @Override
     public void logLogin(String userId, LocalDateTime timestamp, String ipAddress, boolean success) {
-        String status = success ? "成功" : "失败";
-        String logEntry = String.format("[%s] 登录%s | 用户: %s | IP: %s", 
-                                       timestamp.format(formatter), status, userId, ipAddress);
+        int userOrdinal = userIds.intern(userId);
+        AuditRecord record = AuditRecord.login(toEpochMillis(timestamp), userOrdinal, ipAddress, success);
+        
+        writeToLogFile(record);
+        
+        if (consoleEcho) {
+            System.out.println("【登录日志】" + renderer.render(record));
+        }
+    }
+    
+    /**
+     * 记录用户名不存在的登录失败
+     * 用户名是客户端的任意输入，不加入用户序号表（否则每个猜测的用户名都会永久占用一个序号），
+     * 截断后与IP地址一起写在详情中，该记录不出现在任何用户的历史中
+     */
+    public void logUnknownLogin(String username, LocalDateTime timestamp, String ipAddress) {
+        String name = username == null ? "" : username;
+        if (name.length() > SystemConfig.AUDIT_MAX_USERNAME_LENGTH) {
+            name = name.substring(0, SystemConfig.AUDIT_MAX_USERNAME_LENGTH) + "...";
+        }
+        AuditRecord record = AuditRecord.login(toEpochMillis(timestamp), -1,
+                                               ipAddress + "，未知用户名: " + name, false);
         
-        userOperationHistory.computeIfAbsent(userId, k -> new ArrayList<>()).add(logEntry);
-        writeToLogFile(logEntry, SystemConfig.AUDIT_LOG_FILE);
+        writeToLogFile(record);
         
-        System.out.println("【登录日志】" + logEntry);
+        if (consoleEcho) {
+            System.out.println("【登录日志】" + renderer.render(record));
+        }
     }
     
     @Override
     public void logAccess(String userId, String resourceId, LocalDateTime timestamp, String accessType) {
-        String logEntry = String.format("[%s] 访问资源 | 用户: %s | 资源: %s | 类型: %s", 
-                                       timestamp.format(formatter), userId, resourceId, accessType);
+        int userOrdinal = userIds.intern(userId);
+        int resourceOrdinal = resourceId != null ? resourceIds.intern(resourceId) : -1;
+        AuditRecord record = AuditRecord.access(toEpochMillis(timestamp), userOrdinal, resourceOrdinal, accessType);
         
-        userOperationHistory.computeIfAbsent(userId, k -> new ArrayList<>()).add(logEntry);
-        resourceAccessHistory.computeIfAbsent(resourceId, k -> new ArrayList<>()).add(logEntry);
-        writeToLogFile(logEntry, SystemConfig.AUDIT_LOG_FILE);
+        writeToLogFile(record);
         
-        System.out.println("【访问日志】" + logEntry);
+        if (consoleEcho) {
+            System.out.println("【访问日志】" + renderer.render(record));
+        }
     }
     
     @Override
     public String getOperationHistory(String userId) {
-        List<String> history = userOperationHistory.get(userId);
-        if (history == null || history.isEmpty()) {
+        // 页码超出时取最后一页，即最近的记录
+        return getOperationHistory(userId, Integer.MAX_VALUE, SystemConfig.AUDIT_HISTORY_PAGE_SIZE);
+    }
+    
+    @Override
+    public String getOperationHistory(String userId, int page, int pageSize) {
+        AuditQuery query = userQuery(userId);
+        int total = countHistory(query);
+        if (total == 0) {
             return "用户 " + userId + " 暂无操作记录";
         }
-        
-        StringBuilder sb = new StringBuilder("用户 " + userId + " 的操作历史：\n");
-        for (String entry : history) {
-            sb.append(entry).append("\n");
-        }
-        return sb.toString();
+        return formatPage("用户 " + userId + " 的操作历史", query, total, page, pageSize);
     }
     
     @Override
     public String getAccessHistory(String resourceId) {
-        List<String> history = resourceAccessHistory.get(resourceId);
-        if (history == null || history.isEmpty()) {
+        return getAccessHistory(resourceId, Integer.MAX_VALUE, SystemConfig.AUDIT_HISTORY_PAGE_SIZE);
+    }
+    
+    @Override
+    public String getAccessHistory(String resourceId, int page, int pageSize) {
+        AuditQuery query = resourceQuery(resourceId);
+        int total = countHistory(query);
+        if (total == 0) {
             return "资源 " + resourceId + " 暂无访问记录";
         }
+        return formatPage("资源 " + resourceId + " 的访问历史", query, total, page, pageSize);
+    }
+    
+    /**
+     * 按条件查询审计记录，例如某用户在某个月内的全部借阅：
+     * queryHistory(AuditQuery.byUser(id).operation(OperationTypes.BORROW).between(月初, 下月初), 0, n)
+     * @param skip 跳过的条数
+     * @param limit 最多返回的条数，超过 AUDIT_HISTORY_MAX_LIMIT 时按 AUDIT_HISTORY_MAX_LIMIT 处理
+     * @return 按写入顺序排列的日志文本
+     */
+    public List<String> queryHistory(AuditQuery query, int skip, int limit) {
+        List<String> result = new ArrayList<>();
+        for (AuditRecord record : findRecords(query, skip, limit)) {
+            result.add(renderer.render(record));
+        }
+        return result;
+    }
+    
+    /**
+     * 按条件查询一页审计记录（最近的默认每页条数）
+     */
+    public List<String> queryHistory(AuditQuery query) {
+        int total = countHistory(query);
+        return queryHistory(query, Math.max(0, total - SystemConfig.AUDIT_HISTORY_PAGE_SIZE),
+                            SystemConfig.AUDIT_HISTORY_PAGE_SIZE);
+    }
+    
+    /**
+     * 按条件查询审计记录（结构化结果），limit 的上限同 queryHistory
+     */
+    public List<AuditRecord> findRecords(AuditQuery query, int skip, int limit) {
+        if (store == null) {
+            return new ArrayList<>();
+        }
+        flush();
+        return store.find(query, skip, Math.min(limit, SystemConfig.AUDIT_HISTORY_MAX_LIMIT));
+    }
+    
+    /**
+     * 统计满足条件的审计记录数
+     */
+    public int countHistory(AuditQuery query) {
+        if (store == null) {
+            return 0;
+        }
+        flush();
+        return store.count(query);
+    }
+    
+    private String formatPage(String title, AuditQuery query, int total, int page, int pageSize) {
+        if (pageSize <= 0) {
+            pageSize = SystemConfig.AUDIT_HISTORY_PAGE_SIZE;
+        }
+        pageSize = Math.min(pageSize, SystemConfig.AUDIT_HISTORY_MAX_LIMIT);
+        int pageCount = (total + pageSize - 1) / pageSize;
+        page = Math.max(1, Math.min(page, pageCount));
         
-        StringBuilder sb = new StringBuilder("资源 " + resourceId + " 的访问历史：\n");
-        for (String entry : history) {
+        StringBuilder sb = new StringBuilder(String.format("%s（第 %d/%d 页，共 %d 条）：\n",
+                                                           title, page, pageCount, total));
+        for (String entry : queryHistory(query, (page - 1) * pageSize, pageSize)) {
             sb.append(entry).append("\n");
         }
         return sb.toString();
     }
     
+    private AuditQuery userQuery(String userId) {
+        AuditQuery query = AuditQuery.byUser(userId);
+        Long clearedAt = userClearedAt.get(userIds.lookup(userId));
+        return clearedAt == null ? query : query.notBefore(clearedAt);
+    }
+    
+    private AuditQuery resourceQuery(String resourceId) {
+        AuditQuery query = AuditQuery.byResource(resourceId);
+        Long clearedAt = resourceClearedAt.get(resourceIds.lookup(resourceId));
+        return clearedAt == null ? query : query.notBefore(clearedAt);
+    }
+    
     /**
-     * 写入日志文件
+     * 是否在控制台输出审计日志
      */
-    private void writeToLogFile(String logEntry, String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
-            writer.write(logEntry);
-            writer.newLine();
-        } catch (IOException e) {
+    public void setConsoleEcho(boolean consoleEcho) {
+        this.consoleEcho = consoleEcho;
+    }
+    
+    public boolean isConsoleEcho() {
+        return consoleEcho;
+    }
+    
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * 写入日志文件（放入写入队列，由后台线程批量编码写入）
+     */
+    private void writeToLogFile(AuditRecord record) {
+        GroupCommitWriter<AuditRecord> writer = logWriter;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.append(record);
+        } catch (IllegalStateException e) {
             System.err.println("写入日志文件失败: " + e.getMessage());
         }
     }
     
+    private static AuditStore openStore(String directory) {
+        try {
+            return new AuditStore(Paths.get(directory), SystemConfig.AUDIT_SEGMENT_MAX_BYTES,
+                                  SystemConfig.AUDIT_SPARSE_INDEX_INTERVAL, SystemConfig.AUDIT_CLOCK_SKEW_MS,
+                                  TimeUnit.DAYS.toMillis(SystemConfig.AUDIT_RETENTION_DAYS),
+                                  SystemConfig.AUDIT_MAX_TOTAL_BYTES);
+        } catch (IOException e) {
+            System.err.println("打开审计日志存储失败: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 等待已记录的日志全部写入文件
+     */
+    public void flush() {
+        GroupCommitWriter<AuditRecord> writer = logWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+    
+    /**
+     * 写完剩余日志并关闭日志文件
+     */
+    public synchronized void shutdown() {
+        if (logWriter != null) {
+            logWriter.close();
+            logWriter = null;
+        }
+    }
+    
     /**
      * 获取系统统计信息
      */
     public String getSystemStatistics() {
-        int totalUsers = userOperationHistory.size();
-        int totalResources = resourceAccessHistory.size();
-        int totalOperations = userOperationHistory.values().stream()
-                                                 .mapToInt(List::size)
-                                                 .sum();
+        int totalUsers = 0;
+        int totalResources = 0;
+        long totalOperations = 0;
+        if (store != null) {
+            flush();
+            totalUsers = store.distinctUsers();
+            totalResources = store.distinctResources();
+            totalOperations = store.recordCount();
+        }
         
         return String.format("系统统计信息：\n" +
                            "- 活跃用户数: %d\n" +
@@ -144,17 +327,92 @@ public class AuditService implements Auditable {
     
     /**
      * 清空指定用户的操作历史
+     * 日志文件只追加，清空的时间点写入文件，此前的记录不再出现在该用户的历史查询中（重启后依然有效）
      */
-    public void clearUserHistory(String userId) {
-        userOperationHistory.remove(userId);
-        System.out.println("已清空用户 " + userId + " 的操作历史");
+    public synchronized void clearUserHistory(String userId) {
+        userClearedAt.put(userIds.intern(userId), System.currentTimeMillis());
+        if (saveClearedAt()) {
+            System.out.println("已清空用户 " + userId + " 的操作历史");
+        }
     }
     
     /**
      * 清空指定资源的访问历史
+     * 日志文件只追加，清空的时间点写入文件，此前的记录不再出现在该资源的历史查询中（重启后依然有效）
+     */
+    public synchronized void clearResourceHistory(String resourceId) {
+        resourceClearedAt.put(resourceIds.intern(resourceId), System.currentTimeMillis());
+        if (saveClearedAt()) {
+            System.out.println("已清空资源 " + resourceId + " 的访问历史");
+        }
+    }
+    
+    /**
+     * 加载清空历史的时间点，文件不存在时视为没有清空过
+     */
+    private void loadClearedAt() {
+        Path file = Paths.get(SystemConfig.AUDIT_CLEARED_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            readClearedAt(in, userClearedAt, userIds);
+            readClearedAt(in, resourceClearedAt, resourceIds);
+        } catch (IOException e) {
+            System.err.println("加载历史清空记录失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 保存清空历史的时间点：先写临时文件并刷盘，再原子替换
+     * @return 是否保存成功，失败时清空只在本次运行中有效
      */
-    public void clearResourceHistory(String resourceId) {
-        resourceAccessHistory.remove(resourceId);
-        System.out.println("已清空资源 " + resourceId + " 的访问历史");
+    private boolean saveClearedAt() {
+        Path file = Paths.get(SystemConfig.AUDIT_CLEARED_FILE);
+        Path temp = Paths.get(SystemConfig.AUDIT_CLEARED_FILE + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                writeClearedAt(out, userClearedAt, userIds);
+                writeClearedAt(out, resourceClearedAt, resourceIds);
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("保存历史清空记录失败，清空只在本次运行中有效: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static void writeClearedAt(DataOutputStream out, OrdinalMap<Long> clearedAt,
+                                       IdRegistry ids) throws IOException {
+        out.writeInt(clearedAt.size());
+        IOException[] failure = new IOException[1];
+        clearedAt.forEachEntry((key, time) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                out.writeUTF(ids.idOf(key));
+                out.writeLong(time);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+    
+    private static void readClearedAt(DataInputStream in, OrdinalMap<Long> clearedAt,
+                                      IdRegistry ids) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int key = ids.intern(in.readUTF());
+            clearedAt.put(key, in.readLong());
+        }
     }
 }
@@ -0,0 +1,171 @@
+package main.service;
+
+import main.interfaces.BorrowHistoryStore;
+import main.model.system.SystemConfig;
+import main.model.user.BorrowRecord;
+import main.util.BinaryReader;
+import main.util.BinaryWriter;
+import main.util.GroupCommitWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 借阅历史归档
+ * 用户对象整理历史时移除的已归还记录追加到归档文件，每条为 变长(长度) + 用户ID + BorrowRecord 的二进制内容，
+ * 由 GroupCommitWriter 写入，archive 在记录落盘后才返回，之后用户对象才丢弃这些记录。
+ *
+ * 崩溃后重放借阅日志可能再次整理同一批记录，查询时合并内容完全相同的记录。
+ * 打开时校验整个文件，截掉崩溃时未写完整的尾部记录，之后追加的记录不会跟在残缺记录后面。
+ * 归档只追加，按用户查询时顺序读取整个文件。
+ */
+public class BorrowHistoryArchive implements BorrowHistoryStore, AutoCloseable {
+    
+    private final Path path;
+    private final GroupCommitWriter<Entry> writer;
+    
+    public BorrowHistoryArchive(Path path) throws IOException {
+        this.path = path;
+        truncateIncompleteTail(path);
+        this.writer = new GroupCommitWriter<>(path, BorrowHistoryArchive::encode,
+                                              SystemConfig.BORROW_HISTORY_QUEUE_CAPACITY,
+                                              SystemConfig.BORROW_HISTORY_SYNC_BATCH,
+                                              SystemConfig.BORROW_HISTORY_SYNC_INTERVAL_MS);
+    }
+    
+    /**
+     * 按 SystemConfig 的配置打开归档文件
+     */
+    public static BorrowHistoryArchive open() throws IOException {
+        return new BorrowHistoryArchive(Paths.get(SystemConfig.BORROW_HISTORY_FILE));
+    }
+    
+    @Override
+    public boolean archive(String userId, List<BorrowRecord> records) {
+        if (records.isEmpty()) {
+            return true;
+        }
+        try {
+            CompletableFuture<Void> synced = null;
+            for (BorrowRecord record : records) {
+                synced = writer.appendAndSync(new Entry(userId, record));
+            }
+            // 同一写入器按顺序落盘，最后一条落盘时前面的也已落盘
+            synced.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            System.err.println("归档借阅记录失败: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    @Override
+    public List<BorrowRecord> findByUser(String userId) {
+        writer.flush();
+        byte[] content;
+        try {
+            content = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
+        } catch (IOException e) {
+            System.err.println("读取借阅历史失败: " + e.getMessage());
+            return new ArrayList<>();
+        }
+        
+        Map<String, BorrowRecord> found = new LinkedHashMap<>();
+        BinaryReader in = new BinaryReader(content);
+        try {
+            while (in.hasRemaining()) {
+                BinaryReader entry = in.readRecord();
+                if (userId.equals(entry.readString())) {
+                    BorrowRecord record = new BorrowRecord(entry);
+                    found.putIfAbsent(key(record), record);
+                }
+            }
+        } catch (EOFException e) {
+            // 崩溃时写了一半的最后一条记录
+        } catch (IOException e) {
+            System.err.println("借阅历史文件格式错误: " + e.getMessage());
+        }
+        return new ArrayList<>(found.values());
+    }
+    
+    /**
+     * 写完剩余记录并关闭归档文件
+     */
+    @Override
+    public void close() {
+        writer.close();
+    }
+    
+    /**
+     * 截掉最后一条完整记录之后的内容
+     */
+    private static void truncateIncompleteTail(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        byte[] content = Files.readAllBytes(path);
+        BinaryReader in = new BinaryReader(content);
+        int valid = 0;
+        try {
+            while (in.hasRemaining()) {
+                BinaryReader entry = in.readRecord();
+                entry.readString();
+                new BorrowRecord(entry);
+                valid = in.getPosition();
+            }
+        } catch (IOException e) {
+            // valid 停在最后一条完整记录之后
+        }
+        if (valid < content.length) {
+            System.err.println("借阅历史文件尾部不完整，已截断: " + path.getFileName());
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+        }
+    }
+    
+    private static String key(BorrowRecord record) {
+        return record.getDocumentId() + '\0' + record.getBorrowDate() + '\0' + record.getDueDate()
+                + '\0' + record.getReturnDate() + '\0' + record.getRenewalCount();
+    }
+    
+    private static void encode(Entry entry, ByteBuffer buffer) {
+        BinaryWriter content = new BinaryWriter();
+        content.writeString(entry.userId);
+        entry.record.writeTo(content);
+        BinaryWriter framed = new BinaryWriter(content.size() + 5);
+        framed.writeRecord(content);
+        // 空间不足时整条记录都不写入，由写入器扩容后重试
+        buffer.put(framed.toByteArray());
+    }
+    
+    /**
+     * 归档文件中的一条记录
+     */
+    private static class Entry {
+        final String userId;
+        final BorrowRecord record;
+        
+        Entry(String userId, BorrowRecord record) {
+            this.userId = userId;
+            this.record = record;
+        }
+    }
+}
@@ -1,63 +1,391 @@
 package main.service;
 
 import main.model.document.Document;
+import main.model.document.LoanState;
 import main.model.user.User;
 import main.model.system.SystemConfig;
+import main.service.index.DueDateIndex;
+import main.util.IdRegistry;
+import main.util.OrdinalMap;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * 借阅服务
  * 支持多线程并发处理借阅请求
+ *
+ * 每个请求分为四步：校验、业务处理（ProcessingHook）、状态变更、审计。
+ * 状态变更由 Document 以 CAS 替换借阅状态快照完成，不需要加锁；同一文档的并发借阅只有一个能成功，
+ * 业务处理和审计都不会阻塞其他请求。
+ *
+ * 异步请求可以交给固定线程池，也可以每个请求使用一个虚拟线程（ExecutionMode）；
+ * 虚拟线程在等待业务处理或日志 I/O 时不占用平台线程，同时处理的请求数由信号量限制。
+ * 分片模式（SHARDED）只是执行器的划分：按文档序号把异步借阅/归还请求分配给若干单线程执行器，
+ * 同一文档的异步请求在同一个线程上排队，减少 CAS 重试；分片并不独占文档，同步接口、续借、checkoutAll
+ * 和预约交接仍会在其他线程修改同一文档，正确性始终由借阅状态的 CAS 和 User 的原子计数保证。
+ * 分片线程会等待业务处理和借阅日志刷盘（LibraryJournal.awaitDurable），期间该分片的其他请求只能排队，
+ * 适合不模拟处理耗时（ProcessingHook.NONE）且不写日志或刷盘很快的场景，否则应使用虚拟线程。
+ * 异步接口返回 CompletableFuture，调用方可以组合多个结果而不必逐个阻塞等待。
+ *
+ * 异步请求先经过 AdmissionController 的用户和全局限流，等待执行的请求数超过 BORROW_QUEUE_CAPACITY 时直接拒绝，
+ * 被拒绝的请求返回说明原因的 BorrowResult（isRejected 为true），不会在队列中无限堆积。
+ *
+ * 热门文档可通过 borrowOrReserve 预约：文档已借出时请求进入该文档的先进先出队列，
+ * 归还时文档直接交给队首用户并完成其 Future，不需要反复重试。
+ *
+ * checkoutAll 一次借阅多个文档，全部成功或全部不借；借阅状态是乐观的 CAS 快照而不是锁，
+ * 各文档按ID的规范顺序依次借出，失败时按相反顺序撤销，不会出现持锁等待，也就不会死锁。
+ *
+ * 借出文档按到期日登记在 DueDateIndex 中，逾期查询和到期提醒不需要遍历全部文档。
+ *
+ * 指定 LibraryJournal 时，每次借阅状态变更都写入借阅日志，借阅、归还、续借在日志落盘后才返回成功；
+ * 并发请求的日志共享一次刷盘。
  */
 public class BorrowingService {
     
-    private final Map<String, Document> documentRepository;
-    private final Map<String, User> userRepository;
+    /**
+     * 借阅/归还的业务处理钩子（如调用外部系统），在文档锁之外执行
+     */
+    @FunctionalInterface
+    public interface ProcessingHook {
+        /**
+         * 不做任何处理
+         */
+        ProcessingHook NONE = (operation, userId, documentId) -> { };
+        
+        /**
+         * 模拟处理耗时：借阅 100 毫秒，归还 50 毫秒
+         */
+        ProcessingHook SIMULATED = (operation, userId, documentId) ->
+                Thread.sleep(SystemConfig.OperationTypes.BORROW.equals(operation) ? 100 : 50);
+        
+        /**
+         * @param operation 操作类型（SystemConfig.OperationTypes.BORROW / RETURN）
+         */
+        void process(String operation, String userId, String documentId) throws InterruptedException;
+    }
+    
+    /**
+     * 异步请求的执行方式
+     */
+    public enum ExecutionMode {
+        FIXED_POOL,      // 固定大小的平台线程池
+        VIRTUAL_THREADS, // 每个请求一个虚拟线程
+        SHARDED          // 按文档序号划分执行器，每个分片一个线程（不独占文档）
+    }
+    
+    private static final String BUSY_MESSAGE = "系统繁忙，请稍后再试";
+    
+    // 以 IdRegistry 分配的序号为键
+    private final OrdinalMap<Document> documentRepository;
+    private final OrdinalMap<User> userRepository;
     private final AuditService auditService;
     private final ExecutorService threadPool;
-    private final Map<String, ReentrantLock> documentLocks;
+    private final ExecutorService[] shards; // 分片模式下的单线程执行器，其他模式为null
+    private final IdRegistry documentIds;
+    private final IdRegistry userIds;
+    private final ProcessingHook processingHook;
+    private final ExecutionMode executionMode;
+    private final Semaphore concurrencyLimit;
+    private final int maxConcurrentRequests;
+    private final OrdinalMap<Waitlist> waitlists; // 以文档序号为键的预约队列
+    private final DueDateIndex dueDateIndex;
+    private final AdmissionController admissionController;
+    private final AtomicInteger pendingRequests; // 已提交但尚未完成的异步请求数
+    private final int maxPendingRequests;
+    private final LibraryJournal journal; // 为null时不记录借阅日志
     
     public BorrowingService() {
-        this.documentRepository = new ConcurrentHashMap<>();
-        this.userRepository = new ConcurrentHashMap<>();
+        this(ProcessingHook.SIMULATED);
+    }
+    
+    /**
+     * 构造方法，执行方式使用 SystemConfig 中的配置
+     * @param processingHook 业务处理钩子，ProcessingHook.NONE 表示不模拟处理耗时
+     */
+    public BorrowingService(ProcessingHook processingHook) {
+        this(processingHook,
+             SystemConfig.BORROW_USE_VIRTUAL_THREADS ? ExecutionMode.VIRTUAL_THREADS : ExecutionMode.FIXED_POOL,
+             SystemConfig.BORROW_MAX_CONCURRENT_REQUESTS);
+    }
+    
+    /**
+     * 构造方法
+     * @param processingHook 业务处理钩子
+     * @param executionMode 异步请求的执行方式
+     * @param maxConcurrentRequests 同时处理的异步请求上限
+     */
+    public BorrowingService(ProcessingHook processingHook, ExecutionMode executionMode,
+                            int maxConcurrentRequests) {
+        this(processingHook, executionMode, maxConcurrentRequests, AdmissionController.getInstance());
+    }
+    
+    /**
+     * 构造方法
+     * @param processingHook 业务处理钩子
+     * @param executionMode 异步请求的执行方式
+     * @param maxConcurrentRequests 同时处理的异步请求上限
+     * @param admissionController 异步请求的准入控制
+     */
+    public BorrowingService(ProcessingHook processingHook, ExecutionMode executionMode,
+                            int maxConcurrentRequests, AdmissionController admissionController) {
+        this(processingHook, executionMode, maxConcurrentRequests, admissionController, null);
+    }
+    
+    /**
+     * 构造方法
+     * @param processingHook 业务处理钩子
+     * @param executionMode 异步请求的执行方式
+     * @param maxConcurrentRequests 同时处理的异步请求上限
+     * @param admissionController 异步请求的准入控制
+     * @param journal 借阅日志，为null时不记录
+     */
+    public BorrowingService(ProcessingHook processingHook, ExecutionMode executionMode,
+                            int maxConcurrentRequests, AdmissionController admissionController,
+                            LibraryJournal journal) {
+        this.documentRepository = new OrdinalMap<>();
+        this.userRepository = new OrdinalMap<>();
         this.auditService = AuditService.getInstance();
-        this.threadPool = Executors.newFixedThreadPool(10); // 10个工作线程
-        this.documentLocks = new ConcurrentHashMap<>();
+        // 分片模式下 threadPool 只处理跨分片的请求（如批量借阅）
+        this.threadPool = executionMode == ExecutionMode.FIXED_POOL
+                ? Executors.newFixedThreadPool(SystemConfig.BORROW_THREAD_POOL_SIZE)
+                : Executors.newVirtualThreadPerTaskExecutor();
+        if (executionMode == ExecutionMode.SHARDED) {
+            this.shards = new ExecutorService[Math.max(1, SystemConfig.BORROW_SHARD_COUNT)];
+            for (int i = 0; i < shards.length; i++) {
+                String name = "borrow-shard-" + i;
+                shards[i] = Executors.newSingleThreadExecutor(task -> new Thread(task, name));
+            }
+        } else {
+            this.shards = null;
+        }
+        this.documentIds = IdRegistry.documents();
+        this.userIds = IdRegistry.users();
+        this.processingHook = processingHook;
+        this.executionMode = executionMode;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.concurrencyLimit = new Semaphore(maxConcurrentRequests, true);
+        this.waitlists = new OrdinalMap<>();
+        this.dueDateIndex = new DueDateIndex();
+        this.admissionController = admissionController;
+        this.pendingRequests = new AtomicInteger();
+        this.maxPendingRequests = maxConcurrentRequests + SystemConfig.BORROW_QUEUE_CAPACITY;
+        this.journal = journal;
     }
     
     /**
      * 添加文档到借阅库
      */
     public void addDocument(Document document) {
-        documentRepository.put(document.getDocumentId(), document);
-        documentLocks.put(document.getDocumentId(), new ReentrantLock());
+        int ordinal = documentIds.intern(document.getDocumentId());
+        documentRepository.put(ordinal, document);
+        // 从文件加载的文档可能处于借出状态
+        dueDateIndex.refresh(ordinal, document);
+        if (journal != null) {
+            journal.track(ordinal, document);
+        }
     }
     
     /**
      * 添加用户到用户库
      */
     public void addUser(User user) {
-        userRepository.put(user.getUserId(), user);
+        userRepository.put(userIds.intern(user.getUserId()), user);
     }
     
     /**
      * 异步借阅处理
      */
-    public Future<BorrowResult> borrowAsync(String userId, String documentId) {
-        return threadPool.submit(() -> {
-            return processBorrow(userId, documentId);
+    public CompletableFuture<BorrowResult> borrowAsync(String userId, String documentId) {
+        return submitRequest(userId, executorFor(documentId), () -> processBorrow(userId, documentId));
+    }
+    
+    /**
+     * 批量借阅（如学期末集中借书）
+     * 请求按文档分组，每组在一个任务中依次处理：同一文档只会被第一个符合条件的请求借出，
+     * 其余请求在校验阶段直接失败，不会互相竞争；所有分组处理完后一起完成。
+     * @return 与 requests 顺序一致的结果列表
+     */
+    public CompletableFuture<List<BorrowResult>> borrowBatch(List<BorrowRequest> requests) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            groups.computeIfAbsent(requests.get(i).getDocumentId(), id -> new ArrayList<>()).add(i);
+        }
+        
+        BorrowResult[] results = new BorrowResult[requests.size()];
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            // 每个请求分别经过准入控制，被拒绝的请求不进入分组任务
+            List<Integer> admitted = new ArrayList<>();
+            for (int index : group) {
+                AdmissionController.Decision decision = admissionController.tryAdmit(requests.get(index).getUserId());
+                if (decision == AdmissionController.Decision.ADMITTED) {
+                    admitted.add(index);
+                } else {
+                    results[index] = BorrowResult.rejected(decision.getMessage());
+                }
+            }
+            if (admitted.isEmpty()) {
+                continue;
+            }
+            String documentId = requests.get(admitted.get(0)).getDocumentId();
+            try {
+                tasks.add(submit(executorFor(documentId), () -> {
+                    for (int index : admitted) {
+                        BorrowRequest request = requests.get(index);
+                        results[index] = processBorrow(request.getUserId(), request.getDocumentId());
+                    }
+                    return null;
+                }));
+            } catch (RejectedExecutionException e) {
+                admissionController.recordShed();
+                for (int index : admitted) {
+                    results[index] = BorrowResult.rejected(BUSY_MESSAGE);
+                }
+            }
+        }
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+                                .thenApply(done -> Arrays.asList(results));
+    }
+    
+    /**
+     * 异步批量借阅，见 checkoutAll
+     */
+    public CompletableFuture<BorrowResult> checkoutAllAsync(String userId, List<String> requestedIds) {
+        return submitRequest(userId, threadPool, () -> checkoutAll(userId, requestedIds));
+    }
+    
+    /**
+     * 批量借阅：所有文档都借到才成功，否则已借出的文档全部撤销
+     * 业务处理对整批只执行一次，成功后写一条批量借阅审计记录（详情中列出各文档及到期日）。
+     * @param requestedIds 文档ID列表，重复的ID只借一次
+     */
+    public BorrowResult checkoutAll(String userId, List<String> requestedIds) {
+        User user = userRepository.get(userIds.lookup(userId));
+        if (user == null) {
+            return new BorrowResult(false, "用户不存在");
+        }
+        // 规范顺序：按文档ID排序并去重
+        List<String> orderedIds = new ArrayList<>(new TreeSet<>(requestedIds));
+        if (orderedIds.isEmpty()) {
+            return new BorrowResult(false, "借阅失败：未指定文档");
+        }
+        
+        int[] ordinals = new int[orderedIds.size()];
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < orderedIds.size(); i++) {
+            ordinals[i] = documentIds.lookup(orderedIds.get(i));
+            Document document = documentRepository.get(ordinals[i]);
+            if (document == null) {
+                return new BorrowResult(false, "文档不存在：" + orderedIds.get(i));
+            }
+            documents.add(document);
+        }
+        
+        // 整批校验：借阅数量上限和每个文档的可借状态
+        if (user.getCurrentBorrowCount() + documents.size() > user.getMaxBorrowCount()) {
+            return new BorrowResult(false, String.format("借阅失败：超出借阅上限（已借 %d，上限 %d）",
+                                                         user.getCurrentBorrowCount(), user.getMaxBorrowCount()));
+        }
+        for (Document document : documents) {
+            if (!document.isAvailableFor(user)) {
+                return new BorrowResult(false, borrowFailureReason(document, user) + "：" + document.getDocumentId());
+            }
+        }
+        
+        try {
+            processingHook.process(SystemConfig.OperationTypes.BORROW, userId, String.join(",", orderedIds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BorrowResult(false, "借阅处理被中断");
+        }
+        
+        // 按规范顺序借出，任何一个失败则按相反顺序撤销已借出的文档
+        LocalDate borrowDate = LocalDate.now();
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            if (!document.borrow(user, borrowDate)) {
+                String reason = borrowFailureReason(document, user) + "：" + document.getDocumentId();
+                for (int j = i - 1; j >= 0; j--) {
+                    documents.get(j).cancelBorrow(user);
+                    loanChanged(ordinals[j], documents.get(j), true);
+                    // 撤销前短暂处于借出状态，期间可能有人预约
+                    serveWaiters(ordinals[j], documents.get(j));
+                }
+                return new BorrowResult(false, reason + "，已撤销本次全部借阅");
+            }
+        }
+        
+        StringBuilder details = new StringBuilder();
+        CompletableFuture<Void> synced = null;
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            synced = loanChanged(ordinals[i], document, false);
+            if (i > 0) {
+                details.append("，");
+            }
+            details.append(document.getDocumentId()).append("（到期日：").append(document.getDueDate()).append("）");
+        }
+        LibraryJournal.awaitDurable(synced);
+        auditService.logOperation(userId, SystemConfig.OperationTypes.CHECKOUT, null,
+                                  LocalDateTime.now(), details.toString());
+        
+        return new BorrowResult(true, String.format("批量借阅成功！共 %d 个文档：%s", documents.size(), details));
+    }
+    
+    /**
+     * 借阅，文档已被借出时进入预约队列
+     * 返回的 Future 在借到文档（立即或轮到该用户时）或确定无法借阅时完成；取消 Future 即退出队列
+     */
+    public CompletableFuture<BorrowResult> borrowOrReserve(String userId, String documentId) {
+        CompletableFuture<BorrowResult> attempt =
+                submitRequest(userId, executorFor(documentId), () -> processBorrow(userId, documentId));
+        return attempt.thenCompose(result -> {
+            int documentOrdinal = documentIds.lookup(documentId);
+            User user = userRepository.get(userIds.lookup(userId));
+            Document document = documentRepository.get(documentOrdinal);
+            // 只有因文档已借出而失败时才排队
+            if (result.isSuccess() || result.isRejected() || user == null || document == null
+                    || !document.checkAccessPermission(user) || !user.canBorrowMore()
+                    || document.getLoanState().isBorrowedBy(user)) {
+                return CompletableFuture.completedFuture(result);
+            }
+            
+            Waitlist waitlist = waitlists.computeIfAbsent(documentOrdinal, k -> new Waitlist());
+            Waiter waiter = new Waiter(user);
+            if (!waitlist.add(waiter)) {
+                return CompletableFuture.completedFuture(new BorrowResult(false, "借阅失败：已在预约队列中"));
+            }
+            // 入队前文档可能已被归还，此时没有归还操作来交接，需要自己检查一次
+            serveWaiters(documentOrdinal, document);
+            return waiter.future;
         });
     }
     
+    /**
+     * 获取文档预约队列中等待的人数
+     */
+    public int getWaitlistSize(String documentId) {
+        Waitlist waitlist = waitlists.get(documentIds.lookup(documentId));
+        return waitlist == null ? 0 : waitlist.size();
+    }
+    
     /**
      * 同步借阅处理
      */
@@ -69,71 +397,129 @@ public class BorrowingService {
      * 处理借阅请求的核心逻辑
      */
     private BorrowResult processBorrow(String userId, String documentId) {
-        // 获取文档锁，确保线程安全
-        ReentrantLock lock = documentLocks.get(documentId);
-        if (lock == null) {
+        // 校验
+        User user = userRepository.get(userIds.lookup(userId));
+        Document document = documentRepository.get(documentIds.lookup(documentId));
+        
+        if (document == null) {
             return new BorrowResult(false, "文档不存在");
         }
         
-        lock.lock();
+        if (user == null) {
+            return new BorrowResult(false, "用户不存在");
+        }
+        
+        // 不可借时直接失败，不进行业务处理
+        if (!document.isAvailableFor(user)) {
+            return new BorrowResult(false, borrowFailureReason(document, user));
+        }
+        
+        // 业务处理
         try {
-            Thread.sleep(100); // 模拟处理时间
-            
-            User user = userRepository.get(userId);
-            Document document = documentRepository.get(documentId);
-            
-            if (user == null) {
-                return new BorrowResult(false, "用户不存在");
-            }
-            
-            if (document == null) {
-                return new BorrowResult(false, "文档不存在");
-            }
-            
-            // 检查借阅权限和条件
-            if (!document.isAvailableFor(user)) {
-                String reason = "借阅失败：";
-                if (!document.isAvailable()) {
-                    reason += "文档已被借出";
-                } else if (!document.checkAccessPermission(user)) {
-                    reason += "权限不足";
-                } else if (!user.canBorrowMore()) {
-                    reason += "已达到借阅上限";
-                }
-                return new BorrowResult(false, reason);
-            }
-            
-            // 执行借阅
-            LocalDate borrowDate = LocalDate.now();
-            boolean success = document.borrow(user, borrowDate);
-            
-            if (success) {
-                // 记录审计日志
-                auditService.logOperation(userId, SystemConfig.OperationTypes.BORROW, 
-                                         documentId, LocalDateTime.now(), 
-                                         String.format("借阅成功，到期日：%s", document.getDueDate()));
-                
-                return new BorrowResult(true, String.format("借阅成功！文档：%s，到期日：%s", 
-                                                           document.getTitle(), document.getDueDate()));
-            } else {
-                return new BorrowResult(false, "借阅处理失败");
-            }
-            
+            processingHook.process(SystemConfig.OperationTypes.BORROW, userId, documentId);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return new BorrowResult(false, "借阅处理被中断");
-        } finally {
-            lock.unlock();
         }
+        
+        // 状态变更：borrow 以 CAS 借出，并发借阅同一文档时只有一个成功
+        if (!document.borrow(user, LocalDate.now())) {
+            return new BorrowResult(false, borrowFailureReason(document, user));
+        }
+        CompletableFuture<Void> synced = loanChanged(documentIds.lookup(documentId), document, false);
+        LocalDate dueDate = document.getDueDate();
+        LibraryJournal.awaitDurable(synced);
+            
+        // 记录审计日志
+        auditService.logOperation(userId, SystemConfig.OperationTypes.BORROW, 
+                                 documentId, LocalDateTime.now(), 
+                                 String.format("借阅成功，到期日：%s", dueDate));
+        
+        return new BorrowResult(true, String.format("借阅成功！文档：%s，到期日：%s", 
+                                                   document.getTitle(), dueDate));
+    }
+    
+    /**
+     * 借阅失败的原因
+     */
+    private static String borrowFailureReason(Document document, User user) {
+        String reason = "借阅失败：";
+        if (!document.isAvailable()) {
+            reason += "文档已被借出";
+        } else if (!document.checkAccessPermission(user)) {
+            reason += "权限不足";
+        } else if (!user.canBorrowMore()) {
+            reason += "已达到借阅上限";
+        }
+        return reason;
     }
     
     /**
      * 异步归还处理
      */
-    public Future<BorrowResult> returnAsync(String userId, String documentId) {
-        return threadPool.submit(() -> {
-            return processReturn(userId, documentId);
-        });
+    public CompletableFuture<BorrowResult> returnAsync(String userId, String documentId) {
+        return submitRequest(userId, executorFor(documentId), () -> processReturn(userId, documentId));
+    }
+    
+    /**
+     * 提交异步请求，请求开始处理前先获取并发许可
+     * 虚拟线程在等待许可时只是挂起，不占用平台线程
+     */
+    private <T> CompletableFuture<T> submit(ExecutorService executor, Supplier<T> request) {
+        if (pendingRequests.incrementAndGet() > maxPendingRequests) {
+            pendingRequests.decrementAndGet();
+            throw new RejectedExecutionException("等待执行的请求已达上限: " + maxPendingRequests);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    concurrencyLimit.acquire();
+                } catch (InterruptedException e) {
+                    pendingRequests.decrementAndGet();
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(e);
+                }
+                try {
+                    return request.get();
+                } finally {
+                    concurrencyLimit.release();
+                    pendingRequests.decrementAndGet();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // 执行器已关闭
+            pendingRequests.decrementAndGet();
+            throw e;
+        }
+    }
+    
+    /**
+     * 经过准入控制后提交借阅类请求，被限流或队列已满时直接返回拒绝结果
+     */
+    private CompletableFuture<BorrowResult> submitRequest(String userId, ExecutorService executor,
+                                                         Supplier<BorrowResult> request) {
+        AdmissionController.Decision decision = admissionController.tryAdmit(userId);
+        if (decision != AdmissionController.Decision.ADMITTED) {
+            return CompletableFuture.completedFuture(BorrowResult.rejected(decision.getMessage()));
+        }
+        try {
+            return submit(executor, request);
+        } catch (RejectedExecutionException e) {
+            admissionController.recordShed();
+            return CompletableFuture.completedFuture(BorrowResult.rejected(BUSY_MESSAGE));
+        }
+    }
+    
+    /**
+     * 处理指定文档异步请求的执行器：分片模式下为文档序号对应的分片，否则为线程池
+     * 只决定在哪个线程上执行，不保证该文档的状态只由这个线程修改
+     */
+    private ExecutorService executorFor(String documentId) {
+        if (shards == null) {
+            return threadPool;
+        }
+        int ordinal = documentIds.lookup(documentId);
+        return ordinal < 0 ? threadPool : shards[ordinal % shards.length];
     }
     
     /**
@@ -147,111 +533,172 @@ public class BorrowingService {
      * 处理归还请求的核心逻辑
      */
     private BorrowResult processReturn(String userId, String documentId) {
-        ReentrantLock lock = documentLocks.get(documentId);
-        if (lock == null) {
-            return new BorrowResult(false, "文档不存在");
+        User user = userRepository.get(userIds.lookup(userId));
+        Document document = documentRepository.get(documentIds.lookup(documentId));
+        
+        if (user == null || document == null) {
+            return new BorrowResult(false, "用户或文档不存在");
+        }
+        
+        // 检查是否是当前借阅者
+        if (!document.getLoanState().isBorrowedBy(user)) {
+            return new BorrowResult(false, "您没有借阅此文档");
         }
         
-        lock.lock();
         try {
-            Thread.sleep(50); // 模拟处理时间
-            
-            User user = userRepository.get(userId);
-            Document document = documentRepository.get(documentId);
-            
-            if (user == null || document == null) {
-                return new BorrowResult(false, "用户或文档不存在");
+            processingHook.process(SystemConfig.OperationTypes.RETURN, userId, documentId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BorrowResult(false, "归还处理被中断");
+        }
+        
+        // 归还后借阅状态被清空，先取快照用于计算逾期；CAS 失败说明已被归还
+        LocalDate returnDate = LocalDate.now();
+        LoanState loan = document.getLoanState();
+        if (!loan.isBorrowedBy(user)) {
+            return new BorrowResult(false, "您没有借阅此文档");
+        }
+        int documentOrdinal = documentIds.lookup(documentId);
+        Waiter next = nextEligibleWaiter(documentOrdinal, document);
+        CompletableFuture<Void> synced = null;
+        if (next != null) {
+            if (document.transfer(user, next.user, returnDate)) {
+                // 有人预约：直接交接给队首用户
+                synced = loanChanged(documentOrdinal, document, false);
+                completeWaiter(next, document, synced);
+            } else {
+                // 交接失败多为等待者的借阅名额在检查之后被占用：放回队首，按普通归还处理后由 serveWaiters 重新检查
+                waitlists.get(documentOrdinal).pushBack(next);
             }
-            
-            // 检查是否是当前借阅者
-            if (document.getCurrentBorrower() == null || 
-                !document.getCurrentBorrower().getUserId().equals(userId)) {
+        }
+        if (synced == null) {
+            // 只有归还者已不再持有该文档时才返回失败
+            if (!document.returnResource(user, returnDate)) {
                 return new BorrowResult(false, "您没有借阅此文档");
             }
-            
-            // 执行归还
-            LocalDate returnDate = LocalDate.now();
-            boolean success = document.returnResource(user, returnDate);
-            
-            if (success) {
-                // 检查是否逾期
-                String message = "归还成功！";
-                if (document.getDueDate() != null && returnDate.isAfter(document.getDueDate())) {
-                    long overdueDays = returnDate.toEpochDay() - document.getDueDate().toEpochDay();
-                    message += String.format(" 逾期 %d 天", overdueDays);
-                }
-                
-                // 记录审计日志
-                auditService.logOperation(userId, SystemConfig.OperationTypes.RETURN, 
-                                         documentId, LocalDateTime.now(), message);
-                
-                return new BorrowResult(true, message);
+            synced = loanChanged(documentOrdinal, document, false);
+            serveWaiters(documentOrdinal, document);
+        }
+        LibraryJournal.awaitDurable(synced);
+        
+        // 检查是否逾期
+        String message = "归还成功！";
+        if (loan.isOverdue(returnDate)) {
+            long overdueDays = returnDate.toEpochDay() - loan.getDueDate().toEpochDay();
+            message += String.format(" 逾期 %d 天", overdueDays);
+        }
+        
+        // 记录审计日志
+        auditService.logOperation(userId, SystemConfig.OperationTypes.RETURN, 
+                                 documentId, LocalDateTime.now(), message);
+        
+        return new BorrowResult(true, message);
+    }
+    
+    /**
+     * 取出队首第一个仍满足借阅条件的等待者，不满足条件的直接以失败完成
+     */
+    private Waiter nextEligibleWaiter(int documentOrdinal, Document document) {
+        Waitlist waitlist = waitlists.get(documentOrdinal);
+        if (waitlist == null) {
+            return null;
+        }
+        Waiter waiter;
+        while ((waiter = waitlist.poll()) != null) {
+            if (document.checkAccessPermission(waiter.user) && waiter.user.canBorrowMore()) {
+                return waiter;
+            }
+            waiter.future.complete(new BorrowResult(false, borrowFailureReason(document, waiter.user)));
+        }
+        return null;
+    }
+    
+    /**
+     * 文档可借时按顺序借给等待者
+     */
+    private void serveWaiters(int documentOrdinal, Document document) {
+        while (document.isAvailable()) {
+            Waiter waiter = nextEligibleWaiter(documentOrdinal, document);
+            if (waiter == null) {
+                return;
+            }
+            if (document.borrow(waiter.user, LocalDate.now())) {
+                completeWaiter(waiter, document, loanChanged(documentOrdinal, document, false));
             } else {
-                return new BorrowResult(false, "归还处理失败");
+                // 被直接借阅的请求抢先，放回队首继续等待下一次归还
+                waitlists.get(documentOrdinal).pushBack(waiter);
+                return;
             }
-            
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return new BorrowResult(false, "归还处理被中断");
-        } finally {
-            lock.unlock();
         }
     }
     
+    /**
+     * 借阅日志落盘后通知等待者借阅成功
+     */
+    private void completeWaiter(Waiter waiter, Document document, CompletableFuture<Void> synced) {
+        LocalDate dueDate = document.getDueDate();
+        auditService.logOperation(waiter.user.getUserId(), SystemConfig.OperationTypes.BORROW,
+                                  document.getDocumentId(), LocalDateTime.now(),
+                                  String.format("预约借阅成功，到期日：%s", dueDate));
+        BorrowResult result = new BorrowResult(true, String.format("预约借阅成功！文档：%s，到期日：%s",
+                                                                   document.getTitle(), dueDate));
+        synced.whenComplete((ignored, error) -> waiter.future.complete(result));
+    }
+    
     /**
      * 续借处理
      */
     public BorrowResult extendBorrow(String userId, String documentId, int extendDays) {
-        ReentrantLock lock = documentLocks.get(documentId);
-        if (lock == null) {
-            return new BorrowResult(false, "文档不存在");
+        User user = userRepository.get(userIds.lookup(userId));
+        Document document = documentRepository.get(documentIds.lookup(documentId));
+        
+        if (user == null || document == null) {
+            return new BorrowResult(false, "用户或文档不存在");
         }
         
-        lock.lock();
-        try {
-            User user = userRepository.get(userId);
-            Document document = documentRepository.get(documentId);
-            
-            if (user == null || document == null) {
-                return new BorrowResult(false, "用户或文档不存在");
-            }
-            
-            // 检查是否是当前借阅者
-            if (document.getCurrentBorrower() == null || 
-                !document.getCurrentBorrower().getUserId().equals(userId)) {
-                return new BorrowResult(false, "您没有借阅此文档");
-            }
-            
-            // 执行续借
-            boolean success = document.extend(user, extendDays);
-            
-            if (success) {
-                auditService.logOperation(userId, SystemConfig.OperationTypes.EXTEND, 
-                                         documentId, LocalDateTime.now(), 
-                                         String.format("续借 %d 天，新到期日：%s", extendDays, document.getDueDate()));
-                
-                return new BorrowResult(true, String.format("续借成功！延长 %d 天，新到期日：%s", 
-                                                           extendDays, document.getDueDate()));
-            } else {
-                return new BorrowResult(false, "续借失败，可能已逾期或达到续借次数上限");
-            }
+        // 检查是否是当前借阅者
+        if (!document.getLoanState().isBorrowedBy(user)) {
+            return new BorrowResult(false, "您没有借阅此文档");
+        }
             
-        } finally {
-            lock.unlock();
+        // 执行续借
+        if (!document.extend(user, extendDays)) {
+            return new BorrowResult(false, "续借失败，可能已逾期或达到续借次数上限");
         }
+        CompletableFuture<Void> synced = loanChanged(documentIds.lookup(documentId), document, false);
+        LocalDate dueDate = document.getDueDate();
+        LibraryJournal.awaitDurable(synced);
+        
+        auditService.logOperation(userId, SystemConfig.OperationTypes.EXTEND, 
+                                 documentId, LocalDateTime.now(), 
+                                 String.format("续借 %d 天，新到期日：%s", extendDays, dueDate));
+        
+        return new BorrowResult(true, String.format("续借成功！延长 %d 天，新到期日：%s", 
+                                                   extendDays, dueDate));
+    }
+    
+    /**
+     * 借阅状态变更后更新到期日索引并写借阅日志
+     * @param cancelled 变更是撤销借阅
+     * @return 借阅日志落盘后完成
+     */
+    private CompletableFuture<Void> loanChanged(int documentOrdinal, Document document, boolean cancelled) {
+        dueDateIndex.refresh(documentOrdinal, document);
+        return journal == null ? CompletableFuture.completedFuture(null)
+                               : journal.recordLoan(documentOrdinal, document, cancelled);
     }
     
     /**
      * 获取用户的借阅列表
      */
     public List<Document> getUserBorrowedDocuments(String userId) {
-        User user = userRepository.get(userId);
+        User user = userRepository.get(userIds.lookup(userId));
         if (user == null) {
             return new ArrayList<>();        }
         
         List<Document> borrowedDocs = new ArrayList<>();
         for (String resourceId : user.getCurrentBorrowedDocumentIds()) {
-            Document doc = documentRepository.get(resourceId);
+            Document doc = documentRepository.get(documentIds.lookup(resourceId));
             if (doc != null) {
                 borrowedDocs.add(doc);
             }
@@ -260,23 +707,162 @@ public class BorrowingService {
     }
     
     /**
-     * 获取逾期文档列表
+     * 获取逾期文档列表，按到期日从早到晚
      */
     public List<Document> getOverdueDocuments() {
+        LocalDate today = LocalDate.now();
         List<Document> overdueList = new ArrayList<>();
-        for (Document doc : documentRepository.values()) {
-            if (doc.isOverdue()) {
+        dueDateIndex.forEachDueBefore(today, ordinal -> {
+            Document doc = documentRepository.get(ordinal);
+            // 索引在状态变更之后才更新，以文档当前状态为准
+            if (doc != null && doc.getLoanState().isOverdue(today)) {
                 overdueList.add(doc);
             }
-        }
+        });
         return overdueList;
     }
     
+    /**
+     * 获取今天起指定天数内到期的文档（用于到期提醒），按到期日从早到晚
+     * @param days 0 表示今天到期
+     */
+    public List<Document> getDocumentsDueWithin(int days) {
+        LocalDate today = LocalDate.now();
+        LocalDate until = today.plusDays(days);
+        List<Document> dueList = new ArrayList<>();
+        dueDateIndex.forEachDueBetween(today, until, ordinal -> {
+            Document doc = documentRepository.get(ordinal);
+            LocalDate dueDate = doc == null ? null : doc.getLoanState().getDueDate();
+            if (dueDate != null && !dueDate.isBefore(today) && !dueDate.isAfter(until)) {
+                dueList.add(doc);
+            }
+        });
+        return dueList;
+    }
+    
+    /**
+     * 当前借出的文档数
+     */
+    public int getBorrowedDocumentCount() {
+        return dueDateIndex.size();
+    }
+    
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+    
+    /**
+     * 当前正在处理的异步请求数
+     */
+    public int getActiveRequestCount() {
+        return maxConcurrentRequests - concurrencyLimit.availablePermits();
+    }
+    
+    /**
+     * 已提交但尚未完成的异步请求数（包括正在处理和等待执行的）
+     */
+    public int getPendingRequestCount() {
+        return pendingRequests.get();
+    }
+    
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+    
     /**
      * 关闭服务
      */
     public void shutdown() {
         threadPool.shutdown();
+        if (shards != null) {
+            for (ExecutorService shard : shards) {
+                shard.shutdown();
+            }
+        }
+    }
+    
+    /**
+     * 预约队列中的一个等待者
+     */
+    private static class Waiter {
+        final User user;
+        final CompletableFuture<BorrowResult> future;
+        
+        Waiter(User user) {
+            this.user = user;
+            this.future = new CompletableFuture<>();
+        }
+    }
+    
+    /**
+     * 一个文档的预约队列（先进先出）
+     */
+    private static class Waitlist {
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        
+        /**
+         * 加入队尾，同一用户已在队列中时返回false
+         */
+        synchronized boolean add(Waiter waiter) {
+            for (Waiter existing : waiters) {
+                if (!existing.future.isDone() && existing.user.getUserId().equals(waiter.user.getUserId())) {
+                    return false;
+                }
+            }
+            waiters.addLast(waiter);
+            return true;
+        }
+        
+        /**
+         * 放回队首
+         */
+        synchronized void pushBack(Waiter waiter) {
+            waiters.addFirst(waiter);
+        }
+        
+        /**
+         * 取出队首，跳过已取消的等待者
+         */
+        synchronized Waiter poll() {
+            Waiter waiter;
+            while ((waiter = waiters.pollFirst()) != null) {
+                if (!waiter.future.isDone()) {
+                    return waiter;
+                }
+            }
+            return null;
+        }
+        
+        synchronized int size() {
+            waiters.removeIf(waiter -> waiter.future.isDone());
+            return waiters.size();
+        }
+    }
+    
+    /**
+     * 借阅请求类（用于批量借阅）
+     */
+    public static class BorrowRequest {
+        private final String userId;
+        private final String documentId;
+        
+        public BorrowRequest(String userId, String documentId) {
+            this.userId = userId;
+            this.documentId = documentId;
+        }
+        
+        public String getUserId() {
+            return userId;
+        }
+        
+        public String getDocumentId() {
+            return documentId;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("BorrowRequest{userId='%s', documentId='%s'}", userId, documentId);
+        }
     }
     
     /**
@@ -285,16 +871,36 @@ public class BorrowingService {
     public static class BorrowResult {
         private final boolean success;
         private final String message;
+        private final boolean rejected;
         
         public BorrowResult(boolean success, String message) {
+            this(success, message, false);
+        }
+        
+        private BorrowResult(boolean success, String message, boolean rejected) {
             this.success = success;
             this.message = message;
+            this.rejected = rejected;
+        }
+        
+        /**
+         * 未被处理就被拒绝的请求（限流或系统繁忙）
+         */
+        public static BorrowResult rejected(String message) {
+            return new BorrowResult(false, message, true);
         }
         
         public boolean isSuccess() {
             return success;
         }
         
+        /**
+         * 请求是否被准入控制拒绝，被拒绝的请求可以稍后重试
+         */
+        public boolean isRejected() {
+            return rejected;
+        }
+        
         public String getMessage() {
             return message;
         }
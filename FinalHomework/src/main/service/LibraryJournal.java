@@ -0,0 +1,399 @@
+package main.service;
+
+import main.model.document.Document;
+import main.model.document.LoanState;
+import main.model.system.SystemConfig;
+import main.model.user.User;
+import main.util.DataPersistenceUtil;
+import main.util.ModelCodec;
+import main.util.OrdinalMap;
+import main.util.WriteAheadJournal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 借阅日志
+ * 把借阅、归还、续借、撤销借阅以及添加用户、文档记录到 WriteAheadJournal，操作在记录落盘后才向用户确认。
+ * 启动时先读取最近的快照，再按序号重放快照之后的日志；定期把当前状态写成新快照，删除已被快照覆盖的日志段。
+ * 平时不再整体重写用户和文档文件，崩溃也只会丢失尚未确认的操作。
+ *
+ * 借阅状态由 Document 以 CAS 变更，日志不参与该过程。每次变更后调用 recordLoan，
+ * 在该文档所属的锁分段内重新读取当前状态，与上次记录的状态比较后写出对应的事件，
+ * 因此同一文档的事件在日志中的顺序与状态变化的顺序一致。
+ *
+ * 快照是在系统运行时生成的：先取当前已落盘的最大序号，再复制状态，快照可能已包含之后的部分事件，
+ * 而且先写用户后写文档，同一事件可能只体现在文档中而没有体现在用户的借阅记录中（或相反）。
+ * 重放时分别检查文档和用户，每个事件只在状态尚未体现它时才生效（如归还只对当前借阅者生效、续借直接设置到期日），重复重放不会改变结果。
+ */
+public class LibraryJournal implements AutoCloseable {
+    
+    // 日志记录类型
+    static final byte BORROW = 1;
+    static final byte RETURN = 2;
+    static final byte EXTEND = 3;
+    static final byte CANCEL = 4;
+    static final byte ADD_USER = 5;
+    static final byte ADD_DOCUMENT = 6;
+    
+    private static final int LOCK_STRIPES = 64;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    
+    private final WriteAheadJournal journal;
+    private final OrdinalMap<LoanState> journaledLoans; // 文档序号 -> 最后一次写入日志的借阅状态
+    private final Object[] locks;
+    private ScheduledExecutorService checkpointer;
+    private volatile long snapshotLsn;
+    
+    public LibraryJournal(WriteAheadJournal journal) {
+        this.journal = journal;
+        this.journaledLoans = new OrdinalMap<>();
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    /**
+     * 按 SystemConfig 的配置打开日志
+     */
+    public static LibraryJournal open() throws IOException {
+        return new LibraryJournal(new WriteAheadJournal(Paths.get(SystemConfig.JOURNAL_DIR),
+                                                        SystemConfig.JOURNAL_SEGMENT_MAX_BYTES,
+                                                        SystemConfig.JOURNAL_QUEUE_CAPACITY,
+                                                        SystemConfig.JOURNAL_SYNC_BATCH,
+                                                        SystemConfig.JOURNAL_SYNC_INTERVAL_MS));
+    }
+    
+    // ========== 恢复 ==========
+    
+    /**
+     * 读取最近的快照并重放之后的日志，须在记录任何事件之前调用
+     * @return 恢复后的用户和文档
+     */
+    public DataPersistenceUtil.Snapshot recover() {
+        DataPersistenceUtil.Snapshot snapshot = DataPersistenceUtil.loadSnapshot();
+        Map<String, User> users = new LinkedHashMap<>();
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, String> userIdsByName = new HashMap<>();
+        snapshot.getUsers().forEach(user -> {
+            users.put(user.getUserId(), user);
+            userIdsByName.put(usernameKey(user), user.getUserId());
+        });
+        snapshot.getDocuments().forEach(document -> documents.put(document.getDocumentId(), document));
+        
+        journal.advanceTo(snapshot.getLsn());
+        snapshotLsn = snapshot.getLsn();
+        long lastLsn = snapshot.getLsn();
+        int[] replayed = {0};
+        try {
+            lastLsn = journal.replay(snapshot.getLsn(), entry -> {
+                apply(entry, users, userIdsByName, documents);
+                replayed[0]++;
+            });
+        } catch (IOException | RuntimeException e) {
+            System.err.println("重放借阅日志失败：" + e.getMessage());
+        }
+        if (replayed[0] > 0) {
+            System.out.println(String.format("借阅日志重放完成：%d 条记录（序号 %d - %d）",
+                                             replayed[0], snapshot.getLsn() + 1, lastLsn));
+        }
+        return new DataPersistenceUtil.Snapshot(lastLsn, new ArrayList<>(users.values()),
+                                                new ArrayList<>(documents.values()));
+    }
+    
+    private static String usernameKey(User user) {
+        return user.getUsername().toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * 重放一条记录；记录的变更已体现在状态中时不做任何修改
+     * @param userIdsByName 用户名（Locale.ROOT 小写）-> 用户ID
+     */
+    private static void apply(WriteAheadJournal.Entry entry, Map<String, User> users,
+                              Map<String, String> userIdsByName, Map<String, Document> documents) throws IOException {
+        if (entry.getType() == ADD_USER) {
+            User user = ModelCodec.isJavaSerialized(entry.getPayload())
+                    ? (User) deserialize(entry.getPayload())
+                    : ModelCodec.decodeUser(entry.getPayload());
+            // 用户名已被其他用户占用时，运行中的系统没有登记该用户，重放也跳过
+            String holder = userIdsByName.putIfAbsent(usernameKey(user), user.getUserId());
+            if (holder != null && !holder.equals(user.getUserId())) {
+                return;
+            }
+            User previous = users.put(user.getUserId(), user);
+            if (previous != null && !usernameKey(previous).equals(usernameKey(user))) {
+                userIdsByName.remove(usernameKey(previous), previous.getUserId());
+            }
+            return;
+        }
+        if (entry.getType() == ADD_DOCUMENT) {
+            Document document = ModelCodec.isJavaSerialized(entry.getPayload())
+                    ? (Document) deserialize(entry.getPayload())
+                    : ModelCodec.decodeDocument(entry.getPayload(), users::get);
+            documents.put(document.getDocumentId(), document);
+            return;
+        }
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.getPayload()));
+        Document document = documents.get(in.readUTF());
+        User user = users.get(in.readUTF());
+        if (document == null || user == null) {
+            return;
+        }
+        LoanState loan = document.getLoanState();
+        switch (entry.getType()) {
+            case BORROW: {
+                LocalDate borrowDate = LocalDate.ofEpochDay(in.readLong());
+                LocalDate dueDate = LocalDate.ofEpochDay(in.readLong());
+                if (loan.isBorrowedBy(user) && borrowDate.equals(loan.getBorrowDate())) {
+                    document.restoreLoanState(loan.withDueDate(dueDate));
+                    // 快照先写用户后写文档，两者之间发生的借阅只体现在文档中，补上用户的借阅记录
+                    if (!user.hasActiveLoan(document.getDocumentId())) {
+                        user.addBorrowRecord(document.getDocumentId(), document.getTitle(), borrowDate, dueDate);
+                    }
+                    return;
+                }
+                if (!loan.isAvailable()) {
+                    // 快照中的借阅者之后已归还，归还事件在快照之前
+                    User previous = users.get(loan.getBorrower().getUserId());
+                    if (previous != null) {
+                        previous.returnDocument(document.getDocumentId(), borrowDate);
+                    }
+                }
+                document.restoreLoanState(LoanState.borrowed(user, borrowDate, dueDate));
+                user.addBorrowRecord(document.getDocumentId(), document.getTitle(), borrowDate, dueDate);
+                break;
+            }
+            case RETURN: {
+                LocalDate returnDate = LocalDate.ofEpochDay(in.readLong());
+                if (!document.returnResource(user, returnDate)) {
+                    // 文档在快照中已是归还后的状态，用户的借阅记录可能还未归还
+                    user.returnDocument(document.getDocumentId(), returnDate);
+                }
+                break;
+            }
+            case EXTEND:
+                if (loan.isBorrowedBy(user)) {
+                    document.restoreLoanState(loan.withDueDate(LocalDate.ofEpochDay(in.readLong())));
+                }
+                break;
+            case CANCEL:
+                if (!document.cancelBorrow(user)) {
+                    user.cancelBorrowRecord(document.getDocumentId());
+                }
+                break;
+            default:
+                System.err.println("未知的借阅日志记录类型：" + entry.getType() + "，序号 " + entry.getLsn());
+        }
+    }
+    
+    // ========== 记录 ==========
+    
+    /**
+     * 登记文档当前的借阅状态，不写日志（文档从快照加载或刚添加时调用）
+     * @param ordinal 文档序号
+     */
+    public void track(int ordinal, Document document) {
+        synchronized (locks[ordinal & (LOCK_STRIPES - 1)]) {
+            journaledLoans.put(ordinal, document.getLoanState());
+        }
+    }
+    
+    /**
+     * 按文档当前的借阅状态写日志
+     * @param ordinal 文档序号
+     * @param cancelled 本次变更是撤销借阅（不在用户历史中留下记录）而不是归还
+     * @return 对应记录落盘后完成；状态没有变化时已完成
+     */
+    public CompletableFuture<Void> recordLoan(int ordinal, Document document, boolean cancelled) {
+        String documentId = document.getDocumentId();
+        synchronized (locks[ordinal & (LOCK_STRIPES - 1)]) {
+            LoanState current = document.getLoanState();
+            LoanState previous = journaledLoans.put(ordinal, current);
+            if (previous == null) {
+                previous = LoanState.AVAILABLE;
+            }
+            boolean sameLoan = !previous.isAvailable() && !current.isAvailable()
+                    && previous.isBorrowedBy(current.getBorrower())
+                    && previous.getBorrowDate().equals(current.getBorrowDate());
+            CompletableFuture<Void> synced = DONE;
+            if (!previous.isAvailable() && !sameLoan) {
+                String userId = previous.getBorrower().getUserId();
+                synced = cancelled && current.isAvailable()
+                        ? journal.appendAndSync(CANCEL, loanPayload(documentId, userId))
+                        : journal.appendAndSync(RETURN, loanPayload(documentId, userId,
+                                                                    LocalDate.now().toEpochDay()));
+            }
+            if (!current.isAvailable()) {
+                String userId = current.getBorrower().getUserId();
+                if (!sameLoan) {
+                    synced = journal.appendAndSync(BORROW, loanPayload(documentId, userId,
+                                                                       current.getBorrowDate().toEpochDay(),
+                                                                       current.getDueDate().toEpochDay()));
+                } else if (!current.getDueDate().equals(previous.getDueDate())) {
+                    synced = journal.appendAndSync(EXTEND, loanPayload(documentId, userId,
+                                                                       current.getDueDate().toEpochDay()));
+                }
+            }
+            // 日志按顺序落盘，最后一条落盘时之前的记录也已落盘
+            return synced;
+        }
+    }
+    
+    /**
+     * 记录添加用户
+     * @return 记录落盘后完成
+     */
+    public CompletableFuture<Void> recordAddUser(User user) {
+        return journal.appendAndSync(ADD_USER, ModelCodec.encodeUser(user));
+    }
+    
+    /**
+     * 记录添加文档
+     * @return 记录落盘后完成
+     */
+    public CompletableFuture<Void> recordAddDocument(Document document) {
+        return journal.appendAndSync(ADD_DOCUMENT, ModelCodec.encodeDocument(document));
+    }
+    
+    /**
+     * 等待记录落盘
+     * @return 写入失败时返回false（操作已在内存中生效，会包含在下一次快照中）
+     */
+    public static boolean awaitDurable(CompletableFuture<Void> synced) {
+        try {
+            synced.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("写入借阅日志失败：" + e.getCause().getMessage());
+            return false;
+        }
+    }
+    
+    // ========== 快照 ==========
+    
+    /**
+     * 生成快照并删除已被快照覆盖的日志段
+     */
+    public synchronized boolean checkpoint(Collection<User> users, Collection<Document> documents) {
+        journal.flush();
+        // 先取序号再复制状态：快照至少包含该序号之前的全部变更
+        long lsn = journal.getLastLsn();
+        DataPersistenceUtil.Snapshot snapshot =
+                new DataPersistenceUtil.Snapshot(lsn, new ArrayList<>(users), new ArrayList<>(documents));
+        if (!DataPersistenceUtil.saveSnapshot(snapshot)) {
+            return false;
+        }
+        snapshotLsn = lsn;
+        try {
+            journal.truncateThrough(lsn);
+        } catch (IOException e) {
+            System.err.println("删除借阅日志段失败：" + e.getMessage());
+        }
+        return true;
+    }
+    
+    /**
+     * 启动定期快照，间隔为 JOURNAL_CHECKPOINT_INTERVAL_SECONDS；期间没有新的日志记录时跳过
+     */
+    public synchronized void startCheckpoints(Supplier<Collection<User>> users,
+                                              Supplier<Collection<Document>> documents) {
+        if (checkpointer != null) {
+            return;
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "journal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = SystemConfig.JOURNAL_CHECKPOINT_INTERVAL_SECONDS;
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                if (journal.getLastLsn() > snapshotLsn) {
+                    checkpoint(users.get(), documents.get());
+                }
+            } catch (RuntimeException e) {
+                // 异常会终止定期任务，记录后继续
+                System.err.println("生成快照失败：" + e.getMessage());
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * 最近一次快照对应的日志序号
+     */
+    public long getSnapshotLsn() {
+        return snapshotLsn;
+    }
+    
+    public long getLastLsn() {
+        return journal.getLastLsn();
+    }
+    
+    /**
+     * 日志文件总字节数
+     */
+    public long getJournalSizeBytes() {
+        return journal.getSizeBytes();
+    }
+    
+    /**
+     * 停止定期快照，写入剩余记录并关闭日志
+     */
+    @Override
+    public synchronized void close() {
+        if (checkpointer != null) {
+            checkpointer.shutdownNow();
+        }
+        journal.close();
+    }
+    
+    // ========== 编码 ==========
+    
+    private static byte[] loanPayload(String documentId, String userId, long... days) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(documentId);
+            out.writeUTF(userId);
+            for (long day : days) {
+                out.writeLong(day);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * 读取旧版本以 Java 序列化写入的添加用户、文档记录
+     */
+    private static Object deserialize(byte[] payload) throws IOException {
+        try (ObjectInputStream in = ModelCodec.openJavaSerialized(new ByteArrayInputStream(payload))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
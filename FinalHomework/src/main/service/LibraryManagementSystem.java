@@ -1,183 +1,450 @@
 package main.service;
 
+import main.exception.RequestRejectedException;
 import main.model.user.*;
 import main.model.document.*;
 import main.util.DataPersistenceUtil;
+import main.util.IdRegistry;
+import main.util.OrdinalMap;
 import main.model.system.SystemConfig;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.Future;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /**
  * 图书馆管理系统主服务类
  * 集成所有服务组件，提供统一的系统接口
+ *
+ * 登录后由 SessionManager 分配会话令牌，多个用户可以同时在线：各业务方法都有带令牌的版本，
+ * 不带令牌的版本使用控制台会话（login/logout 管理），供控制台界面和演示程序使用。
+ * 带令牌的版本面向多用户接入（如 LibraryHttpServer），借阅类操作返回 BorrowResult 并经过准入控制，
+ * 搜索被限流时抛出 RequestRejectedException。
+ *
+ * 启用借阅日志（LibraryJournal）时，借阅、归还、续借和添加用户、文档在日志落盘后才返回成功，
+ * 启动时读取最近的快照并重放之后的日志，saveSystemData 生成新快照；未启用时仍整体读写 users.dat 和 documents.dat。
+ *
+ * 构造方法只加载数据，构造完成后调用 start 启动会话清理和定期快照。
  */
 public class LibraryManagementSystem {
     
-    private Map<String, User> users;
-    private Map<String, Document> documents;
+    // 以 IdRegistry 分配的序号为键
+    private OrdinalMap<User> users;
+    private final ConcurrentHashMap<String, User> usersByName; // 用户名（Locale.ROOT 小写）-> 用户，登录时一次查找
+    private final ConcurrentHashMap<String, String> reservedUsernames; // 正在添加的用户名 -> 用户ID
+    private OrdinalMap<Document> documents;
+    private final IdRegistry userIds;
+    private final IdRegistry documentIds;
     private SearchService searchService;
     private BorrowingService borrowingService;
     private AuditService auditService;
-    private User currentUser;
+    private final SessionManager sessionManager; // 会话令牌 -> 会话，支持多个用户同时登录
+    private String consoleToken; // 控制台界面使用的会话
+    private final AdmissionController admissionController;
+    private final LibraryJournal journal; // 为null时不记录借阅日志
+    private final BorrowHistoryArchive historyArchive; // 打开失败时为null，用户保留全部借阅记录
+    private boolean initialSnapshotPending; // 首次运行创建的默认数据尚未写入快照
+    private boolean started;
     
     public LibraryManagementSystem() {
-        this.users = new HashMap<>();
-        this.documents = new HashMap<>();
-        this.searchService = new SearchService();
-        this.borrowingService = new BorrowingService();
+        this(BorrowingService.ProcessingHook.SIMULATED, AdmissionController.getInstance());
+    }
+    
+    /**
+     * 构造方法，按 SystemConfig.JOURNAL_ENABLED 决定是否启用借阅日志
+     * @param processingHook 借阅服务的业务处理钩子
+     * @param admissionController 借阅和搜索共用的准入控制
+     */
+    public LibraryManagementSystem(BorrowingService.ProcessingHook processingHook,
+                                   AdmissionController admissionController) {
+        this(processingHook, admissionController, openJournal());
+    }
+    
+    /**
+     * 构造方法
+     * @param processingHook 借阅服务的业务处理钩子
+     * @param admissionController 借阅和搜索共用的准入控制
+     * @param journal 借阅日志，为null时不记录（如压测时不希望修改数据文件）
+     */
+    public LibraryManagementSystem(BorrowingService.ProcessingHook processingHook,
+                                   AdmissionController admissionController, LibraryJournal journal) {
+        this.users = new OrdinalMap<>();
+        this.usersByName = new ConcurrentHashMap<>();
+        this.reservedUsernames = new ConcurrentHashMap<>();
+        this.documents = new OrdinalMap<>();
+        this.userIds = IdRegistry.users();
+        this.documentIds = IdRegistry.documents();
+        this.admissionController = admissionController;
+        this.journal = journal;
+        this.searchService = new SearchService(admissionController);
+        this.borrowingService = new BorrowingService(processingHook,
+                SystemConfig.BORROW_USE_VIRTUAL_THREADS
+                        ? BorrowingService.ExecutionMode.VIRTUAL_THREADS : BorrowingService.ExecutionMode.FIXED_POOL,
+                SystemConfig.BORROW_MAX_CONCURRENT_REQUESTS, admissionController, journal);
         this.auditService = AuditService.getInstance();
-        this.currentUser = null;
+        this.sessionManager = new SessionManager(session ->
+                auditService.logOperation(session.getUser().getUserId(), SystemConfig.OperationTypes.LOGOUT,
+                                          null, LocalDateTime.now(), "会话超时"));
+        this.consoleToken = null;
+        this.historyArchive = openHistoryArchive();
+        User.setHistoryStore(historyArchive);
         
         // 系统启动时加载数据
         loadSystemData();
+        this.initialSnapshotPending = users.isEmpty() || documents.isEmpty();
         initializeDefaultData();
+        this.started = false;
+    }
+    
+    /**
+     * 启动后台任务：会话超时清理；启用借阅日志时开始定期生成快照，重复调用无效果
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        sessionManager.start();
+        if (journal != null) {
+            if (initialSnapshotPending) {
+                // 默认数据不经过日志，立即生成快照
+                saveSystemData();
+                initialSnapshotPending = false;
+            }
+            journal.startCheckpoints(users::values, documents::values);
+        }
+    }
+    
+    /**
+     * 按配置打开借阅日志，打开失败时不启用
+     */
+    private static LibraryJournal openJournal() {
+        if (!SystemConfig.JOURNAL_ENABLED) {
+            return null;
+        }
+        try {
+            return LibraryJournal.open();
+        } catch (IOException e) {
+            System.err.println("打开借阅日志失败，仅在保存时整体写入数据：" + e.getMessage());
+            return null;
+        }
     }
     
     /**
-     * 用户登录
+     * 打开借阅历史归档，打开失败时不整理用户的借阅记录
+     */
+    private static BorrowHistoryArchive openHistoryArchive() {
+        try {
+            return BorrowHistoryArchive.open();
+        } catch (IOException e) {
+            System.err.println("打开借阅历史归档失败，借阅记录全部保留在用户数据中：" + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 用户登录（控制台），登录成功后作为控制台会话
      */
     public boolean login(String username, String password, String ipAddress) {
-        for (User user : users.values()) {
-            if (user.getUsername().equals(username) && user.verifyPassword(password)) {
-                if (!user.isActive()) {
-                    auditService.logLogin(user.getUserId(), LocalDateTime.now(), ipAddress, false);
-                    return false;
-                }
+        String token = openSession(username, password, ipAddress);
+        if (token == null) {
+            return false;
+        }
+        closeSession(consoleToken);
+        this.consoleToken = token;
+        return true;
+    }
+    
+    /**
+     * 用户登录，创建会话
+     * 多个用户可以同时登录，各自凭返回的令牌调用带令牌的方法
+     * @return 会话令牌，认证失败时返回null
+     */
+    public String openSession(String username, String password, String ipAddress) {
+        // 用户名不区分大小写
+        User user = username == null ? null : usersByName.get(usernameKey(username));
+        if (user != null && user.verifyPassword(password)) {
+            if (!user.isActive()) {
+                auditService.logLogin(user.getUserId(), LocalDateTime.now(), ipAddress, false);
+                return null;
+            }
                 
-                this.currentUser = user;
-                user.updateLastLoginTime();
-                auditService.logLogin(user.getUserId(), LocalDateTime.now(), ipAddress, true);
+            user.updateLastLoginTime();
+            auditService.logLogin(user.getUserId(), LocalDateTime.now(), ipAddress, true);
                 
-                System.out.println(String.format("用户 %s (%s) 登录成功", user.getRealName(), user.getUserTypeDescription()));
-                return true;
-            }
+            System.out.println(String.format("用户 %s (%s) 登录成功", user.getRealName(), user.getUserTypeDescription()));
+            return sessionManager.open(user, ipAddress);
         }
         
-        auditService.logLogin(username, LocalDateTime.now(), ipAddress, false);
-        return false;
+        if (user != null) {
+            auditService.logLogin(user.getUserId(), LocalDateTime.now(), ipAddress, false);
+        } else {
+            auditService.logUnknownLogin(username, LocalDateTime.now(), ipAddress);
+        }
+        return null;
     }
     
     /**
-     * 用户登出
+     * 用户登出（控制台）
      */
     public void logout() {
-        if (currentUser != null) {
-            auditService.logOperation(currentUser.getUserId(), SystemConfig.OperationTypes.LOGOUT, 
+        closeSession(consoleToken);
+        this.consoleToken = null;
+    }
+    
+    /**
+     * 关闭会话（登出）
+     */
+    public void closeSession(String token) {
+        SessionManager.Session session = sessionManager.close(token);
+        if (session != null) {
+            User user = session.getUser();
+            auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.LOGOUT, 
                                      null, LocalDateTime.now(), "用户登出");
-            System.out.println(String.format("用户 %s 已登出", currentUser.getRealName()));
-            this.currentUser = null;
+            System.out.println(String.format("用户 %s 已登出", user.getRealName()));
         }
     }
     
     /**
-     * 获取当前登录用户
+     * 获取当前登录用户（控制台会话）
      */
     public User getCurrentUser() {
-        return currentUser;
+        return sessionManager.getUser(consoleToken);
+    }
+    
+    /**
+     * 获取会话用户
+     * @return 令牌无效或会话已过期时返回null
+     */
+    public User getSessionUser(String token) {
+        return sessionManager.getUser(token);
     }
     
     /**
      * 检查是否已登录
      */
     public boolean isLoggedIn() {
-        return currentUser != null;
+        return getCurrentUser() != null;
+    }
+    
+    /**
+     * 当前会话数
+     */
+    public int getActiveSessionCount() {
+        return sessionManager.getActiveSessionCount();
+    }
+    
+    public AdmissionController getAdmissionController() {
+        return admissionController;
     }
     
     /**
      * 搜索文档
      */
     public List<Object> searchDocuments(String keyword) {
-        if (!isLoggedIn()) {
+        User user = getCurrentUser();
+        if (user == null) {
             System.out.println("请先登录");
             return new ArrayList<>();
         }
         
-        return searchService.searchByKeyword(keyword, currentUser);
+        try {
+            return searchService.searchByKeyword(keyword, user);
+        } catch (RequestRejectedException e) {
+            System.out.println(e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * 搜索文档（会话）
+     * @return 会话无效时返回空列表
+     * @throws RequestRejectedException 请求被限流
+     */
+    public List<Object> searchDocuments(String token, String keyword) {
+        User user = sessionManager.getUser(token);
+        return user == null ? new ArrayList<>() : searchService.searchByKeyword(keyword, user);
     }
     
     /**
      * 高级搜索
      */
     public List<Object> advancedSearchDocuments(String title, String author, String category, String keyword) {
-        if (!isLoggedIn()) {
+        User user = getCurrentUser();
+        if (user == null) {
             System.out.println("请先登录");
             return new ArrayList<>();
         }
         
-        return searchService.advancedSearch(title, author, category, keyword, currentUser);
+        try {
+            return searchService.advancedSearch(title, author, category, keyword, user);
+        } catch (RequestRejectedException e) {
+            System.out.println(e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * 高级搜索（会话）
+     * @return 会话无效时返回空列表
+     * @throws RequestRejectedException 请求被限流
+     */
+    public List<Object> advancedSearchDocuments(String token, String title, String author, 
+                                                String category, String keyword) {
+        User user = sessionManager.getUser(token);
+        return user == null ? new ArrayList<>() : searchService.advancedSearch(title, author, category, keyword, user);
     }
     
     /**
      * 借阅文档
      */
     public String borrowDocument(String documentId) {
-        if (!isLoggedIn()) {
+        User user = getCurrentUser();
+        if (user == null) {
             return "请先登录";
         }
         
-        BorrowingService.BorrowResult result = borrowingService.borrowSync(currentUser.getUserId(), documentId);
+        BorrowingService.BorrowResult result = borrowingService.borrowSync(user.getUserId(), documentId);
         return result.getMessage();
     }
     
+    /**
+     * 借阅文档（会话）
+     */
+    public BorrowingService.BorrowResult borrowDocument(String token, String documentId) {
+        return sessionRequest(token, user -> borrowingService.borrowSync(user.getUserId(), documentId));
+    }
+    
     /**
      * 归还文档
      */
     public String returnDocument(String documentId) {
-        if (!isLoggedIn()) {
+        User user = getCurrentUser();
+        if (user == null) {
             return "请先登录";
         }
         
-        BorrowingService.BorrowResult result = borrowingService.returnSync(currentUser.getUserId(), documentId);
+        BorrowingService.BorrowResult result = borrowingService.returnSync(user.getUserId(), documentId);
         return result.getMessage();
     }
     
+    /**
+     * 归还文档（会话）
+     */
+    public BorrowingService.BorrowResult returnDocument(String token, String documentId) {
+        return sessionRequest(token, user -> borrowingService.returnSync(user.getUserId(), documentId));
+    }
+    
     /**
      * 续借文档
      */
     public String extendDocument(String documentId, int days) {
-        if (!isLoggedIn()) {
+        User user = getCurrentUser();
+        if (user == null) {
             return "请先登录";
         }
         
-        BorrowingService.BorrowResult result = borrowingService.extendBorrow(currentUser.getUserId(), documentId, days);
+        BorrowingService.BorrowResult result = borrowingService.extendBorrow(user.getUserId(), documentId, days);
         return result.getMessage();
     }
     
+    /**
+     * 续借文档（会话）
+     */
+    public BorrowingService.BorrowResult extendDocument(String token, String documentId, int days) {
+        return sessionRequest(token, user -> borrowingService.extendBorrow(user.getUserId(), documentId, days));
+    }
+    
+    /**
+     * 执行会话的借阅类请求：校验会话、经过准入控制后执行
+     */
+    private BorrowingService.BorrowResult sessionRequest(String token,
+                                                         Function<User, BorrowingService.BorrowResult> request) {
+        User user = sessionManager.getUser(token);
+        if (user == null) {
+            return new BorrowingService.BorrowResult(false, "请先登录");
+        }
+        AdmissionController.Decision decision = admissionController.tryAdmit(user.getUserId());
+        if (decision != AdmissionController.Decision.ADMITTED) {
+            return BorrowingService.BorrowResult.rejected(decision.getMessage());
+        }
+        return request.apply(user);
+    }
+    
     /**
      * 获取用户借阅列表
      */
     public List<Document> getMyBorrowedDocuments() {
-        if (!isLoggedIn()) {
+        return getBorrowedDocumentsOf(getCurrentUser());
+    }
+    
+    /**
+     * 获取用户借阅列表（会话）
+     */
+    public List<Document> getMyBorrowedDocuments(String token) {
+        return getBorrowedDocumentsOf(sessionManager.getUser(token));
+    }
+    
+    private List<Document> getBorrowedDocumentsOf(User user) {
+        if (user == null) {
             return new ArrayList<>();
         }
         
-        return borrowingService.getUserBorrowedDocuments(currentUser.getUserId());
+        return borrowingService.getUserBorrowedDocuments(user.getUserId());
+    }
+    
+    /**
+     * 获取用户完整的借阅历史（会话）：归档中的记录在前，用户对象中的记录在后
+     */
+    public List<BorrowRecord> getMyBorrowHistory(String token) {
+        User user = sessionManager.getUser(token);
+        if (user == null) {
+            return new ArrayList<>();
+        }
+        List<BorrowRecord> history = historyArchive != null
+                ? historyArchive.findByUser(user.getUserId()) : new ArrayList<>();
+        history.addAll(user.getBorrowRecords());
+        return history;
     }
     
     /**
      * 添加新文档（需要管理员权限）
      */
     public boolean addDocument(Document document) {
-        if (!isLoggedIn()) {
+        return addDocumentAs(getCurrentUser(), document);
+    }
+    
+    /**
+     * 添加新文档（会话，需要管理员权限）
+     */
+    public boolean addDocument(String token, Document document) {
+        return addDocumentAs(sessionManager.getUser(token), document);
+    }
+    
+    private boolean addDocumentAs(User user, Document document) {
+        if (user == null) {
             System.out.println("请先登录");
             return false;
         }
         
-        if (!(currentUser instanceof Administrator) && !(currentUser instanceof ArchiveManager)) {
+        if (!(user instanceof Administrator) && !(user instanceof ArchiveManager)) {
             System.out.println("权限不足，只有管理员可以添加文档");
             return false;
         }
         
-        documents.put(document.getDocumentId(), document);
+        if (journal != null) {
+            LibraryJournal.awaitDurable(journal.recordAddDocument(document));
+        }
+        documents.put(documentIds.intern(document.getDocumentId()), document);
         searchService.addDocument(document);
         borrowingService.addDocument(document);
         
-        auditService.logOperation(currentUser.getUserId(), "ADD_DOCUMENT", 
+        auditService.logOperation(user.getUserId(), "ADD_DOCUMENT", 
                                  document.getDocumentId(), LocalDateTime.now(), 
                                  "添加文档: " + document.getTitle());
         
@@ -185,24 +452,131 @@ public class LibraryManagementSystem {
         return true;
     }
     
+    /**
+     * 授权用户访问档案（需要档案管理员权限）
+     */
+    public boolean authorizeArchiveAccess(String documentId, String userId, String reason) {
+        return authorizeArchiveAccessAs(getCurrentUser(), documentId, userId, reason);
+    }
+    
+    /**
+     * 授权用户访问档案（会话，需要档案管理员权限）
+     */
+    public boolean authorizeArchiveAccess(String token, String documentId, String userId, String reason) {
+        return authorizeArchiveAccessAs(sessionManager.getUser(token), documentId, userId, reason);
+    }
+    
+    private boolean authorizeArchiveAccessAs(User user, String documentId, String userId, String reason) {
+        if (!(user instanceof ArchiveManager)) {
+            System.out.println("权限不足，只有档案管理员可以授权档案访问");
+            return false;
+        }
+        
+        Document document = documents.get(documentIds.lookup(documentId));
+        if (!(document instanceof ArchiveDocument)) {
+            System.out.println("档案不存在：" + documentId);
+            return false;
+        }
+        
+        boolean authorized = ((ArchiveDocument) document).authorizeAccess((ArchiveManager) user, userId, reason);
+        if (authorized) {
+            searchService.refreshAccessGrants(documentId);
+            auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.AUTHORIZE,
+                                     documentId, LocalDateTime.now(),
+                                     "授权用户 " + userId + " 访问档案，原因：" + reason);
+        }
+        return authorized;
+    }
+    
+    /**
+     * 撤销用户的档案访问授权（需要档案管理员权限）
+     */
+    public boolean revokeArchiveAccess(String documentId, String userId) {
+        return revokeArchiveAccessAs(getCurrentUser(), documentId, userId);
+    }
+    
+    /**
+     * 撤销用户的档案访问授权（会话，需要档案管理员权限）
+     */
+    public boolean revokeArchiveAccess(String token, String documentId, String userId) {
+        return revokeArchiveAccessAs(sessionManager.getUser(token), documentId, userId);
+    }
+    
+    private boolean revokeArchiveAccessAs(User user, String documentId, String userId) {
+        if (!(user instanceof ArchiveManager)) {
+            System.out.println("权限不足，只有档案管理员可以撤销档案授权");
+            return false;
+        }
+        
+        Document document = documents.get(documentIds.lookup(documentId));
+        if (!(document instanceof ArchiveDocument)) {
+            System.out.println("档案不存在：" + documentId);
+            return false;
+        }
+        
+        boolean revoked = ((ArchiveDocument) document).revokeAccess((ArchiveManager) user, userId);
+        if (revoked) {
+            searchService.refreshAccessGrants(documentId);
+            auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.REVOKE,
+                                     documentId, LocalDateTime.now(),
+                                     "撤销用户 " + userId + " 的档案访问授权");
+        }
+        return revoked;
+    }
+    
     /**
      * 添加新用户（需要管理员权限）
      */
     public boolean addUser(User user) {
-        if (!isLoggedIn()) {
+        return addUserAs(getCurrentUser(), user);
+    }
+    
+    /**
+     * 添加新用户（会话，需要管理员权限）
+     */
+    public boolean addUser(String token, User user) {
+        return addUserAs(sessionManager.getUser(token), user);
+    }
+    
+    private boolean addUserAs(User operator, User user) {
+        if (operator == null) {
             System.out.println("请先登录");
             return false;
         }
         
-        if (!(currentUser instanceof Administrator)) {
+        if (!(operator instanceof Administrator)) {
             System.out.println("权限不足，只有系统管理员可以添加用户");
             return false;
         }
         
-        users.put(user.getUserId(), user);
-        borrowingService.addUser(user);
+        // 先预留用户名，再写日志，最后登记：并发添加同名用户时只有一个能写入日志；
+        // 用户登记后才能登录借阅，其借阅记录不会早于添加记录。
+        // 添加完成后先登记再释放预留，预留之后检查 usersByName 就不会漏掉刚完成的添加
+        String key = usernameKey(user.getUsername());
+        if (reservedUsernames.putIfAbsent(key, user.getUserId()) != null) {
+            System.out.println("用户名已存在：" + user.getUsername());
+            return false;
+        }
+        try {
+            User existing = usersByName.get(key);
+            if (existing != null && !existing.getUserId().equals(user.getUserId())) {
+                System.out.println("用户名已存在：" + user.getUsername());
+                return false;
+            }
+            if (journal != null && existing == null
+                    && !LibraryJournal.awaitDurable(journal.recordAddUser(user))) {
+                System.out.println("添加用户失败：写入借阅日志失败");
+                return false;
+            }
+            if (!registerUser(user)) {
+                System.out.println("用户名已存在：" + user.getUsername());
+                return false;
+            }
+        } finally {
+            reservedUsernames.remove(key);
+        }
         
-        auditService.logOperation(currentUser.getUserId(), "ADD_USER", 
+        auditService.logOperation(operator.getUserId(), "ADD_USER", 
                                  user.getUserId(), LocalDateTime.now(), 
                                  "添加用户: " + user.getRealName() + " (" + user.getUserTypeDescription() + ")");
         
@@ -219,6 +593,7 @@ public class LibraryManagementSystem {
         stats.append("=== 系统统计信息 ===\n");
         stats.append(String.format("用户总数: %d\n", users.size()));
         stats.append(String.format("文档总数: %d\n", documents.size()));
+        stats.append(String.format("在线会话: %d\n", sessionManager.getActiveSessionCount()));
         
         // 按用户类型统计
         long regularUsers = users.values().stream().filter(u -> u instanceof RegularUser).count();
@@ -244,15 +619,27 @@ public class LibraryManagementSystem {
         
         // 借阅统计
         List<Document> overdueList = borrowingService.getOverdueDocuments();
+        stats.append(String.format("借出文档: %d\n", borrowingService.getBorrowedDocumentCount()));
         stats.append(String.format("逾期文档: %d\n", overdueList.size()));
         
+        // 请求准入统计（借阅和搜索共用）
+        stats.append(String.format("待处理异步请求: %d\n", borrowingService.getPendingRequestCount()));
+        stats.append(admissionController.getStatistics());
+        
         return stats.toString();
     }
     
     /**
      * 保存系统数据
+     * 启用借阅日志时生成快照并删除已被快照覆盖的日志段，否则整体写入 users.dat 和 documents.dat
      */
     public boolean saveSystemData() {
+        if (journal != null) {
+            boolean saved = journal.checkpoint(users.values(), documents.values());
+            System.out.println(saved ? "系统数据保存成功" : "系统数据保存失败");
+            return saved;
+        }
+        
         List<User> userList = new ArrayList<>(users.values());
         List<Document> documentList = new ArrayList<>(documents.values());
         
@@ -268,19 +655,56 @@ public class LibraryManagementSystem {
         }
     }
     
+    /**
+     * 登记用户：加入用户库、用户名索引和借阅服务
+     * @return 用户名（不区分大小写）已被其他用户使用时返回false，不做任何修改
+     */
+    private boolean registerUser(User user) {
+        String key = usernameKey(user.getUsername());
+        User existing = usersByName.putIfAbsent(key, user);
+        if (existing != null && existing != user) {
+            if (!existing.getUserId().equals(user.getUserId())) {
+                return false;
+            }
+            // 同一用户ID的新对象替换旧对象
+            usersByName.put(key, user);
+        }
+        User previous = users.put(userIds.intern(user.getUserId()), user);
+        if (previous != null && previous != user) {
+            // 旧对象的用户名不同时移除旧的索引项
+            usersByName.remove(usernameKey(previous.getUsername()), previous);
+        }
+        borrowingService.addUser(user);
+        return true;
+    }
+    
+    private static String usernameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+    
     /**
      * 加载系统数据
      */
     private void loadSystemData() {
-        List<User> userList = DataPersistenceUtil.loadUsers();
+        List<User> userList;
+        List<Document> documentList;
+        if (journal != null) {
+            DataPersistenceUtil.Snapshot snapshot = journal.recover();
+            userList = snapshot.getUsers();
+            documentList = snapshot.getDocuments();
+        } else {
+            userList = DataPersistenceUtil.loadUsers();
+            documentList = DataPersistenceUtil.loadDocuments(userList);
+        }
+        
         for (User user : userList) {
-            users.put(user.getUserId(), user);
-            borrowingService.addUser(user);
+            if (!registerUser(user)) {
+                System.out.println("跳过用户名重复的用户：" + user.getUserId() + " (" + user.getUsername() + ")");
+            }
         }
         
-        List<Document> documentList = DataPersistenceUtil.loadDocuments();
         for (Document document : documentList) {
-            documents.put(document.getDocumentId(), document);
+            documents.put(documentIds.intern(document.getDocumentId()), document);
             searchService.addDocument(document);
             borrowingService.addDocument(document);
         }
@@ -295,15 +719,13 @@ public class LibraryManagementSystem {
             Administrator admin = new Administrator("admin001", "admin", "admin123", 
                                                   "系统管理员", "admin@library.com", "13800000000", 
                                                   "信息技术部", "超级管理员", "全部权限");
-            users.put(admin.getUserId(), admin);
-            borrowingService.addUser(admin);
+            registerUser(admin);
             
             // 创建默认档案管理员
             ArchiveManager archiveManager = new ArchiveManager("archive001", "archive", "archive123", 
                                                               "张档案", "archive@library.com", "13800000001", 
                                                               "档案管理部", "全部档案", "高级认证");
-            users.put(archiveManager.getUserId(), archiveManager);
-            borrowingService.addUser(archiveManager);
+            registerUser(archiveManager);
             
             System.out.println("默认用户创建完成");
         }
@@ -323,7 +745,7 @@ public class LibraryManagementSystem {
                                                                "机械工业出版社", "编程", "Java编程经典教材", 
                                                                LocalDate.of(2020, 1, 1), "978-7-111-12345-6", 
                                                                800, "中文", "A区", "A001");
-        documents.put(book1.getDocumentId(), book1);
+        documents.put(documentIds.intern(book1.getDocumentId()), book1);
         searchService.addDocument(book1);
         borrowingService.addDocument(book1);
         
@@ -332,7 +754,7 @@ public class LibraryManagementSystem {
                                                   "机械工业出版社", "计算机系统", "计算机系统经典教材", 
                                                   LocalDate.of(2021, 1, 1), "978-7-111-54321-9", 
                                                   900, "中文", "PDF", 50*1024*1024L, "http://library.com/download/csapp.pdf");
-        documents.put(ebook1.getDocumentId(), ebook1);
+        documents.put(documentIds.intern(ebook1.getDocumentId()), ebook1);
         searchService.addDocument(ebook1);
         borrowingService.addDocument(ebook1);
         
@@ -344,7 +766,16 @@ public class LibraryManagementSystem {
      */
     public void shutdown() {
         saveSystemData();
+        sessionManager.shutdown();
         borrowingService.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
+        if (historyArchive != null) {
+            User.setHistoryStore(null);
+            historyArchive.close();
+        }
+        auditService.flush();
         System.out.println("系统已关闭");
     }
     
@@ -497,16 +928,7 @@ public class LibraryManagementSystem {
     public void demonstrateMultithreading() {
         System.out.println("\n=== 多线程并发借阅演示 ===");
         
-        // 临时记录当前用户，以便恢复
-        User previousUser = currentUser;
-        
-        // 临时使用管理员身份来添加测试数据
-        Administrator tempAdmin = new Administrator("temp_admin", "临时管理员", "123456", "系统", 
-                                                   "system@library.com", "00000000000", 
-                                                   "系统部", "超级管理员", "完全权限");
-        currentUser = tempAdmin;
-        
-        // 创建测试用户
+        // 创建测试用户（直接添加到仓库，绕过权限检查）
         RegularUser user1 = new RegularUser("test1", "用户1", "123456", "张三", 
                                            "user1@test.com", "13800138001", "计算机系");
         RegularUser user2 = new RegularUser("test2", "用户2", "123456", "李四", 
@@ -515,12 +937,9 @@ public class LibraryManagementSystem {
                                            "user3@test.com", "13800138003", "物理系");
         
         // 直接添加到仓库，绕过权限检查
-        users.put(user1.getUserId(), user1);
-        users.put(user2.getUserId(), user2);
-        users.put(user3.getUserId(), user3);
-        borrowingService.addUser(user1);
-        borrowingService.addUser(user2);
-        borrowingService.addUser(user3);        // 创建一本热门图书
+        registerUser(user1);
+        registerUser(user2);
+        registerUser(user3);        // 创建一本热门图书
         PhysicalBook popularBook = new PhysicalBook("BOOK999", "Java并发编程实战", 
                                                    "Brian Goetz", "机械工业出版社", 
                                                    "编程", "Java并发编程经典教材", 
@@ -528,13 +947,10 @@ public class LibraryManagementSystem {
                                                    "978-7-111-27007-4", 336, "中文",
                                                    "A区3层", "A3-001");
         // 直接添加到仓库，绕过权限检查
-        documents.put(popularBook.getDocumentId(), popularBook);
+        documents.put(documentIds.intern(popularBook.getDocumentId()), popularBook);
         searchService.addDocument(popularBook);
         borrowingService.addDocument(popularBook);
         
-        // 恢复原用户状态
-        currentUser = previousUser;
-        
         System.out.println("测试环境准备完成：");
         System.out.println("- 已添加3个测试用户：张三、李四、王五");
         System.out.println("- 已添加热门图书：《Java并发编程实战》");
@@ -544,15 +960,16 @@ public class LibraryManagementSystem {
         System.out.println("\n开始并发借阅测试...");
         System.out.println("3个用户同时尝试借阅同一本书：");
         
-        Future<BorrowingService.BorrowResult> future1 = borrowingService.borrowAsync("test1", "BOOK999");
-        Future<BorrowingService.BorrowResult> future2 = borrowingService.borrowAsync("test2", "BOOK999");
-        Future<BorrowingService.BorrowResult> future3 = borrowingService.borrowAsync("test3", "BOOK999");
+        CompletableFuture<BorrowingService.BorrowResult> future1 = borrowingService.borrowAsync("test1", "BOOK999");
+        CompletableFuture<BorrowingService.BorrowResult> future2 = borrowingService.borrowAsync("test2", "BOOK999");
+        CompletableFuture<BorrowingService.BorrowResult> future3 = borrowingService.borrowAsync("test3", "BOOK999");
         
         try {
-            // 等待所有借阅操作完成并显示结果
-            BorrowingService.BorrowResult result1 = future1.get();
-            BorrowingService.BorrowResult result2 = future2.get();
-            BorrowingService.BorrowResult result3 = future3.get();
+            // 三个请求全部完成后一起汇总结果，不再逐个阻塞等待
+            CompletableFuture.allOf(future1, future2, future3).join();
+            BorrowingService.BorrowResult result1 = future1.join();
+            BorrowingService.BorrowResult result2 = future2.join();
+            BorrowingService.BorrowResult result3 = future3.join();
             
             System.out.println("\n借阅结果：");
             System.out.println("用户张三: " + (result1.isSuccess() ? "✓ " : "✗ ") + result1.getMessage());
@@ -1,174 +1,555 @@
 package main.service;
 
+import main.exception.RequestRejectedException;
 import main.interfaces.Searchable;
+import main.model.document.ArchiveDocument;
 import main.model.document.Document;
+import main.model.user.ArchiveManager;
 import main.model.user.User;
 import main.model.system.SystemConfig;
+import main.service.index.InvertedIndex;
+import main.service.index.MatchEngine;
+import main.service.index.NGramIndex;
+import main.service.index.PostingList;
+import main.service.index.SearchField;
+import main.util.IdRegistry;
+import main.util.OrdinalMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
 /**
  * 搜索服务
  * 实现文档搜索功能，支持权限控制
+ *
+ * 每个文档加入时分配一个递增的序号，索引中只保存序号。
+ * 支持三种匹配模式：
+ * - SUBSTRING：子串匹配，逐个文档比较（原有语义）
+ * - TOKEN：分词匹配，通过倒排索引求交集，每个查询词须完整出现在字段中
+ * - NGRAM：子串匹配，通过字符二元组索引求交集后验证，结果与 SUBSTRING 一致
+ * 初始模式由 SystemConfig.SEARCH_MODE 决定，默认为 NGRAM。分词模式下不含任何词的查询串（如只有标点）按子串匹配。
+ *
+ * 文档序号按访问级别（PUBLIC/INTERNAL/ARCHIVE）分区，并为每个用户维护档案授权位图，
+ * 权限判断在遍历倒排列表时完成，达到结果上限后立即停止。
+ *
+ * rankedSearch 基于分词索引按 BM25 相关度返回前K条结果，与匹配模式无关。
+ *
+ * 带用户的搜索先经过 AdmissionController 限流，被拒绝时抛出 RequestRejectedException。
  */
 public class SearchService implements Searchable {
     
-    private List<Document> documentRepository;
+    /**
+     * 搜索匹配模式
+     */
+    public enum SearchMode {
+        SUBSTRING,
+        TOKEN,
+        NGRAM
+    }
+    
+    // 已删除序号超过该数量且超过存活数量时重建索引
+    private static final int COMPACT_THRESHOLD = 1024;
+    
+    private List<Document> documentRepository; // 下标即文档序号，已删除的位置为null
+    private int[] ordinalByDocument; // 文档ID在 IdRegistry 中的序号 -> 文档序号，-1表示不存在
+    private BitSet liveOrdinals;
+    private BitSet publicOrdinals;
+    private BitSet internalOrdinals;
+    private BitSet archiveOrdinals;
+    private OrdinalMap<BitSet> archiveGrants; // 用户序号 -> 被授权访问的档案序号
+    private OrdinalMap<int[]> grantedUsers;   // 档案序号 -> 被授权的用户序号，撤销授权时只修改这些用户的位图
+    private int removedCount;
+    private InvertedIndex tokenIndex;
+    private NGramIndex ngramIndex; // 仅在 NGRAM 模式下建立
+    private volatile SearchMode searchMode;
+    private final ReentrantReadWriteLock indexLock;
     private AuditService auditService;
+    private final IdRegistry documentIds;
+    private final IdRegistry userIds;
+    private final AdmissionController admissionController;
     
     public SearchService() {
+        this(AdmissionController.getInstance());
+    }
+    
+    /**
+     * 构造方法
+     * @param admissionController 带用户的搜索请求的准入控制
+     */
+    public SearchService(AdmissionController admissionController) {
         this.documentRepository = new ArrayList<>();
+        this.ordinalByDocument = new int[0];
+        this.liveOrdinals = new BitSet();
+        this.publicOrdinals = new BitSet();
+        this.internalOrdinals = new BitSet();
+        this.archiveOrdinals = new BitSet();
+        this.archiveGrants = new OrdinalMap<>();
+        this.grantedUsers = new OrdinalMap<>();
+        this.removedCount = 0;
+        this.tokenIndex = new InvertedIndex();
+        this.searchMode = SearchMode.valueOf(SystemConfig.SEARCH_MODE);
+        this.ngramIndex = searchMode == SearchMode.NGRAM ? new NGramIndex(documentRepository::get) : null;
+        this.indexLock = new ReentrantReadWriteLock();
         this.auditService = AuditService.getInstance();
+        this.documentIds = IdRegistry.documents();
+        this.userIds = IdRegistry.users();
+        this.admissionController = admissionController;
     }
     
     /**
      * 添加文档到搜索库
      */
     public void addDocument(Document document) {
-        documentRepository.add(document);
+        indexLock.writeLock().lock();
+        try {
+            int existing = ordinalOf(document.getDocumentId());
+            if (existing >= 0) {
+                markRemoved(existing);
+            }
+            indexDocument(document);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
     }
     
     /**
      * 移除文档
      */
     public void removeDocument(String documentId) {
-        documentRepository.removeIf(doc -> doc.getDocumentId().equals(documentId));
+        indexLock.writeLock().lock();
+        try {
+            int ordinal = ordinalOf(documentId);
+            if (ordinal >= 0) {
+                ordinalByDocument[documentIds.lookup(documentId)] = -1;
+                markRemoved(ordinal);
+                compactIfNeeded();
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * 档案授权变更后刷新该档案的授权位图
+     */
+    public void refreshAccessGrants(String documentId) {
+        indexLock.writeLock().lock();
+        try {
+            int ordinal = ordinalOf(documentId);
+            if (ordinal < 0) {
+                return;
+            }
+            clearGrants(ordinal);
+            Document document = documentRepository.get(ordinal);
+            if (document instanceof ArchiveDocument) {
+                addGrants(ordinal, (ArchiveDocument) document);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * 设置匹配模式
+     */
+    public void setSearchMode(SearchMode searchMode) {
+        indexLock.writeLock().lock();
+        try {
+            if (searchMode == SearchMode.NGRAM && ngramIndex == null) {
+                ngramIndex = new NGramIndex(documentRepository::get);
+                for (int i = liveOrdinals.nextSetBit(0); i >= 0; i = liveOrdinals.nextSetBit(i + 1)) {
+                    ngramIndex.index(i, documentRepository.get(i));
+                }
+            } else if (searchMode != SearchMode.NGRAM) {
+                ngramIndex = null;
+            }
+            this.searchMode = searchMode;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+    
+    public SearchMode getSearchMode() {
+        return searchMode;
     }
     
     /**
-     * 根据用户权限过滤搜索结果
+     * 为文档分配新序号并写入各个索引和分区
      */
-    private List<Object> filterByPermission(List<Document> documents, User user) {
-        return documents.stream()
-                       .filter(doc -> doc.checkAccessPermission(user))
-                       .limit(SystemConfig.MAX_SEARCH_RESULTS)
-                       .collect(Collectors.toList());
+    private void indexDocument(Document document) {
+        int ordinal = documentRepository.size();
+        documentRepository.add(document);
+        bindOrdinal(documentIds.intern(document.getDocumentId()), ordinal);
+        liveOrdinals.set(ordinal);
+        switch (document.getAccessLevel()) {
+            case "PUBLIC":
+                publicOrdinals.set(ordinal);
+                break;
+            case "INTERNAL":
+                internalOrdinals.set(ordinal);
+                break;
+            case "ARCHIVE":
+                archiveOrdinals.set(ordinal);
+                break;
+            default:
+                break;
+        }
+        if (document instanceof ArchiveDocument) {
+            addGrants(ordinal, (ArchiveDocument) document);
+        }
+        tokenIndex.index(ordinal, document);
+        if (ngramIndex != null) {
+            ngramIndex.index(ordinal, document);
+        }
+    }
+    
+    /**
+     * 查找文档ID当前对应的文档序号，调用方需持有锁
+     * @return 文档序号，不存在时返回-1
+     */
+    private int ordinalOf(String documentId) {
+        int idOrdinal = documentIds.lookup(documentId);
+        return idOrdinal >= 0 && idOrdinal < ordinalByDocument.length ? ordinalByDocument[idOrdinal] : -1;
+    }
+    
+    private void bindOrdinal(int idOrdinal, int ordinal) {
+        if (idOrdinal >= ordinalByDocument.length) {
+            int oldLength = ordinalByDocument.length;
+            ordinalByDocument = Arrays.copyOf(ordinalByDocument, Math.max(idOrdinal + 1, oldLength * 2));
+            Arrays.fill(ordinalByDocument, oldLength, ordinalByDocument.length, -1);
+        }
+        ordinalByDocument[idOrdinal] = ordinal;
+    }
+    
+    private void markRemoved(int ordinal) {
+        documentRepository.set(ordinal, null);
+        liveOrdinals.clear(ordinal);
+        publicOrdinals.clear(ordinal);
+        internalOrdinals.clear(ordinal);
+        archiveOrdinals.clear(ordinal);
+        clearGrants(ordinal);
+        tokenIndex.remove(ordinal);
+        removedCount++;
+    }
+    
+    private void addGrants(int ordinal, ArchiveDocument document) {
+        Set<String> authorized = document.getAuthorizedUserIds();
+        if (authorized.isEmpty()) {
+            return;
+        }
+        int[] granted = new int[authorized.size()];
+        int count = 0;
+        for (String userId : authorized) {
+            int userOrdinal = userIds.intern(userId);
+            archiveGrants.computeIfAbsent(userOrdinal, k -> new BitSet()).set(ordinal);
+            granted[count++] = userOrdinal;
+        }
+        grantedUsers.put(ordinal, granted);
+    }
+    
+    private void clearGrants(int ordinal) {
+        int[] granted = grantedUsers.remove(ordinal);
+        if (granted == null) {
+            return;
+        }
+        for (int userOrdinal : granted) {
+            BitSet grants = archiveGrants.get(userOrdinal);
+            if (grants != null) {
+                grants.clear(ordinal);
+            }
+        }
+    }
+    
+    /**
+     * 倒排列表只能追加，删除的文档仅做标记；删除过多时重新分配序号并重建索引
+     */
+    private void compactIfNeeded() {
+        if (removedCount < COMPACT_THRESHOLD || removedCount < liveOrdinals.cardinality()) {
+            return;
+        }
+        List<Document> liveDocuments = new ArrayList<>();
+        for (int i = liveOrdinals.nextSetBit(0); i >= 0; i = liveOrdinals.nextSetBit(i + 1)) {
+            liveDocuments.add(documentRepository.get(i));
+        }
+        documentRepository.clear();
+        Arrays.fill(ordinalByDocument, -1);
+        liveOrdinals.clear();
+        publicOrdinals.clear();
+        internalOrdinals.clear();
+        archiveOrdinals.clear();
+        archiveGrants = new OrdinalMap<>();
+        grantedUsers = new OrdinalMap<>();
+        tokenIndex.clear();
+        if (ngramIndex != null) {
+            ngramIndex.clear();
+        }
+        removedCount = 0;
+        for (Document document : liveDocuments) {
+            indexDocument(document);
+        }
+    }
+    
+    /**
+     * 计算用户可见的文档序号（与各文档的 checkAccessPermission 规则一致），调用方需持有读锁
+     * @param user 用户，为null时不做权限控制
+     */
+    private IntPredicate visibleTo(User user) {
+        if (user == null) {
+            return liveOrdinals::get;
+        }
+        boolean canReadPublic = user.hasAccessPermission("PUBLIC");
+        boolean canReadInternal = user.hasAccessPermission("INTERNAL");
+        BitSet archives = user instanceof ArchiveManager ? archiveOrdinals : archiveGrants.get(userIds.lookup(user.getUserId()));
+        return ordinal -> {
+            if (publicOrdinals.get(ordinal)) {
+                return canReadPublic;
+            }
+            if (internalOrdinals.get(ordinal)) {
+                return canReadInternal;
+            }
+            if (archiveOrdinals.get(ordinal)) {
+                return archives != null && archives.get(ordinal);
+            }
+            // 未知访问级别的文档交由文档自身判断
+            return liveOrdinals.get(ordinal) && documentRepository.get(ordinal).checkAccessPermission(user);
+        };
+    }
+    
+    /**
+     * 按条件查找匹配文档，多个条件之间为“与”关系
+     * @param criteria 字段 -> 查询串（ALL 表示关键词）
+     * @param user 搜索用户，为null时不做权限控制且不限制结果数
+     * @return 按加入顺序排列的匹配文档
+     */
+    private List<Object> findMatches(Map<SearchField, String> criteria, User user) {
+        // 关键词为空白时与 Document.matches 一致，不匹配任何文档
+        String keyword = criteria.get(SearchField.ALL);
+        if (keyword != null && keyword.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        int limit = user == null ? Integer.MAX_VALUE : SystemConfig.MAX_SEARCH_RESULTS;
+        
+        indexLock.readLock().lock();
+        try {
+            IntPredicate visible = visibleTo(user);
+            if (searchMode == SearchMode.SUBSTRING || criteria.isEmpty()) {
+                return scanMatches(visible, substringFilter(criteria), limit);
+            }
+            
+            // 依次匹配各个条件，前一个条件的结果作为后一个条件的过滤集合，最后一个条件才限制结果数
+            MatchEngine engine = searchMode == SearchMode.NGRAM ? ngramIndex : tokenIndex;
+            IntPredicate accept = visible;
+            int[] ordinals = new int[0];
+            int remaining = criteria.size();
+            for (Map.Entry<SearchField, String> entry : criteria.entrySet()) {
+                int stageLimit = --remaining == 0 ? limit : Integer.MAX_VALUE;
+                ordinals = matchStage(engine, entry.getKey(), entry.getValue(), accept, stageLimit);
+                if (ordinals.length == 0) {
+                    break;
+                }
+                BitSet previous = new BitSet();
+                for (int ordinal : ordinals) {
+                    previous.set(ordinal);
+                }
+                accept = previous::get;
+            }
+            List<Object> results = new ArrayList<>(ordinals.length);
+            for (int ordinal : ordinals) {
+                results.add(documentRepository.get(ordinal));
+            }
+            return results;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * 匹配一个条件；空串匹配所有文档，分词模式下不含任何词的查询串逐个文档按子串比较
+     */
+    private int[] matchStage(MatchEngine engine, SearchField field, String query, IntPredicate accept, int limit) {
+        if (query.isEmpty()) {
+            return collect(accept, limit);
+        }
+        if (engine == tokenIndex && InvertedIndex.tokenize(query).isEmpty()) {
+            String lowerQuery = query.toLowerCase();
+            return collect(i -> accept.test(i) && field.contains(documentRepository.get(i), lowerQuery), limit);
+        }
+        return engine.match(field, query, accept, limit);
+    }
+    
+    /**
+     * 收集满足条件的存活文档序号
+     */
+    private int[] collect(IntPredicate accept, int limit) {
+        int[] result = new int[Math.min(liveOrdinals.cardinality(), limit)];
+        int count = 0;
+        for (int i = liveOrdinals.nextSetBit(0); i >= 0 && count < limit; i = liveOrdinals.nextSetBit(i + 1)) {
+            if (accept.test(i)) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+    
+    /**
+     * 构造子串匹配条件
+     */
+    private Predicate<Document> substringFilter(Map<SearchField, String> criteria) {
+        Map<SearchField, String> lowerCriteria = new EnumMap<>(SearchField.class);
+        criteria.forEach((field, value) -> lowerCriteria.put(field, value.toLowerCase()));
+        return doc -> {
+            for (Map.Entry<SearchField, String> entry : lowerCriteria.entrySet()) {
+                if (!entry.getKey().contains(doc, entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+    
+    /**
+     * 逐个文档匹配：先判断可见性，再判断匹配条件，达到上限即停止
+     */
+    private List<Object> scanMatches(IntPredicate visible, Predicate<Document> filter, int limit) {
+        List<Object> results = new ArrayList<>();
+        for (int i = liveOrdinals.nextSetBit(0); i >= 0 && results.size() < limit;
+             i = liveOrdinals.nextSetBit(i + 1)) {
+            if (visible.test(i)) {
+                Document doc = documentRepository.get(i);
+                if (filter.test(doc)) {
+                    results.add(doc);
+                }
+            }
+        }
+        return results;
+    }
+    
+    private List<Object> findMatches(SearchField field, String query, User user) {
+        Map<SearchField, String> criteria = new EnumMap<>(SearchField.class);
+        criteria.put(field, query);
+        return findMatches(criteria, user);
+    }
+    
+    /**
+     * 遍历用户可见的文档
+     */
+    private List<Object> findVisible(Predicate<Document> filter, User user) {
+        indexLock.readLock().lock();
+        try {
+            return scanMatches(visibleTo(user), filter, SystemConfig.MAX_SEARCH_RESULTS);
+        } finally {
+            indexLock.readLock().unlock();
+        }
     }
     
     @Override
     public List<Object> searchByKeyword(String keyword) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.matches(keyword))
-                                                  .collect(Collectors.toList());
-        return new ArrayList<>(results);
+        return findMatches(SearchField.ALL, keyword, null);
     }
     
     /**
      * 带权限控制的关键词搜索
      */
     public List<Object> searchByKeyword(String keyword, User user) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.matches(keyword))
-                                                  .collect(Collectors.toList());
+        admit(user);
+        List<Object> results = findMatches(SearchField.ALL, keyword, user);
         
         // 记录搜索操作
         auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.SEARCH, 
                                  null, java.time.LocalDateTime.now(), 
                                  "关键词搜索: " + keyword);
         
-        return filterByPermission(results, user);
+        return results;
     }
     
     @Override
     public List<Object> searchByTitle(String title) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.getTitle().toLowerCase()
-                                                               .contains(title.toLowerCase()))
-                                                  .collect(Collectors.toList());
-        return new ArrayList<>(results);
+        return findMatches(SearchField.TITLE, title, null);
     }
     
     /**
      * 带权限控制的标题搜索
      */
     public List<Object> searchByTitle(String title, User user) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.getTitle().toLowerCase()
-                                                               .contains(title.toLowerCase()))
-                                                  .collect(Collectors.toList());
+        admit(user);
+        List<Object> results = findMatches(SearchField.TITLE, title, user);
         
         auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.SEARCH, 
                                  null, java.time.LocalDateTime.now(), 
                                  "标题搜索: " + title);
         
-        return filterByPermission(results, user);
+        return results;
     }
     
     @Override
     public List<Object> searchByAuthor(String author) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.getAuthor().toLowerCase()
-                                                               .contains(author.toLowerCase()))
-                                                  .collect(Collectors.toList());
-        return new ArrayList<>(results);
+        return findMatches(SearchField.AUTHOR, author, null);
     }
     
     /**
      * 带权限控制的作者搜索
      */
     public List<Object> searchByAuthor(String author, User user) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.getAuthor().toLowerCase()
-                                                               .contains(author.toLowerCase()))
-                                                  .collect(Collectors.toList());
+        admit(user);
+        List<Object> results = findMatches(SearchField.AUTHOR, author, user);
         
         auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.SEARCH, 
                                  null, java.time.LocalDateTime.now(), 
                                  "作者搜索: " + author);
         
-        return filterByPermission(results, user);
+        return results;
     }
     
     @Override
     public List<Object> searchByCategory(String category) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.getCategory().toLowerCase()
-                                                               .contains(category.toLowerCase()))
-                                                  .collect(Collectors.toList());
-        return new ArrayList<>(results);
+        return findMatches(SearchField.CATEGORY, category, null);
     }
     
     /**
      * 带权限控制的分类搜索
      */
     public List<Object> searchByCategory(String category, User user) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.getCategory().toLowerCase()
-                                                               .contains(category.toLowerCase()))
-                                                  .collect(Collectors.toList());
+        admit(user);
+        List<Object> results = findMatches(SearchField.CATEGORY, category, user);
         
         auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.SEARCH, 
                                  null, java.time.LocalDateTime.now(), 
                                  "分类搜索: " + category);
         
-        return filterByPermission(results, user);
+        return results;
+    }
+    
+    /**
+     * 将高级搜索的各项条件整理为字段 -> 查询串
+     */
+    private Map<SearchField, String> buildCriteria(String title, String author,
+                                                  String category, String keyword) {
+        Map<SearchField, String> criteria = new EnumMap<>(SearchField.class);
+        if (title != null && !title.isEmpty()) {
+            criteria.put(SearchField.TITLE, title);
+        }
+        if (author != null && !author.isEmpty()) {
+            criteria.put(SearchField.AUTHOR, author);
+        }
+        if (category != null && !category.isEmpty()) {
+            criteria.put(SearchField.CATEGORY, category);
+        }
+        if (keyword != null && !keyword.isEmpty()) {
+            criteria.put(SearchField.ALL, keyword);
+        }
+        return criteria;
     }
     
     @Override
     public List<Object> advancedSearch(String title, String author, String category, String keyword) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> {
-                                                      boolean matches = true;
-                                                      if (title != null && !title.isEmpty()) {
-                                                          matches &= doc.getTitle().toLowerCase()
-                                                                       .contains(title.toLowerCase());
-                                                      }
-                                                      if (author != null && !author.isEmpty()) {
-                                                          matches &= doc.getAuthor().toLowerCase()
-                                                                       .contains(author.toLowerCase());
-                                                      }
-                                                      if (category != null && !category.isEmpty()) {
-                                                          matches &= doc.getCategory().toLowerCase()
-                                                                       .contains(category.toLowerCase());
-                                                      }
-                                                      if (keyword != null && !keyword.isEmpty()) {
-                                                          matches &= doc.matches(keyword);
-                                                      }
-                                                      return matches;
-                                                  })
-                                                  .collect(Collectors.toList());
-        return new ArrayList<>(results);
+        return findMatches(buildCriteria(title, author, category, keyword), null);
     }
     
     /**
@@ -176,27 +557,8 @@ public class SearchService implements Searchable {
      */
     public List<Object> advancedSearch(String title, String author, String category, 
                                       String keyword, User user) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> {
-                                                      boolean matches = true;
-                                                      if (title != null && !title.isEmpty()) {
-                                                          matches &= doc.getTitle().toLowerCase()
-                                                                       .contains(title.toLowerCase());
-                                                      }
-                                                      if (author != null && !author.isEmpty()) {
-                                                          matches &= doc.getAuthor().toLowerCase()
-                                                                       .contains(author.toLowerCase());
-                                                      }
-                                                      if (category != null && !category.isEmpty()) {
-                                                          matches &= doc.getCategory().toLowerCase()
-                                                                       .contains(category.toLowerCase());
-                                                      }
-                                                      if (keyword != null && !keyword.isEmpty()) {
-                                                          matches &= doc.matches(keyword);
-                                                      }
-                                                      return matches;
-                                                  })
-                                                  .collect(Collectors.toList());
+        admit(user);
+        List<Object> results = findMatches(buildCriteria(title, author, category, keyword), user);
         
         String searchCriteria = String.format("标题:%s, 作者:%s, 分类:%s, 关键词:%s", 
                                              title, author, category, keyword);
@@ -204,47 +566,118 @@ public class SearchService implements Searchable {
                                  null, java.time.LocalDateTime.now(), 
                                  "高级搜索: " + searchCriteria);
         
-        return filterByPermission(results, user);
+        return results;
+    }
+    
+    /**
+     * 相关度排序搜索，返回最相关的前 RANKED_SEARCH_TOP_K 条结果
+     */
+    public List<SearchHit> rankedSearch(String query, User user) {
+        return rankedSearch(query, user, SystemConfig.RANKED_SEARCH_TOP_K);
+    }
+    
+    /**
+     * 相关度排序搜索
+     * @param query 查询串（按分词规则切分，各词之间为“或”关系）
+     * @param user 搜索用户
+     * @param topK 返回条数
+     * @return 按相关度降序排列的结果
+     */
+    public List<SearchHit> rankedSearch(String query, User user, int topK) {
+        admit(user);
+        List<SearchHit> hits = new ArrayList<>();
+        indexLock.readLock().lock();
+        try {
+            List<InvertedIndex.ScoredOrdinal> scored = tokenIndex.topK(query, topK, visibleTo(user));
+            for (InvertedIndex.ScoredOrdinal entry : scored) {
+                hits.add(new SearchHit(documentRepository.get(entry.getOrdinal()), entry.getScore()));
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        
+        auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.SEARCH,
+                                 null, java.time.LocalDateTime.now(),
+                                 "相关度搜索: " + query);
+        return hits;
     }
     
     /**
      * 按文档类型搜索
      */
     public List<Object> searchByDocumentType(String documentType, User user) {
-        List<Document> results = documentRepository.stream()
-                                                  .filter(doc -> doc.getDocumentType().equals(documentType))
-                                                  .collect(Collectors.toList());
+        admit(user);
+        List<Object> results = findVisible(doc -> doc.getDocumentType().equals(documentType), user);
         
         auditService.logOperation(user.getUserId(), SystemConfig.OperationTypes.SEARCH, 
                                  null, java.time.LocalDateTime.now(), 
                                  "文档类型搜索: " + documentType);
         
-        return filterByPermission(results, user);
+        return results;
+    }
+    
+    /**
+     * 准入控制，被限流时抛出 RequestRejectedException
+     */
+    private void admit(User user) {
+        AdmissionController.Decision decision = admissionController.tryAdmit(user.getUserId());
+        if (decision != AdmissionController.Decision.ADMITTED) {
+            throw new RequestRejectedException(decision.getMessage());
+        }
     }
     
     /**
      * 获取用户可访问的所有文档
      */
     public List<Object> getAllAccessibleDocuments(User user) {
-        List<Document> allDocuments = new ArrayList<>(documentRepository);
-        return filterByPermission(allDocuments, user);
+        return findVisible(doc -> true, user);
     }
     
     /**
      * 获取搜索统计信息
      */
     public String getSearchStatistics() {
-        return String.format("搜索库统计：\n" +
-                           "- 总文档数: %d\n" +
-                           "- 公开文档: %d\n" +
-                           "- 内部资料: %d\n" +
-                           "- 档案资料: %d\n", 
-                           documentRepository.size(),
-                           documentRepository.stream().mapToInt(doc -> 
-                               "PUBLIC".equals(doc.getAccessLevel()) ? 1 : 0).sum(),
-                           documentRepository.stream().mapToInt(doc -> 
-                               "INTERNAL".equals(doc.getAccessLevel()) ? 1 : 0).sum(),
-                           documentRepository.stream().mapToInt(doc -> 
-                               "ARCHIVE".equals(doc.getAccessLevel()) ? 1 : 0).sum());
+        indexLock.readLock().lock();
+        try {
+            return String.format("搜索库统计：\n" +
+                               "- 总文档数: %d\n" +
+                               "- 公开文档: %d\n" +
+                               "- 内部资料: %d\n" +
+                               "- 档案资料: %d\n" +
+                               "- 匹配模式: %s\n",
+                               liveOrdinals.cardinality(),
+                               publicOrdinals.cardinality(),
+                               internalOrdinals.cardinality(),
+                               archiveOrdinals.cardinality(),
+                               searchMode);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * 相关度搜索结果类
+     */
+    public static class SearchHit {
+        private final Document document;
+        private final double score;
+        
+        public SearchHit(Document document, double score) {
+            this.document = document;
+            this.score = score;
+        }
+        
+        public Document getDocument() {
+            return document;
+        }
+        
+        public double getScore() {
+            return score;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("SearchHit{score=%.3f, document=%s}", score, document);
+        }
     }
 }
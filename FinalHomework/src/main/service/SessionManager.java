@@ -0,0 +1,205 @@
+package main.service;
+
+import main.model.system.SystemConfig;
+import main.model.user.User;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 会话管理
+ * 登录成功后分配一个随机令牌，之后的请求凭令牌找到会话及其用户。
+ * 会话保存在 ConcurrentHashMap 中，查找不加锁；超过 SESSION_TIMEOUT_MINUTES 未访问的会话视为过期，
+ * 查找时发现过期立即移除，后台线程定期清理无人访问的过期会话（构造后调用 start 启动）。
+ */
+public class SessionManager {
+    
+    private static final int TOKEN_BYTES = 32;
+    
+    private final ConcurrentHashMap<String, Session> sessions;
+    private final long timeoutMillis;
+    private final SecureRandom random;
+    private final ScheduledExecutorService sweeper;
+    private final Consumer<Session> expiryListener;
+    private boolean started;
+    
+    /**
+     * 构造方法，超时时间使用 SystemConfig.SESSION_TIMEOUT_MINUTES
+     * @param expiryListener 会话因超时被移除时的回调（如记录审计日志），可以为null
+     */
+    public SessionManager(Consumer<Session> expiryListener) {
+        this(TimeUnit.MINUTES.toMillis(SystemConfig.SESSION_TIMEOUT_MINUTES), expiryListener);
+    }
+    
+    /**
+     * 构造方法
+     * @param timeoutMillis 会话空闲超时（毫秒）
+     * @param expiryListener 会话因超时被移除时的回调，可以为null
+     */
+    public SessionManager(long timeoutMillis, Consumer<Session> expiryListener) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.timeoutMillis = timeoutMillis;
+        this.random = new SecureRandom();
+        this.expiryListener = expiryListener;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.started = false;
+    }
+    
+    /**
+     * 启动后台清理，重复调用无效果
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        long period = Math.max(1000, timeoutMillis / 4);
+        sweeper.scheduleAtFixedRate(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 为已通过认证的用户创建会话
+     * @return 会话令牌
+     */
+    public String open(User user, String ipAddress) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(token, user, ipAddress));
+        return token;
+    }
+    
+    /**
+     * 按令牌查找会话并刷新其访问时间
+     * @return 令牌无效或会话已过期时返回null
+     */
+    public Session get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (session.isExpired(now, timeoutMillis)) {
+            expire(session);
+            return null;
+        }
+        session.touch(now);
+        return session;
+    }
+    
+    /**
+     * 按令牌查找会话用户
+     * @return 令牌无效或会话已过期时返回null
+     */
+    public User getUser(String token) {
+        Session session = get(token);
+        return session == null ? null : session.getUser();
+    }
+    
+    /**
+     * 关闭会话
+     * @return 被关闭的会话，令牌无效时返回null
+     */
+    public Session close(String token) {
+        return token == null ? null : sessions.remove(token);
+    }
+    
+    /**
+     * 移除所有过期会话
+     * @return 移除的会话数
+     */
+    public int evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Session session : sessions.values()) {
+            if (session.isExpired(now, timeoutMillis) && expire(session)) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+    
+    /**
+     * 当前会话数（可能包含尚未清理的过期会话）
+     */
+    public int getActiveSessionCount() {
+        return sessions.size();
+    }
+    
+    /**
+     * 停止后台清理
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+    
+    private boolean expire(Session session) {
+        // 并发查找和清理可能同时发现过期，只有移除成功的一方触发回调
+        if (!sessions.remove(session.getToken(), session)) {
+            return false;
+        }
+        if (expiryListener != null) {
+            expiryListener.accept(session);
+        }
+        return true;
+    }
+    
+    /**
+     * 会话
+     */
+    public static class Session {
+        private final String token;
+        private final User user;
+        private final String ipAddress;
+        private final LocalDateTime createTime;
+        private volatile long lastAccessMillis;
+        
+        Session(String token, User user, String ipAddress) {
+            this.token = token;
+            this.user = user;
+            this.ipAddress = ipAddress;
+            this.createTime = LocalDateTime.now();
+            this.lastAccessMillis = System.currentTimeMillis();
+        }
+        
+        void touch(long now) {
+            lastAccessMillis = now;
+        }
+        
+        boolean isExpired(long now, long timeoutMillis) {
+            return now - lastAccessMillis > timeoutMillis;
+        }
+        
+        public String getToken() {
+            return token;
+        }
+        
+        public User getUser() {
+            return user;
+        }
+        
+        public String getIpAddress() {
+            return ipAddress;
+        }
+        
+        public LocalDateTime getCreateTime() {
+            return createTime;
+        }
+        
+        public long getLastAccessMillis() {
+            return lastAccessMillis;
+        }
+    }
+}
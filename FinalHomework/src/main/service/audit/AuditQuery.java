@@ -0,0 +1,107 @@
+package main.service.audit;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 审计记录查询条件
+ * 各条件之间为“与”关系，未设置的条件不做限制。时间范围为 [from, to)。
+ * 例如：AuditQuery.byUser("U001").operation(OperationTypes.BORROW).between(三月一日, 四月一日)
+ */
+public class AuditQuery {
+    
+    private String userId;
+    private String resourceId;
+    private String operation;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    
+    /**
+     * 不限条件的查询
+     */
+    public static AuditQuery all() {
+        return new AuditQuery();
+    }
+    
+    /**
+     * 某个用户的记录
+     */
+    public static AuditQuery byUser(String userId) {
+        return new AuditQuery().user(userId);
+    }
+    
+    /**
+     * 某个资源的记录
+     */
+    public static AuditQuery byResource(String resourceId) {
+        return new AuditQuery().resource(resourceId);
+    }
+    
+    public AuditQuery user(String userId) {
+        this.userId = userId;
+        return this;
+    }
+    
+    public AuditQuery resource(String resourceId) {
+        this.resourceId = resourceId;
+        return this;
+    }
+    
+    /**
+     * 限定操作类型（SystemConfig.OperationTypes 中的值或其他操作名称）
+     */
+    public AuditQuery operation(String operation) {
+        this.operation = operation;
+        return this;
+    }
+    
+    /**
+     * 限定时间范围 [from, to)，参数为null表示该端不限
+     */
+    public AuditQuery between(LocalDateTime from, LocalDateTime to) {
+        this.from = from == null ? Long.MIN_VALUE : toEpochMillis(from);
+        this.to = to == null ? Long.MAX_VALUE : toEpochMillis(to);
+        return this;
+    }
+    
+    /**
+     * 限定时间范围 [from, to)（毫秒）
+     */
+    public AuditQuery betweenMillis(long from, long to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+    
+    /**
+     * 只保留不早于指定时间（毫秒）的记录，与已有的起始时间取较晚者
+     */
+    public AuditQuery notBefore(long millis) {
+        this.from = Math.max(this.from, millis);
+        return this;
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public String getResourceId() {
+        return resourceId;
+    }
+    
+    public String getOperation() {
+        return operation;
+    }
+    
+    public long getFrom() {
+        return from;
+    }
+    
+    public long getTo() {
+        return to;
+    }
+    
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,137 @@
+package main.service.audit;
+
+import main.model.system.SystemConfig;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 审计记录
+ * 以结构化字段保存一次审计事件：时间（毫秒）、用户和资源的 IdRegistry 序号、操作代码及详情。
+ * 同一条记录同时被用户历史和资源历史引用，只在需要展示时由 AuditRecordRenderer 转成文本。
+ */
+public final class AuditRecord {
+    
+    /**
+     * 记录类别，对应 AuditService 的三个记录方法
+     */
+    public enum Kind {
+        OPERATION,
+        LOGIN,
+        ACCESS
+    }
+    
+    // 操作代码：0 表示不在 SystemConfig.OperationTypes 中的操作，此时保留操作名称
+    public static final byte OTHER = 0;
+    private static final String[] OPERATION_NAMES = {
+        null,
+        SystemConfig.OperationTypes.LOGIN,
+        SystemConfig.OperationTypes.LOGOUT,
+        SystemConfig.OperationTypes.BORROW,
+        SystemConfig.OperationTypes.RETURN,
+        SystemConfig.OperationTypes.EXTEND,
+        SystemConfig.OperationTypes.SEARCH,
+        SystemConfig.OperationTypes.VIEW,
+        SystemConfig.OperationTypes.DOWNLOAD,
+        SystemConfig.OperationTypes.PRINT,
+        SystemConfig.OperationTypes.AUTHORIZE,
+        SystemConfig.OperationTypes.REVOKE,
+        SystemConfig.OperationTypes.CHECKOUT // 新的操作只能追加在末尾，已写入的代码不能改变
+    };
+    private static final Map<String, Byte> OPERATION_CODES = new HashMap<>();
+    
+    static {
+        for (byte code = 1; code < OPERATION_NAMES.length; code++) {
+            OPERATION_CODES.put(OPERATION_NAMES[code], code);
+        }
+    }
+    
+    private final Kind kind;
+    private final long timestamp;
+    private final int userOrdinal;
+    private final int resourceOrdinal; // 没有资源时为-1
+    private final byte operationCode;
+    private final String operationName; // 仅 operationCode 为 OTHER 时保存
+    private final boolean success;
+    private final String details;
+    
+    public AuditRecord(Kind kind, long timestamp, int userOrdinal, int resourceOrdinal,
+                       byte operationCode, String operationName, boolean success, String details) {
+        this.kind = kind;
+        this.timestamp = timestamp;
+        this.userOrdinal = userOrdinal;
+        this.resourceOrdinal = resourceOrdinal;
+        this.operationCode = operationCode;
+        this.operationName = operationCode == OTHER ? operationName : null;
+        this.success = success;
+        this.details = details;
+    }
+    
+    /**
+     * 操作记录
+     */
+    public static AuditRecord operation(long timestamp, int userOrdinal, int resourceOrdinal,
+                                        String operation, String details) {
+        byte code = codeOf(operation);
+        return new AuditRecord(Kind.OPERATION, timestamp, userOrdinal, resourceOrdinal,
+                               code, operation, true, details);
+    }
+    
+    /**
+     * 登录记录，详情为IP地址
+     */
+    public static AuditRecord login(long timestamp, int userOrdinal, String ipAddress, boolean success) {
+        return new AuditRecord(Kind.LOGIN, timestamp, userOrdinal, -1,
+                               codeOf(SystemConfig.OperationTypes.LOGIN), null, success, ipAddress);
+    }
+    
+    /**
+     * 资源访问记录，详情为访问类型
+     */
+    public static AuditRecord access(long timestamp, int userOrdinal, int resourceOrdinal, String accessType) {
+        return new AuditRecord(Kind.ACCESS, timestamp, userOrdinal, resourceOrdinal,
+                               codeOf(SystemConfig.OperationTypes.VIEW), null, true, accessType);
+    }
+    
+    /**
+     * 获取操作名称对应的代码，未知操作返回 OTHER
+     */
+    public static byte codeOf(String operation) {
+        Byte code = operation == null ? null : OPERATION_CODES.get(operation);
+        return code == null ? OTHER : code;
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public int getUserOrdinal() {
+        return userOrdinal;
+    }
+    
+    public int getResourceOrdinal() {
+        return resourceOrdinal;
+    }
+    
+    public byte getOperationCode() {
+        return operationCode;
+    }
+    
+    /**
+     * 操作名称（SystemConfig.OperationTypes 中的值或原始名称）
+     */
+    public String getOperation() {
+        return operationCode == OTHER ? operationName : OPERATION_NAMES[operationCode];
+    }
+    
+    public boolean isSuccess() {
+        return success;
+    }
+    
+    public String getDetails() {
+        return details;
+    }
+}
@@ -0,0 +1,166 @@
+package main.service.audit;
+
+import main.util.GroupCommitWriter;
+import main.util.IdRegistry;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 审计记录二进制编码器
+ * 由写入线程调用，直接编码到复用的缓冲区中，不生成中间字符串。
+ *
+ * 序号只在本次运行中有效，因此每个文件（段）开头先写一条 SESSION 记录，
+ * 某个序号第一次出现前写一条字典记录（序号 -> 字符串ID），读取时据此还原ID。
+ *
+ * 记录格式（所有记录以类型字节开头）：
+ * - SESSION：无内容
+ * - USER_ID / RESOURCE_ID：序号(int) ID(字符串)
+ * - RECORD：类别(byte) 操作代码(byte) 成功标志(byte) 时间毫秒(long) 用户序号(int) 资源序号(int)
+ *           [操作名称(字符串)，仅操作代码为 OTHER 时] 详情(字符串)
+ * 字符串为 长度(int) + UTF-8 字节，null 的长度为-1
+ */
+public class AuditRecordCodec implements GroupCommitWriter.Encoder<AuditRecord> {
+    
+    public static final byte SESSION = 0;
+    public static final byte USER_ID = 1;
+    public static final byte RESOURCE_ID = 2;
+    public static final byte RECORD = 3;
+    
+    private final IdRegistry userIds;
+    private final IdRegistry resourceIds;
+    private final BitSet writtenUsers;
+    private final BitSet writtenResources;
+    private final CharsetEncoder utf8;
+    private boolean sessionWritten;
+    
+    public AuditRecordCodec() {
+        this.userIds = IdRegistry.users();
+        this.resourceIds = IdRegistry.documents();
+        this.writtenUsers = new BitSet();
+        this.writtenResources = new BitSet();
+        this.utf8 = StandardCharsets.UTF_8.newEncoder()
+                                          .onMalformedInput(CodingErrorAction.REPLACE)
+                                          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.sessionWritten = false;
+    }
+    
+    /**
+     * 重新开始一个会话（切换到新文件时调用），之后的序号会重新写入字典记录
+     */
+    public void reset() {
+        writtenUsers.clear();
+        writtenResources.clear();
+        sessionWritten = false;
+    }
+    
+    @Override
+    public void encode(AuditRecord record, ByteBuffer buffer) {
+        encodeRecord(record, buffer);
+    }
+    
+    /**
+     * 编码一条记录（必要时先写入会话和字典记录）
+     * @return RECORD 类型字节在缓冲区中的位置
+     */
+    public int encodeRecord(AuditRecord record, ByteBuffer buffer) {
+        // 缓冲区不足时抛出 BufferOverflowException 由写入器重试，因此状态在全部写入后才更新
+        boolean newUser = record.getUserOrdinal() >= 0 && !writtenUsers.get(record.getUserOrdinal());
+        boolean newResource = record.getResourceOrdinal() >= 0 && !writtenResources.get(record.getResourceOrdinal());
+        if (!sessionWritten) {
+            buffer.put(SESSION);
+        }
+        if (newUser) {
+            buffer.put(USER_ID).putInt(record.getUserOrdinal());
+            putString(buffer, userIds.idOf(record.getUserOrdinal()));
+        }
+        if (newResource) {
+            buffer.put(RESOURCE_ID).putInt(record.getResourceOrdinal());
+            putString(buffer, resourceIds.idOf(record.getResourceOrdinal()));
+        }
+        
+        int recordPosition = buffer.position();
+        buffer.put(RECORD)
+              .put((byte) record.getKind().ordinal())
+              .put(record.getOperationCode())
+              .put((byte) (record.isSuccess() ? 1 : 0))
+              .putLong(record.getTimestamp())
+              .putInt(record.getUserOrdinal())
+              .putInt(record.getResourceOrdinal());
+        if (record.getOperationCode() == AuditRecord.OTHER) {
+            putString(buffer, record.getOperation());
+        }
+        putString(buffer, record.getDetails());
+        
+        sessionWritten = true;
+        if (newUser) {
+            writtenUsers.set(record.getUserOrdinal());
+        }
+        if (newResource) {
+            writtenResources.set(record.getResourceOrdinal());
+        }
+        return recordPosition;
+    }
+    
+    /**
+     * 从缓冲区当前位置解码一条 RECORD（类型字节之后的部分）
+     * @param userOrdinals 文件中的用户序号 -> 本次运行的序号
+     * @param resourceOrdinals 文件中的资源序号 -> 本次运行的序号
+     * @throws BufferUnderflowException 缓冲区中的数据不完整
+     */
+    public static AuditRecord decodeRecord(ByteBuffer buffer, IntUnaryOperator userOrdinals,
+                                           IntUnaryOperator resourceOrdinals) {
+        AuditRecord.Kind kind = AuditRecord.Kind.values()[buffer.get()];
+        byte operationCode = buffer.get();
+        boolean success = buffer.get() != 0;
+        long timestamp = buffer.getLong();
+        int userOrdinal = buffer.getInt();
+        int resourceOrdinal = buffer.getInt();
+        String operationName = operationCode == AuditRecord.OTHER ? getString(buffer) : null;
+        String details = getString(buffer);
+        return new AuditRecord(kind, timestamp,
+                               userOrdinal >= 0 ? userOrdinals.applyAsInt(userOrdinal) : -1,
+                               resourceOrdinal >= 0 ? resourceOrdinals.applyAsInt(resourceOrdinal) : -1,
+                               operationCode, operationName, success, details);
+    }
+    
+    /**
+     * 读取一个字符串
+     * @throws BufferUnderflowException 缓冲区中的数据不完整
+     */
+    public static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                                  StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        utf8.reset();
+        CoderResult result = utf8.encode(CharBuffer.wrap(value), buffer, true);
+        if (result.isOverflow() || utf8.flush(buffer).isOverflow()) {
+            throw new BufferOverflowException();
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+    }
+}
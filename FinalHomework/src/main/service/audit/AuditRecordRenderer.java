@@ -0,0 +1,47 @@
+package main.service.audit;
+
+import main.model.system.SystemConfig;
+import main.util.IdRegistry;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 审计记录渲染器
+ * 把 AuditRecord 转换成可读文本，格式与原有日志行保持一致
+ */
+public class AuditRecordRenderer {
+    
+    private final DateTimeFormatter formatter;
+    private final IdRegistry userIds;
+    private final IdRegistry resourceIds;
+    
+    public AuditRecordRenderer() {
+        this.formatter = DateTimeFormatter.ofPattern(SystemConfig.DATETIME_FORMAT)
+                                          .withZone(ZoneId.systemDefault());
+        this.userIds = IdRegistry.users();
+        this.resourceIds = IdRegistry.documents();
+    }
+    
+    /**
+     * 渲染一条记录
+     */
+    public String render(AuditRecord record) {
+        String time = formatter.format(Instant.ofEpochMilli(record.getTimestamp()));
+        String userId = userIds.idOf(record.getUserOrdinal());
+        String resourceId = resourceIds.idOf(record.getResourceOrdinal());
+        switch (record.getKind()) {
+            case LOGIN:
+                return String.format("[%s] 登录%s | 用户: %s | IP: %s",
+                                     time, record.isSuccess() ? "成功" : "失败", userId != null ? userId : "N/A",
+                                     record.getDetails());
+            case ACCESS:
+                return String.format("[%s] 访问资源 | 用户: %s | 资源: %s | 类型: %s",
+                                     time, userId, resourceId, record.getDetails());
+            default:
+                return String.format("[%s] 用户: %s | 操作: %s | 资源: %s | 详情: %s",
+                                     time, userId, record.getOperation(),
+                                     resourceId != null ? resourceId : "N/A", record.getDetails());
+        }
+    }
+}
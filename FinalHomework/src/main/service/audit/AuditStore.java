@@ -0,0 +1,980 @@
+package main.service.audit;
+
+import main.util.GroupCommitWriter;
+import main.util.IdRegistry;
+import main.util.OrdinalMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 审计记录存储
+ * 只追加的分段存储：记录按写入顺序追加到当前段文件，段超过指定大小后封存并开启新段，每次启动也会开启新段。
+ * 每段在写入时维护三类索引，封存时写入同名 .idx 文件，重启后直接加载，不必重新扫描日志：
+ * - 稀疏时间索引：每隔固定条数记录一次（段内时间的累计最大值, 偏移）
+ * - 用户索引、资源索引：某个用户/资源在该段中每条记录的（时间, 偏移, 操作代码）
+ * 记录时间由调用方给出，并发写入时可能略有乱序，因此按累计最大时间二分定位，
+ * 并容许 clockSkewMillis 以内的乱序；按时间范围或按用户/资源查询只需对数时间定位，再按偏移读取记录。
+ *
+ * 写入方法（Sink）只由 GroupCommitWriter 的刷盘线程调用，查询可以在任意线程并发执行。
+ * 保留策略以段为单位：封存新段时（以及启动时）删除最新记录超过保留期限的段，
+ * 并在段文件总大小超过上限时从最早的段开始删除，当前写入的段不会被删除。
+ * 查询只在读锁内复制各段的长度和所需索引的视图，读取段文件在释放锁之后进行：
+ * 段文件只追加，视图中的索引项和长度以内的内容不会再改变，刷盘线程不会因查询的文件读取而阻塞。
+ */
+public class AuditStore implements GroupCommitWriter.Sink<AuditRecord> {
+    
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_MAGIC = 0x41494458; // "AIDX"
+    private static final int INDEX_VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int SCAN_CHUNK_SIZE = 64 * 1024;
+    private static final int RECORD_CHUNK_SIZE = 512;
+    
+    /**
+     * 查询结果回调
+     */
+    private interface Visitor {
+        /**
+         * @param record 已读取的记录，未读取时为null
+         * @return 是否继续
+         */
+        boolean visit(SegmentView segment, int offset, AuditRecord record) throws IOException;
+    }
+    
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final int sparseInterval;
+    private final long clockSkewMillis;
+    private final long retentionMillis;
+    private final long maxTotalBytes;
+    private final IdRegistry userIds;
+    private final IdRegistry resourceIds;
+    private final ReentrantReadWriteLock lock;
+    private final List<Segment> segments; // 按段号升序，最后一个为当前写入的段
+    
+    // 以下字段只由写入线程访问
+    private final AuditRecordCodec codec;
+    private final List<AuditRecord> pendingRecords;
+    private final List<Integer> pendingOffsets;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long written; // 当前段已写入通道的字节数
+    
+    /**
+     * 构造方法，加载已有的段并开启一个新段
+     * @param directory 存储目录
+     * @param segmentMaxBytes 单个段的最大字节数
+     * @param sparseInterval 稀疏时间索引的间隔（条）
+     * @param clockSkewMillis 容许的记录时间乱序（毫秒）
+     * @param retentionMillis 段的保留期限（毫秒），0 表示不按时间删除
+     * @param maxTotalBytes 段文件的总大小上限，0 表示不限制
+     */
+    public AuditStore(Path directory, long segmentMaxBytes, int sparseInterval,
+                      long clockSkewMillis, long retentionMillis, long maxTotalBytes) throws IOException {
+        if (segmentMaxBytes <= 0 || segmentMaxBytes > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("段大小无效: " + segmentMaxBytes);
+        }
+        this.directory = directory;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.sparseInterval = Math.max(1, sparseInterval);
+        this.clockSkewMillis = Math.max(0, clockSkewMillis);
+        this.retentionMillis = Math.max(0, retentionMillis);
+        this.maxTotalBytes = Math.max(0, maxTotalBytes);
+        this.userIds = IdRegistry.users();
+        this.resourceIds = IdRegistry.documents();
+        this.lock = new ReentrantReadWriteLock();
+        this.segments = new ArrayList<>();
+        this.codec = new AuditRecordCodec();
+        this.pendingRecords = new ArrayList<>();
+        this.pendingOffsets = new ArrayList<>();
+        this.buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        
+        Files.createDirectories(directory);
+        for (Path file : listSegmentFiles()) {
+            Segment segment = openSealed(file);
+            if (segment.recordCount > 0) {
+                segments.add(segment);
+            } else {
+                segment.closeReader();
+                Files.deleteIfExists(indexFileOf(segment));
+                Files.deleteIfExists(file);
+            }
+        }
+        int nextId = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).id + 1;
+        startSegment(nextId);
+        applyRetention();
+    }
+    
+    // ========== 写入 ==========
+    
+    @Override
+    public void write(List<AuditRecord> records) throws IOException {
+        try {
+            for (AuditRecord record : records) {
+                if (written + buffer.position() >= segmentMaxBytes) {
+                    rollSegment();
+                }
+                encode(record);
+            }
+            writeBuffer();
+        } catch (IOException e) {
+            // 缓冲区中未写出的字典记录随之丢弃，重新开始会话以便后续记录重新写入字典
+            codec.reset();
+            throw e;
+        } finally {
+            buffer.clear();
+            applyPending();
+        }
+    }
+    
+    @Override
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Segment active = segments.get(segments.size() - 1);
+            channel.force(false);
+            channel.close();
+            if (active.recordCount == 0) {
+                // 没有写入记录的段直接删除
+                segments.remove(segments.size() - 1);
+                active.closeReader();
+                Files.deleteIfExists(active.file);
+            } else {
+                writeIndex(active);
+            }
+            for (Segment segment : segments) {
+                segment.closeReader();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void encode(AuditRecord record) throws IOException {
+        while (true) {
+            int mark = buffer.position();
+            try {
+                int position = codec.encodeRecord(record, buffer);
+                pendingRecords.add(record);
+                pendingOffsets.add((int) (written + position));
+                return;
+            } catch (BufferOverflowException e) {
+                buffer.position(mark);
+                if (mark > 0) {
+                    writeBuffer();
+                } else {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                }
+            }
+        }
+    }
+    
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * 把已写入通道的记录加入当前段的索引，之后才对查询可见
+     */
+    private void applyPending() {
+        lock.writeLock().lock();
+        try {
+            Segment active = segments.get(segments.size() - 1);
+            for (int i = 0; i < pendingRecords.size(); i++) {
+                if (pendingOffsets.get(i) < written) {
+                    active.add(pendingRecords.get(i), pendingOffsets.get(i));
+                }
+            }
+            active.length = written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        pendingRecords.clear();
+        pendingOffsets.clear();
+    }
+    
+    /**
+     * 封存当前段并开启新段
+     */
+    private void rollSegment() throws IOException {
+        writeBuffer();
+        applyPending();
+        channel.force(false);
+        channel.close();
+        Segment active = segments.get(segments.size() - 1);
+        writeIndex(active);
+        startSegment(active.id + 1);
+        applyRetention();
+    }
+    
+    /**
+     * 删除超出保留期限或总大小上限的已封存段，从最早的段开始，当前写入的段不删除
+     * 正在读取被删除段的查询跳过该段
+     */
+    private void applyRetention() {
+        if (retentionMillis == 0 && maxTotalBytes == 0) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - retentionMillis;
+        List<Segment> expired = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            long total = 0;
+            for (Segment segment : segments) {
+                total += segment.length;
+            }
+            while (segments.size() > 1) {
+                Segment oldest = segments.get(0);
+                boolean tooOld = retentionMillis > 0 && oldest.maxTime < expireBefore;
+                boolean tooLarge = maxTotalBytes > 0 && total > maxTotalBytes;
+                if (!tooOld && !tooLarge) {
+                    break;
+                }
+                segments.remove(0);
+                oldest.removed = true;
+                total -= oldest.length;
+                expired.add(oldest);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Segment segment : expired) {
+            try {
+                segment.closeReader();
+                Files.deleteIfExists(indexFileOf(segment));
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                System.err.println("删除过期的审计段失败: " + segment.file + " - " + e.getMessage());
+            }
+        }
+    }
+    
+    private void startSegment(int id) throws IOException {
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        written = 0;
+        codec.reset();
+        Segment segment = new Segment(id, file, sparseInterval);
+        segment.live = true;
+        segment.openReader();
+        lock.writeLock().lock();
+        try {
+            segments.add(segment);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // ========== 查询 ==========
+    
+    /**
+     * 统计满足条件的记录数
+     */
+    public int count(AuditQuery query) {
+        int[] count = new int[1];
+        visit(query, (segment, offset, record) -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+    
+    /**
+     * 按写入顺序读取满足条件的记录
+     * @param skip 跳过的条数
+     * @param limit 最多读取的条数
+     */
+    public List<AuditRecord> find(AuditQuery query, int skip, int limit) {
+        List<AuditRecord> result = new ArrayList<>();
+        if (limit <= 0) {
+            return result;
+        }
+        int[] skipped = new int[1];
+        visit(query, (segment, offset, record) -> {
+            if (skipped[0] < skip) {
+                skipped[0]++;
+                return true;
+            }
+            result.add(record != null ? record : readRecord(segment, offset));
+            return result.size() < limit;
+        });
+        return result;
+    }
+    
+    /**
+     * 记录总数
+     */
+    public long recordCount() {
+        lock.readLock().lock();
+        try {
+            long total = 0;
+            for (Segment segment : segments) {
+                total += segment.recordCount;
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * 出现过的不同用户数
+     */
+    public int distinctUsers() {
+        lock.readLock().lock();
+        try {
+            BitSet keys = new BitSet();
+            segments.forEach(segment -> segment.byUser.forEachEntry((key, postings) -> keys.set(key)));
+            return keys.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * 出现过的不同资源数
+     */
+    public int distinctResources() {
+        lock.readLock().lock();
+        try {
+            BitSet keys = new BitSet();
+            segments.forEach(segment -> segment.byResource.forEachEntry((key, postings) -> keys.set(key)));
+            return keys.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void visit(AuditQuery query, Visitor visitor) {
+        int userKey = query.getUserId() == null ? -1 : userIds.lookup(query.getUserId());
+        int resourceKey = query.getResourceId() == null ? -1 : resourceIds.lookup(query.getResourceId());
+        if ((query.getUserId() != null && userKey < 0) || (query.getResourceId() != null && resourceKey < 0)) {
+            return;
+        }
+        
+        List<SegmentView> views = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.recordCount == 0 || segment.maxTime < query.getFrom()
+                        || segment.minTime >= query.getTo()) {
+                    continue;
+                }
+                views.add(new SegmentView(segment, userKey, resourceKey));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        
+        try {
+            for (SegmentView view : views) {
+                boolean more;
+                try {
+                    more = userKey >= 0 || resourceKey >= 0
+                            ? visitPostings(view, userKey, resourceKey, query, visitor)
+                            : visitScan(view, query, visitor);
+                } catch (ClosedChannelException e) {
+                    if (!view.segment.removed) {
+                        throw e;
+                    }
+                    continue; // 复制视图之后该段已按保留策略删除
+                }
+                if (!more) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("读取审计记录失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 通过用户/资源索引查找；同时指定两者时以用户索引为主，按偏移在资源索引中确认
+     */
+    private boolean visitPostings(SegmentView segment, int userKey, int resourceKey,
+                                  AuditQuery query, Visitor visitor) throws IOException {
+        Postings primary = userKey >= 0 ? segment.byUser : segment.byResource;
+        Postings secondary = userKey >= 0 && resourceKey >= 0 ? segment.byResource : null;
+        if (primary == null || (userKey >= 0 && resourceKey >= 0 && secondary == null)) {
+            return true;
+        }
+        byte code = query.getOperation() == null ? -1 : AuditRecord.codeOf(query.getOperation());
+        for (int i = primary.firstAtOrAfter(query.getFrom()); i < primary.size; i++) {
+            if (primary.runningMax[i] - clockSkewMillis >= query.getTo()) {
+                break;
+            }
+            long time = primary.times[i];
+            int offset = primary.offsets[i];
+            if (time < query.getFrom() || time >= query.getTo()
+                    || (code >= 0 && primary.codes[i] != code)
+                    || (secondary != null && !secondary.containsOffset(offset))) {
+                continue;
+            }
+            AuditRecord record = null;
+            if (code == AuditRecord.OTHER) {
+                // 未编码的操作只能读出名称比较
+                record = readRecord(segment, offset);
+                if (record == null || !query.getOperation().equals(record.getOperation())) {
+                    continue;
+                }
+            }
+            if (!visitor.visit(segment, offset, record)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 没有用户/资源条件时，用稀疏时间索引定位起点后顺序读取
+     */
+    private boolean visitScan(SegmentView segment, AuditQuery query, Visitor visitor) throws IOException {
+        Postings sparse = segment.sparse;
+        int start = 0;
+        if (sparse.size > 0) {
+            int i = sparse.firstAtOrAfter(query.getFrom());
+            start = sparse.offsets[Math.max(0, i - 1)];
+        }
+        byte code = query.getOperation() == null ? -1 : AuditRecord.codeOf(query.getOperation());
+        Scanner scanner = new Scanner(segment, start, SCAN_CHUNK_SIZE);
+        long runningMax = Long.MIN_VALUE;
+        AuditRecord record;
+        while ((record = scanner.next()) != null) {
+            long time = record.getTimestamp();
+            runningMax = Math.max(runningMax, time);
+            if (runningMax - clockSkewMillis >= query.getTo()) {
+                break;
+            }
+            if (time < query.getFrom() || time >= query.getTo()
+                    || (code >= 0 && record.getOperationCode() != code)
+                    || (code == AuditRecord.OTHER && !query.getOperation().equals(record.getOperation()))) {
+                continue;
+            }
+            if (!visitor.visit(segment, scanner.recordOffset, record)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private AuditRecord readRecord(SegmentView segment, int offset) throws IOException {
+        return new Scanner(segment, offset, RECORD_CHUNK_SIZE).next();
+    }
+    
+    // ========== 段文件与索引文件 ==========
+    
+    private List<Path> listSegmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+    
+    private static int segmentIdOf(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    private static Path indexFileOf(Segment segment) {
+        String name = segment.file.getFileName().toString();
+        return segment.file.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+    
+    /**
+     * 打开已封存的段：优先加载索引文件，索引缺失或损坏时扫描段文件重建（上次异常退出时的最后一段）
+     */
+    private Segment openSealed(Path file) throws IOException {
+        int id = segmentIdOf(file);
+        Segment segment = new Segment(id, file, sparseInterval);
+        Path indexFile = indexFileOf(segment);
+        boolean loaded = false;
+        if (Files.exists(indexFile)) {
+            try {
+                loaded = loadIndex(segment, indexFile);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("审计索引文件损坏，重新扫描: " + indexFile);
+            }
+        }
+        if (!loaded) {
+            segment = new Segment(id, file, sparseInterval);
+            rebuildIndex(segment);
+            writeIndex(segment);
+        }
+        segment.openReader();
+        return segment;
+    }
+    
+    /**
+     * 顺序扫描段文件重建索引，末尾不完整的记录（写入中断）被截断
+     */
+    private void rebuildIndex(Segment segment) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment.file));
+        int valid = 0;
+        try {
+            while (data.hasRemaining()) {
+                int position = data.position();
+                byte type = data.get();
+                switch (type) {
+                    case AuditRecordCodec.SESSION:
+                        break;
+                    case AuditRecordCodec.USER_ID: {
+                        int ordinal = data.getInt();
+                        segment.mapUser(ordinal, userIds.intern(AuditRecordCodec.getString(data)));
+                        break;
+                    }
+                    case AuditRecordCodec.RESOURCE_ID: {
+                        int ordinal = data.getInt();
+                        segment.mapResource(ordinal, resourceIds.intern(AuditRecordCodec.getString(data)));
+                        break;
+                    }
+                    case AuditRecordCodec.RECORD:
+                        segment.add(AuditRecordCodec.decodeRecord(data, segment::userOrdinal,
+                                                                  segment::resourceOrdinal), position);
+                        break;
+                    default:
+                        throw new IllegalStateException("未知记录类型: " + type);
+                }
+                valid = data.position();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("审计段文件末尾不完整，已截断: " + segment.file);
+        }
+        if (valid < data.limit()) {
+            try (FileChannel file = FileChannel.open(segment.file, StandardOpenOption.WRITE)) {
+                file.truncate(valid);
+            }
+        }
+        segment.length = valid;
+    }
+    
+    /**
+     * 写入段的索引文件（先写临时文件再替换）
+     * 字典保存段文件中的序号与ID的对应关系；用户/资源索引以ID为键，与本次运行的序号无关
+     */
+    private void writeIndex(Segment segment) throws IOException {
+        Path indexFile = indexFileOf(segment);
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(segment.length);
+            out.writeInt(segment.recordCount);
+            out.writeLong(segment.minTime);
+            out.writeLong(segment.maxTime);
+            writeDictionary(out, segment.userMap, userIds);
+            writeDictionary(out, segment.resourceMap, resourceIds);
+            segment.sparse.writeTo(out);
+            writePostings(out, segment.byUser, userIds);
+            writePostings(out, segment.byResource, resourceIds);
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * 加载索引文件
+     * @return 索引与段文件是否一致
+     */
+    private boolean loadIndex(Segment segment, Path indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                return false;
+            }
+            long length = in.readLong();
+            if (length != Files.size(segment.file)) {
+                return false;
+            }
+            segment.length = length;
+            segment.recordCount = in.readInt();
+            segment.minTime = in.readLong();
+            segment.maxTime = in.readLong();
+            int users= in.readInt();
+            for (int i = 0; i < users; i++) {
+                int ordinal = in.readInt();
+                segment.mapUser(ordinal, userIds.intern(in.readUTF()));
+            }
+            int resources = in.readInt();
+            for (int i = 0; i < resources; i++) {
+                int ordinal = in.readInt();
+                segment.mapResource(ordinal, resourceIds.intern(in.readUTF()));
+            }
+            segment.sparse.readFrom(in);
+            readPostings(in, segment.byUser, userIds);
+            readPostings(in, segment.byResource, resourceIds);
+            return true;
+        }
+    }
+    
+    private static void writeDictionary(DataOutputStream out, int[] map, IdRegistry ids) throws IOException {
+        int count = 0;
+        for (int ordinal : map) {
+            if (ordinal >= 0) {
+                count++;
+            }
+        }
+        out.writeInt(count);
+        for (int fileOrdinal = 0; fileOrdinal < map.length; fileOrdinal++) {
+            if (map[fileOrdinal] >= 0) {
+                out.writeInt(fileOrdinal);
+                out.writeUTF(ids.idOf(map[fileOrdinal]));
+            }
+        }
+    }
+    
+    private static void writePostings(DataOutputStream out, OrdinalMap<Postings> index,
+                                      IdRegistry ids) throws IOException {
+        out.writeInt(index.size());
+        IOException[] failure = new IOException[1];
+        index.forEachEntry((key, postings) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                out.writeUTF(ids.idOf(key));
+                postings.writeTo(out);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+    
+    private static void readPostings(DataInputStream in, OrdinalMap<Postings> index,
+                                     IdRegistry ids) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Postings postings = new Postings();
+            int key = ids.intern(in.readUTF());
+            postings.readFrom(in);
+            index.put(key, postings);
+        }
+    }
+    
+    /**
+     * 一个段及其索引
+     * 索引只在持有写锁时修改，查询时持有读锁复制 SegmentView
+     */
+    private static class Segment {
+        final int id;
+        final Path file;
+        final int sparseInterval;
+        final Postings sparse;
+        final OrdinalMap<Postings> byUser;     // 以本次运行的用户序号为键
+        final OrdinalMap<Postings> byResource; // 以本次运行的资源序号为键
+        int[] userMap;     // 段文件中的用户序号 -> 本次运行的序号
+        int[] resourceMap; // 段文件中的资源序号 -> 本次运行的序号
+        long length;
+        int recordCount;
+        long minTime;
+        long maxTime;
+        boolean live; // 本次运行写入的段
+        volatile boolean removed; // 已按保留策略删除
+        FileChannel reader;
+        
+        Segment(int id, Path file, int sparseInterval) {
+            this.id = id;
+            this.file = file;
+            this.sparseInterval = sparseInterval;
+            this.sparse = new Postings();
+            this.byUser = new OrdinalMap<>();
+            this.byResource = new OrdinalMap<>();
+            this.userMap = new int[0];
+            this.resourceMap = new int[0];
+            this.minTime = Long.MAX_VALUE;
+            this.maxTime = Long.MIN_VALUE;
+        }
+        
+        /**
+         * 加入一条记录的索引；本次运行写入的段，文件中的序号就是本次运行的序号
+         */
+        void add(AuditRecord record, int offset) {
+            long time = record.getTimestamp();
+            byte code = record.getOperationCode();
+            if (recordCount % sparseInterval == 0) {
+                sparse.add(Math.max(time, maxTime), offset, code);
+            }
+            recordCount++;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            if (record.getUserOrdinal() >= 0) {
+                byUser.computeIfAbsent(record.getUserOrdinal(), k -> new Postings()).add(time, offset, code);
+                if (live) {
+                    mapUser(record.getUserOrdinal(), record.getUserOrdinal());
+                }
+            }
+            if (record.getResourceOrdinal() >= 0) {
+                byResource.computeIfAbsent(record.getResourceOrdinal(), k -> new Postings()).add(time, offset, code);
+                if (live) {
+                    mapResource(record.getResourceOrdinal(), record.getResourceOrdinal());
+                }
+            }
+        }
+        
+        void mapUser(int fileOrdinal, int ordinal) {
+            userMap = map(userMap, fileOrdinal, ordinal);
+        }
+        
+        void mapResource(int fileOrdinal, int ordinal) {
+            resourceMap = map(resourceMap, fileOrdinal, ordinal);
+        }
+        
+        int userOrdinal(int fileOrdinal) {
+            return fileOrdinal < userMap.length ? userMap[fileOrdinal] : -1;
+        }
+        
+        int resourceOrdinal(int fileOrdinal) {
+            return fileOrdinal < resourceMap.length ? resourceMap[fileOrdinal] : -1;
+        }
+        
+        void openReader() throws IOException {
+            reader = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        
+        void closeReader() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+        
+        private static int[] map(int[] map, int fileOrdinal, int ordinal) {
+            if (fileOrdinal >= map.length) {
+                int oldLength = map.length;
+                map = Arrays.copyOf(map, Math.max(fileOrdinal + 1, oldLength * 2));
+                Arrays.fill(map, oldLength, map.length, -1);
+            }
+            map[fileOrdinal] = ordinal;
+            return map;
+        }
+    }
+    
+    /**
+     * 查询时在读锁内复制的段视图
+     * 只保存长度、字典数组和索引数组的引用，写入线程之后追加的内容不在视图范围内
+     */
+    private static class SegmentView {
+        final Segment segment;
+        final long length;
+        final int[] userMap;
+        final int[] resourceMap;
+        final Postings sparse;
+        final Postings byUser;     // 未按用户查询或该段没有此用户时为null
+        final Postings byResource; // 未按资源查询或该段没有此资源时为null
+        
+        SegmentView(Segment segment, int userKey, int resourceKey) {
+            this.segment = segment;
+            this.length = segment.length;
+            this.userMap = segment.userMap;
+            this.resourceMap = segment.resourceMap;
+            this.sparse = segment.sparse.view();
+            this.byUser = userKey >= 0 ? Postings.viewOf(segment.byUser.get(userKey)) : null;
+            this.byResource = resourceKey >= 0 ? Postings.viewOf(segment.byResource.get(resourceKey)) : null;
+        }
+        
+        int userOrdinal(int fileOrdinal) {
+            return fileOrdinal < userMap.length ? userMap[fileOrdinal] : -1;
+        }
+        
+        int resourceOrdinal(int fileOrdinal) {
+            return fileOrdinal < resourceMap.length ? resourceMap[fileOrdinal] : -1;
+        }
+    }
+    
+    /**
+     * 按偏移升序排列的索引项：时间、累计最大时间、偏移、操作代码
+     */
+    private static class Postings {
+        long[] times = new long[4];
+        long[] runningMax = new long[4];
+        int[] offsets = new int[4];
+        byte[] codes = new byte[4];
+        int size;
+        
+        void add(long time, int offset, byte code) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                runningMax = Arrays.copyOf(runningMax, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                codes = Arrays.copyOf(codes, capacity);
+            }
+            times[size] = time;
+            runningMax[size] = size == 0 ? time : Math.max(runningMax[size - 1], time);
+            offsets[size] = offset;
+            codes[size] = code;
+            size++;
+        }
+        
+        /**
+         * 第一个累计最大时间不早于 time 的位置，此前的记录都早于 time
+         */
+        int firstAtOrAfter(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (runningMax[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        /**
+         * 共享数组的只读视图，追加时数组只会扩容替换，已有的项不变
+         */
+        Postings view() {
+            Postings view = new Postings();
+            view.times = times;
+            view.runningMax = runningMax;
+            view.offsets = offsets;
+            view.codes = codes;
+            view.size = size;
+            return view;
+        }
+        
+        static Postings viewOf(Postings postings) {
+            return postings == null ? null : postings.view();
+        }
+        
+        boolean containsOffset(int offset) {
+            return Arrays.binarySearch(offsets, 0, size, offset) >= 0;
+        }
+        
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(times[i]);
+                out.writeInt(offsets[i]);
+                out.writeByte(codes[i]);
+            }
+        }
+        
+        void readFrom(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long time = in.readLong();
+                int offset = in.readInt();
+                add(time, offset, in.readByte());
+            }
+        }
+    }
+    
+    /**
+     * 从指定偏移开始顺序读取段中的记录，跳过字典和会话记录
+     */
+    private static class Scanner {
+        private final SegmentView segment;
+        private final long end;
+        private ByteBuffer buffer;
+        private long bufferStart; // 缓冲区第0个字节在文件中的偏移
+        int recordOffset;         // 最近一次返回的记录的偏移
+        
+        Scanner(SegmentView segment, long start, int chunkSize) {
+            this.segment = segment;
+            this.end = segment.length;
+            this.buffer = ByteBuffer.allocate((int) Math.max(16, Math.min(chunkSize, end - start)));
+            this.buffer.limit(0);
+            this.bufferStart = start;
+        }
+        
+        /**
+         * 读取下一条记录，没有更多记录时返回null
+         */
+        AuditRecord next() throws IOException {
+            while (true) {
+                int mark = buffer.position();
+                try {
+                    if (!buffer.hasRemaining()) {
+                        throw new BufferUnderflowException();
+                    }
+                    byte type = buffer.get();
+                    switch (type) {
+                        case AuditRecordCodec.SESSION:
+                            continue;
+                        case AuditRecordCodec.USER_ID:
+                        case AuditRecordCodec.RESOURCE_ID:
+                            buffer.getInt();
+                            AuditRecordCodec.getString(buffer);
+                            continue;
+                        case AuditRecordCodec.RECORD:
+                            AuditRecord record = AuditRecordCodec.decodeRecord(buffer, segment::userOrdinal,
+                                                                               segment::resourceOrdinal);
+                            recordOffset = (int) (bufferStart + mark);
+                            return record;
+                        default:
+                            throw new IOException("审计段文件格式错误: " + segment.segment.file);
+                    }
+                } catch (BufferUnderflowException e) {
+                    buffer.position(mark);
+                    if (!refill()) {
+                        return null;
+                    }
+                }
+            }
+        }
+        
+        /**
+         * 保留未读完的字节并继续读取文件，缓冲区放不下一条记录时扩容
+         * @return 是否读到了新数据
+         */
+        private boolean refill() throws IOException {
+            long readFrom = bufferStart + buffer.limit();
+            if (readFrom >= end) {
+                return false;
+            }
+            bufferStart += buffer.position();
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            int before = buffer.position();
+            buffer.limit((int) Math.min(buffer.capacity(), before + (end - readFrom)));
+            while (buffer.hasRemaining()) {
+                if (segment.segment.reader.read(buffer, bufferStart + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            boolean progressed = buffer.position() > before;
+            buffer.flip();
+            return progressed;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package main.service.index;
+
+import main.model.document.Document;
+import main.model.document.LoanState;
+import main.util.OrdinalMap;
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.IntConsumer;
+
+/**
+ * 到期日索引
+ * 把已借出文档的 (到期日 epochDay, 文档序号) 合成一个 long 保存在跳表中，按到期日有序。
+ * 逾期查询和到期提醒只遍历对应日期范围内的条目，代价与结果数成正比，与馆藏总数无关。
+ *
+ * 借阅状态由 Document 以 CAS 变更，索引不参与该过程；每次变更后调用 refresh，
+ * 在该文档所属的锁分段内重新读取当前状态更新索引，因此最后一次 refresh 总能反映最终状态。
+ */
+public class DueDateIndex {
+    
+    private static final int LOCK_STRIPES = 64;
+    
+    private final ConcurrentSkipListSet<Long> entries;
+    private final OrdinalMap<Long> indexedKeys; // 文档序号 -> 当前在跳表中的键
+    private final Object[] locks;
+    
+    public DueDateIndex() {
+        this.entries = new ConcurrentSkipListSet<>();
+        this.indexedKeys = new OrdinalMap<>();
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    /**
+     * 按文档当前的借阅状态更新索引
+     * @param ordinal 文档序号
+     */
+    public void refresh(int ordinal, Document document) {
+        synchronized (locks[ordinal & (LOCK_STRIPES - 1)]) {
+            LoanState loan = document.getLoanState();
+            Long key = loan.isAvailable() || loan.getDueDate() == null
+                    ? null : key(loan.getDueDate().toEpochDay(), ordinal);
+            Long previous = indexedKeys.put(ordinal, key);
+            if (previous != null && !previous.equals(key)) {
+                entries.remove(previous);
+            }
+            if (key != null) {
+                entries.add(key);
+            }
+        }
+    }
+    
+    /**
+     * 移除文档
+     */
+    public void remove(int ordinal) {
+        synchronized (locks[ordinal & (LOCK_STRIPES - 1)]) {
+            Long previous = indexedKeys.remove(ordinal);
+            if (previous != null) {
+                entries.remove(previous);
+            }
+        }
+    }
+    
+    /**
+     * 遍历到期日早于指定日期的文档（即在该日期已逾期），按到期日从早到晚
+     */
+    public void forEachDueBefore(LocalDate date, IntConsumer action) {
+        for (long key : entries.headSet(key(date.toEpochDay(), 0), false)) {
+            action.accept(ordinalOf(key));
+        }
+    }
+    
+    /**
+     * 遍历到期日在 [from, to] 之间的文档，按到期日从早到晚
+     */
+    public void forEachDueBetween(LocalDate from, LocalDate to, IntConsumer action) {
+        if (to.isBefore(from)) {
+            return;
+        }
+        for (long key : entries.subSet(key(from.toEpochDay(), 0), true,
+                                       key(to.toEpochDay() + 1, 0), false)) {
+            action.accept(ordinalOf(key));
+        }
+    }
+    
+    /**
+     * 已借出的文档数
+     */
+    public int size() {
+        return indexedKeys.size();
+    }
+    
+    // 高32位为到期日，低32位为序号（序号非负），按 long 比较即先按到期日再按序号排序
+    private static long key(long epochDay, int ordinal) {
+        return (epochDay << 32) | ordinal;
+    }
+    
+    private static int ordinalOf(long key) {
+        return (int) key;
+    }
+}
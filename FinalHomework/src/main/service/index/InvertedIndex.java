@@ -0,0 +1,318 @@
+package main.service.index;
+
+import main.model.document.Document;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * 分词倒排索引
+ * 词项 -> 文档序号倒排列表。分词规则：转小写后按非字母数字字符切分，
+ * 连续的中文字符视为一个词。查询时要求每个查询词都完整出现在字段中（分词模式），
+ * 与原有子串匹配语义不同：例如 "jav" 不能命中 "Java"。
+ *
+ * 另外提供基于 BM25 的相关度排序（topK），使用 WAND 算法按得分上界跳过不可能进入前K名的文档。
+ */
+public class InvertedIndex implements MatchEngine {
+    
+    // BM25 参数
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    
+    private final Map<SearchField, Map<String, PostingList>> postings;
+    private int[] documentLengths; // 序号 -> 全部字段的词数，已删除为-1
+    private long totalLength;      // 未删除文档的总词数
+    private int documentCount;     // 未删除的文档数
+    
+    public InvertedIndex() {
+        this.postings = new EnumMap<>(SearchField.class);
+        for (SearchField field : SearchField.values()) {
+            postings.put(field, new HashMap<>());
+        }
+        this.documentLengths = new int[16];
+        this.totalLength = 0;
+        this.documentCount = 0;
+    }
+    
+    @Override
+    public void index(int ordinal, Document document) {
+        Map<String, Integer> allTerms = new LinkedHashMap<>();
+        for (SearchField field : SearchField.singleFields()) {
+            Map<String, Integer> terms = countTerms(field.valueOf(document));
+            addPostings(field, ordinal, terms);
+            terms.forEach((term, freq) -> allTerms.merge(term, freq, Integer::sum));
+        }
+        addPostings(SearchField.ALL, ordinal, allTerms);
+        
+        int length = 0;
+        for (int freq : allTerms.values()) {
+            length += freq;
+        }
+        if (ordinal >= documentLengths.length) {
+            documentLengths = Arrays.copyOf(documentLengths, Math.max(ordinal + 1, documentLengths.length * 2));
+        }
+        documentLengths[ordinal] = length;
+        totalLength += length;
+        documentCount++;
+    }
+    
+    /**
+     * 文档删除后从 BM25 的文档数和平均长度中扣除；倒排列表只能追加，其中的序号由调用方过滤
+     */
+    public void remove(int ordinal) {
+        if (ordinal >= documentLengths.length || documentLengths[ordinal] < 0) {
+            return;
+        }
+        totalLength -= documentLengths[ordinal];
+        documentCount--;
+        documentLengths[ordinal] = -1;
+    }
+    
+    @Override
+    public void clear() {
+        for (Map<String, PostingList> termMap : postings.values()) {
+            termMap.clear();
+        }
+        totalLength = 0;
+        documentCount = 0;
+    }
+    
+    @Override
+    public int[] match(SearchField field, String query, IntPredicate accept, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new int[0];
+        }
+        
+        Map<String, PostingList> termMap = postings.get(field);
+        PostingList[] lists = new PostingList[terms.size()];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = termMap.get(terms.get(i));
+            if (lists[i] == null) {
+                return new int[0];
+            }
+        }
+        return PostingList.intersect(lists, accept, limit);
+    }
+    
+    /**
+     * 获取词项的文档频率
+     */
+    public int documentFrequency(SearchField field, String term) {
+        PostingList list = postings.get(field).get(term);
+        return list == null ? 0 : list.size();
+    }
+    
+    /**
+     * BM25 相关度排序，返回得分最高的前K个文档（全部字段）
+     * 采用 WAND：按当前文档序号排序各词的游标，累加得分上界直到超过当前第K名的得分，
+     * 该位置的文档即为下一个可能进入前K名的候选，之前的游标直接跳到候选处。
+     * @param query 查询串
+     * @param k 返回条数
+     * @param accept 序号过滤条件（权限、是否删除）
+     * @return 按得分降序排列的结果
+     */
+    public List<ScoredOrdinal> topK(String query, int k, IntPredicate accept) {
+        List<ScoredOrdinal> results = new ArrayList<>();
+        if (k <= 0 || documentCount == 0) {
+            return results;
+        }
+        
+        Map<String, PostingList> termMap = postings.get(SearchField.ALL);
+        List<TermCursor> cursorList = new ArrayList<>();
+        for (String term : new LinkedHashSet<>(tokenize(query))) {
+            PostingList list = termMap.get(term);
+            if (list != null) {
+                cursorList.add(new TermCursor(list, idf(list.size())));
+            }
+        }
+        if (cursorList.isEmpty()) {
+            return results;
+        }
+        
+        TermCursor[] cursors = cursorList.toArray(new TermCursor[0]);
+        double averageLength = Math.max(1.0, (double) totalLength / documentCount);
+        PriorityQueue<ScoredOrdinal> heap = new PriorityQueue<>(k, ScoredOrdinal::compareTo);
+        double threshold = -1;
+        
+        while (true) {
+            Arrays.sort(cursors, (a, b) -> Integer.compare(a.ordinal(), b.ordinal()));
+            
+            // 找到累计上界超过阈值的第一个游标作为枢轴
+            double upperBound = 0;
+            int pivot = -1;
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i].ordinal() == Integer.MAX_VALUE) {
+                    break;
+                }
+                upperBound += cursors[i].upperBound;
+                if (upperBound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            
+            int pivotOrdinal = cursors[pivot].ordinal();
+            if (cursors[0].ordinal() == pivotOrdinal) {
+                if (accept.test(pivotOrdinal)) {
+                    double score = 0;
+                    for (TermCursor cursor : cursors) {
+                        if (cursor.ordinal() == pivotOrdinal) {
+                            score += cursor.score(documentLengths[pivotOrdinal], averageLength);
+                        }
+                    }
+                    if (heap.size() < k) {
+                        heap.add(new ScoredOrdinal(pivotOrdinal, score));
+                    } else if (score > heap.peek().score) {
+                        heap.poll();
+                        heap.add(new ScoredOrdinal(pivotOrdinal, score));
+                    }
+                    if (heap.size() == k) {
+                        threshold = heap.peek().score;
+                    }
+                }
+                for (TermCursor cursor : cursors) {
+                    if (cursor.ordinal() == pivotOrdinal) {
+                        cursor.next();
+                    }
+                }
+            } else {
+                for (int i = 0; i < pivot; i++) {
+                    cursors[i].advance(pivotOrdinal);
+                }
+            }
+        }
+        
+        results.addAll(heap);
+        results.sort((a, b) -> b.compareTo(a));
+        return results;
+    }
+    
+    /**
+     * @param documentFrequency 倒排列表长度，可能包含已删除的文档，不超过文档数计算
+     */
+    private double idf(int documentFrequency) {
+        documentFrequency = Math.min(documentFrequency, documentCount);
+        return Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+    
+    /**
+     * WAND 使用的词项游标，附带该词的得分上界
+     */
+    private static class TermCursor {
+        private final PostingList.Cursor cursor;
+        private final double idf;
+        private final double upperBound;
+        
+        TermCursor(PostingList list, double idf) {
+            this.cursor = list.cursor();
+            this.cursor.next();
+            this.idf = idf;
+            // 文档长度为0时 tf/(tf+K) 取得最大值
+            int maxTf = list.maxFrequency();
+            this.upperBound = idf * maxTf * (K1 + 1) / (maxTf + K1 * (1 - B));
+        }
+        
+        int ordinal() {
+            return cursor.ordinal();
+        }
+        
+        void next() {
+            cursor.next();
+        }
+        
+        void advance(int target) {
+            cursor.advance(target);
+        }
+        
+        double score(int documentLength, double averageLength) {
+            int tf = cursor.frequency();
+            return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * documentLength / averageLength));
+        }
+    }
+    
+    /**
+     * 带相关度得分的文档序号
+     */
+    public static class ScoredOrdinal implements Comparable<ScoredOrdinal> {
+        private final int ordinal;
+        private final double score;
+        
+        public ScoredOrdinal(int ordinal, double score) {
+            this.ordinal = ordinal;
+            this.score = score;
+        }
+        
+        public int getOrdinal() {
+            return ordinal;
+        }
+        
+        public double getScore() {
+            return score;
+        }
+        
+        /**
+         * 得分低的排在前面；得分相同时序号大的排在前面（即序号小者优先保留）
+         */
+        @Override
+        public int compareTo(ScoredOrdinal other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Integer.compare(other.ordinal, ordinal);
+        }
+    }
+    
+    private void addPostings(SearchField field, int ordinal, Map<String, Integer> terms) {
+        Map<String, PostingList> termMap = postings.get(field);
+        for (Map.Entry<String, Integer> entry : terms.entrySet()) {
+            termMap.computeIfAbsent(entry.getKey(), k -> new PostingList())
+                   .add(ordinal, entry.getValue());
+        }
+    }
+    
+    private static Map<String, Integer> countTerms(String text) {
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        for (String term : tokenize(text)) {
+            terms.merge(term, 1, Integer::sum);
+        }
+        return terms;
+    }
+    
+    /**
+     * 分词：转小写，按非字母数字字符切分
+     * @param text 文本
+     * @return 词项列表
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i < lower.length(); i++) {
+            if (Character.isLetterOrDigit(lower.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                terms.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            terms.add(lower.substring(start));
+        }
+        return terms;
+    }
+}
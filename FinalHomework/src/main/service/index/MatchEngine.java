@@ -0,0 +1,33 @@
+package main.service.index;
+
+import main.model.document.Document;
+import java.util.function.IntPredicate;
+
+/**
+ * 匹配引擎接口
+ * SearchService 通过该接口使用不同的索引实现
+ */
+public interface MatchEngine {
+    
+    /**
+     * 将文档加入索引，序号必须大于此前加入的所有序号
+     * @param ordinal 文档序号
+     * @param document 文档
+     */
+    void index(int ordinal, Document document);
+    
+    /**
+     * 清空索引
+     */
+    void clear();
+    
+    /**
+     * 查询匹配的文档
+     * @param field 检索字段
+     * @param query 查询串
+     * @param accept 序号过滤条件（如是否已删除、是否有权限），在验证匹配之前执行
+     * @param limit 最多返回的结果数，达到后立即停止遍历
+     * @return 升序排列的匹配文档序号
+     */
+    int[] match(SearchField field, String query, IntPredicate accept, int limit);
+}
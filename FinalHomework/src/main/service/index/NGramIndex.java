@@ -0,0 +1,115 @@
+package main.service.index;
+
+import main.model.document.Document;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * 字符N元组索引
+ * 为各字段的小写文本建立单字和二元组倒排列表。子串查询先拆成相邻二元组求交集得到候选文档，
+ * 再用 toLowerCase().contains 逐个验证，因此结果与原有子串匹配完全一致，
+ * 且不依赖空白分词，适用于“Java编程思想”这类中文标题。
+ */
+public class NGramIndex implements MatchEngine {
+    
+    private final Map<SearchField, Map<Integer, PostingList>> unigrams;
+    private final Map<SearchField, Map<Integer, PostingList>> bigrams;
+    private final IntFunction<Document> documentResolver;
+    
+    /**
+     * 构造方法
+     * @param documentResolver 根据序号取回文档，用于验证候选结果
+     */
+    public NGramIndex(IntFunction<Document> documentResolver) {
+        this.unigrams = new EnumMap<>(SearchField.class);
+        this.bigrams = new EnumMap<>(SearchField.class);
+        for (SearchField field : SearchField.values()) {
+            unigrams.put(field, new HashMap<>());
+            bigrams.put(field, new HashMap<>());
+        }
+        this.documentResolver = documentResolver;
+    }
+    
+    @Override
+    public void index(int ordinal, Document document) {
+        Set<Integer> allUnigrams = new LinkedHashSet<>();
+        Set<Integer> allBigrams = new LinkedHashSet<>();
+        for (SearchField field : SearchField.singleFields()) {
+            String value = field.valueOf(document);
+            if (value == null) {
+                continue;
+            }
+            String lower = value.toLowerCase();
+            Set<Integer> fieldUnigrams = unigramsOf(lower);
+            Set<Integer> fieldBigrams = bigramsOf(lower);
+            addPostings(unigrams.get(field), ordinal, fieldUnigrams);
+            addPostings(bigrams.get(field), ordinal, fieldBigrams);
+            allUnigrams.addAll(fieldUnigrams);
+            allBigrams.addAll(fieldBigrams);
+        }
+        addPostings(unigrams.get(SearchField.ALL), ordinal, allUnigrams);
+        addPostings(bigrams.get(SearchField.ALL), ordinal, allBigrams);
+    }
+    
+    @Override
+    public void clear() {
+        for (SearchField field : SearchField.values()) {
+            unigrams.get(field).clear();
+            bigrams.get(field).clear();
+        }
+    }
+    
+    @Override
+    public int[] match(SearchField field, String query, IntPredicate accept, int limit) {
+        String lowerQuery = query.toLowerCase();
+        if (lowerQuery.isEmpty()) {
+            return new int[0];
+        }
+        
+        Set<Integer> grams = lowerQuery.length() == 1 ? unigramsOf(lowerQuery) : bigramsOf(lowerQuery);
+        Map<Integer, PostingList> gramMap = lowerQuery.length() == 1 ? unigrams.get(field) : bigrams.get(field);
+        List<PostingList> lists = new ArrayList<>(grams.size());
+        for (Integer gram : grams) {
+            PostingList list = gramMap.get(gram);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        
+        // 二元组同时出现不代表子串出现，候选结果需要验证
+        return PostingList.intersect(lists.toArray(new PostingList[0]),
+                ordinal -> accept.test(ordinal)
+                        && field.contains(documentResolver.apply(ordinal), lowerQuery),
+                limit);
+    }
+    
+    private static void addPostings(Map<Integer, PostingList> gramMap, int ordinal, Set<Integer> grams) {
+        for (Integer gram : grams) {
+            gramMap.computeIfAbsent(gram, k -> new PostingList()).add(ordinal, 1);
+        }
+    }
+    
+    private static Set<Integer> unigramsOf(String lower) {
+        Set<Integer> grams = new LinkedHashSet<>();
+        for (int i = 0; i < lower.length(); i++) {
+            grams.add((int) lower.charAt(i));
+        }
+        return grams;
+    }
+    
+    private static Set<Integer> bigramsOf(String lower) {
+        Set<Integer> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 1 < lower.length(); i++) {
+            grams.add((lower.charAt(i) << 16) | lower.charAt(i + 1));
+        }
+        return grams;
+    }
+}
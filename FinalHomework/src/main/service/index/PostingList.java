@@ -0,0 +1,219 @@
+package main.service.index;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * 倒排列表
+ * 按文档序号升序保存命中的文档及词频，只允许追加。
+ * 序号存为与前一条的差值，差值和词频均用变长字节编码；每 BLOCK_SIZE 条为一块，
+ * 块首序号和字节偏移另存为跳表，游标可按块跳过不相关的记录。
+ */
+public class PostingList {
+    
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private byte[] data;
+    private int dataLength;
+    private int[] blockOrdinals; // 每块第一条记录的序号
+    private int[] blockOffsets;  // 每块第一条记录在 data 中的偏移
+    private int size;
+    private int lastOrdinal;
+    private int maxFrequency;
+    
+    public PostingList() {
+        this.data = new byte[INITIAL_CAPACITY];
+        this.dataLength = 0;
+        this.blockOrdinals = new int[1];
+        this.blockOffsets = new int[1];
+        this.size = 0;
+        this.lastOrdinal = -1;
+    }
+    
+    /**
+     * 追加一条记录，序号必须大于已有的最大序号
+     * @param ordinal 文档序号
+     * @param frequency 词频
+     */
+    public void add(int ordinal, int frequency) {
+        if (ordinal <= lastOrdinal) {
+            throw new IllegalArgumentException("倒排列表序号必须递增: " + ordinal);
+        }
+        if ((size & (BLOCK_SIZE - 1)) == 0) {
+            // 块首记录的序号保存在跳表中，字节流里只写词频
+            int block = size >>> BLOCK_SHIFT;
+            if (block == blockOrdinals.length) {
+                blockOrdinals = Arrays.copyOf(blockOrdinals, block * 2);
+                blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+            }
+            blockOrdinals[block] = ordinal;
+            blockOffsets[block] = dataLength;
+        } else {
+            writeVarInt(ordinal - lastOrdinal);
+        }
+        writeVarInt(frequency);
+        lastOrdinal = ordinal;
+        size++;
+        maxFrequency = Math.max(maxFrequency, frequency);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * 列表中最大的词频，用于计算得分上界
+     */
+    public int maxFrequency() {
+        return maxFrequency;
+    }
+    
+    /**
+     * 创建遍历游标
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    /**
+     * 多路倒排列表求交集（从最短的列表开始跳跃式前移）
+     * @param lists 倒排列表
+     * @param accept 序号过滤条件
+     * @param limit 最多返回的结果数
+     * @return 升序排列的交集序号
+     */
+    public static int[] intersect(PostingList[] lists, IntPredicate accept, int limit) {
+        PostingList[] sorted = lists.clone();
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.size(), b.size()));
+        Cursor[] cursors = new Cursor[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            cursors[i] = sorted[i].cursor();
+        }
+        
+        int[] result = new int[Math.min(sorted[0].size(), limit)];
+        int count = 0;
+        int candidate = cursors[0].next();
+        while (candidate != Integer.MAX_VALUE && count < limit) {
+            int i = 1;
+            for (; i < cursors.length; i++) {
+                int ordinal = cursors[i].advance(candidate);
+                if (ordinal != candidate) {
+                    candidate = cursors[0].advance(ordinal);
+                    break;
+                }
+            }
+            if (i == cursors.length) {
+                if (accept.test(candidate)) {
+                    result[count++] = candidate;
+                }
+                candidate = cursors[0].next();
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+    
+    private void writeVarInt(int value) {
+        if (dataLength + 5 > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + 5));
+        }
+        while ((value & ~0x7F) != 0) {
+            data[dataLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[dataLength++] = (byte) value;
+    }
+    
+    /**
+     * 倒排列表游标
+     * 初始位于第一条记录之前，依次调用 next/advance 前移
+     */
+    public class Cursor {
+        private int position = -1;
+        private int offset;
+        private int ordinal = -1;
+        private int frequency;
+        
+        /**
+         * 当前文档序号，遍历结束时返回 Integer.MAX_VALUE
+         */
+        public int ordinal() {
+            return ordinal;
+        }
+        
+        /**
+         * 当前记录的词频
+         */
+        public int frequency() {
+            return frequency;
+        }
+        
+        /**
+         * 前移到下一条记录
+         * @return 新位置的文档序号
+         */
+        public int next() {
+            if (position >= size - 1) {
+                position = size;
+                ordinal = Integer.MAX_VALUE;
+                return ordinal;
+            }
+            position++;
+            if ((position & (BLOCK_SIZE - 1)) == 0) {
+                int block = position >>> BLOCK_SHIFT;
+                ordinal = blockOrdinals[block];
+                offset = blockOffsets[block];
+            } else {
+                ordinal += readVarInt();
+            }
+            frequency = readVarInt();
+            return ordinal;
+        }
+        
+        /**
+         * 前移到第一条序号不小于 target 的记录（先在跳表中二分定位块，再在块内顺序解码）
+         * @param target 目标序号
+         * @return 新位置的文档序号
+         */
+        public int advance(int target) {
+            if (position >= 0 && ordinal >= target) {
+                return ordinal;
+            }
+            int blockCount = (size + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+            int currentBlock = Math.max(position, 0) >>> BLOCK_SHIFT;
+            // 找到块首序号不大于 target 的最后一块
+            int low = currentBlock + 1;
+            int high = blockCount - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (blockOrdinals[mid] <= target) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (found >= 0) {
+                position = (found << BLOCK_SHIFT) - 1;
+            }
+            while (next() < target) {
+                // 块内顺序解码
+            }
+            return ordinal;
+        }
+        
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package main.service.index;
+
+import main.model.document.Document;
+
+/**
+ * 可检索字段
+ * 与 Document.matches 使用的字段保持一致，ALL 表示任意字段
+ */
+public enum SearchField {
+    TITLE,
+    AUTHOR,
+    CATEGORY,
+    DESCRIPTION,
+    ALL;
+    
+    private static final SearchField[] SINGLE_FIELDS = {TITLE, AUTHOR, CATEGORY, DESCRIPTION};
+    
+    /**
+     * 获取所有单一字段（不含ALL）
+     */
+    public static SearchField[] singleFields() {
+        return SINGLE_FIELDS.clone();
+    }
+    
+    /**
+     * 提取文档中该字段的原始文本
+     * @param document 文档
+     * @return 字段文本，ALL 返回 null
+     */
+    public String valueOf(Document document) {
+        switch (this) {
+            case TITLE:
+                return document.getTitle();
+            case AUTHOR:
+                return document.getAuthor();
+            case CATEGORY:
+                return document.getCategory();
+            case DESCRIPTION:
+                return document.getDescription();
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * 子串匹配（与原有 toLowerCase().contains 语义一致）
+     * @param document 文档
+     * @param lowerQuery 已转为小写的查询串
+     * @return 是否匹配
+     */
+    public boolean contains(Document document, String lowerQuery) {
+        if (this == ALL) {
+            for (SearchField field : SINGLE_FIELDS) {
+                if (field.contains(document, lowerQuery)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String value = valueOf(document);
+        return value != null && value.toLowerCase().contains(lowerQuery);
+    }
+}
@@ -0,0 +1,177 @@
+package main.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 紧凑二进制读取器，读取 BinaryWriter 写入的内容
+ * 直接读取字节数组的一段，读到段末尾之后再读取时抛出 EOFException。
+ */
+public class BinaryReader {
+    
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+    private List<String> sharedStrings; // 按编号排列，未启用时为null
+    
+    public BinaryReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+    
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+    
+    public int readByte() throws IOException {
+        require(1);
+        return buffer[position++];
+    }
+    
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+    
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+    
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+    
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    public long readSignedVarLong() throws IOException {
+        return unzigzag(readVarLong());
+    }
+    
+    public String readString() throws IOException {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        require(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+    
+    public String readSharedString() throws IOException {
+        int value = readVarInt();
+        if (value == 0) {
+            return null;
+        }
+        if ((value & 1) != 0) {
+            int id = value >>> 1;
+            if (sharedStrings == null || id >= sharedStrings.size()) {
+                throw new IOException("字符串编号错误: " + id);
+            }
+            return sharedStrings.get(id);
+        }
+        int length = (value >>> 1) - 1;
+        require(length);
+        String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return result;
+    }
+    
+    /**
+     * 启用字符串表，须与写入方一致
+     */
+    public void enableSharedStrings() {
+        this.sharedStrings = new ArrayList<>();
+    }
+    
+    /**
+     * 读取 BinaryWriter.writeNewSharedStrings 写出的字符串，按顺序加入字符串表
+     */
+    public void readSharedStringDefinitions() throws IOException {
+        int count = readVarInt();
+        if (count > 0 && sharedStrings == null) {
+            throw new IOException("未启用字符串表");
+        }
+        for (int i = 0; i < count; i++) {
+            sharedStrings.add(readString());
+        }
+    }
+    
+    public LocalDate readDate() throws IOException {
+        long value = readVarLong();
+        return value == 0 ? null : LocalDate.ofEpochDay(unzigzag(value - 1));
+    }
+    
+    public LocalDateTime readDateTime() throws IOException {
+        long value = readVarLong();
+        if (value == 0) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(unzigzag(value - 1), readVarInt(), ZoneOffset.UTC);
+    }
+    
+    /**
+     * 读取 变长(长度) + 内容 形式的记录
+     * @return 只能读取该记录内容的读取器；本读取器跳过整条记录
+     */
+    public BinaryReader readRecord() throws IOException {
+        int length = readVarInt();
+        if (length < 0) {
+            throw new IOException("记录长度错误: " + length);
+        }
+        require(length);
+        BinaryReader record = new BinaryReader(buffer, position, length);
+        record.sharedStrings = sharedStrings;
+        position += length;
+        return record;
+    }
+    
+    /**
+     * 当前读取位置（在字节数组中的下标）
+     */
+    public int getPosition() {
+        return position;
+    }
+    
+    /**
+     * 是否还有未读取的内容；旧版本写入的记录没有后来新增的字段，读取新增字段前先检查
+     */
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+    
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private void require(int length) throws IOException {
+        if (length > limit - position) {
+            throw new EOFException("数据不完整");
+        }
+    }
+}
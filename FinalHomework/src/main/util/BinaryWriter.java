@@ -0,0 +1,205 @@
+package main.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 紧凑二进制写入器
+ * 写入到可增长的内存缓冲区，可反复 reset 复用。
+ *
+ * 编码规则：
+ * - 整数为变长编码（每字节7位，最高位表示后面还有字节），有符号数先做 zigzag 变换
+ * - 字符串为 变长(UTF-8 字节数 + 1) + UTF-8 字节，null 写为0
+ * - 日期为 变长(zigzag(纪元日) + 1)，null 写为0
+ * - 日期时间为 变长(zigzag(UTC 纪元秒) + 1) + 变长(纳秒)，null 写为0
+ * - 共享字符串（重复出现的值和ID引用）为 变长(编号 * 2 + 1)，未启用字符串表、表已满时为 变长((UTF-8 字节数 + 1) * 2) + 字节，
+ *   null 写为0；新加入字符串表的字符串由调用方通过 writeNewSharedStrings 写在记录之外
+ */
+public class BinaryWriter {
+    
+    private static final int INITIAL_CAPACITY = 256;
+    
+    private byte[] buffer;
+    private int size;
+    private Map<String, Integer> sharedStrings; // 字符串 -> 编号，未启用时为null
+    private List<String> newSharedStrings;      // 尚未写出定义的字符串
+    private int maxSharedStrings;
+    
+    public BinaryWriter() {
+        this(INITIAL_CAPACITY);
+    }
+    
+    public BinaryWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+        this.size = 0;
+    }
+    
+    public BinaryWriter writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+        return this;
+    }
+    
+    public BinaryWriter writeBoolean(boolean value) {
+        return writeByte(value ? 1 : 0);
+    }
+    
+    /**
+     * 写入无符号变长整数（负数按无符号处理，占5字节）
+     */
+    public BinaryWriter writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+        return this;
+    }
+    
+    public BinaryWriter writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+        return this;
+    }
+    
+    /**
+     * 写入有符号整数，绝对值小的负数也只占很少字节
+     */
+    public BinaryWriter writeSignedVarInt(int value) {
+        return writeVarInt((value << 1) ^ (value >> 31));
+    }
+    
+    public BinaryWriter writeSignedVarLong(long value) {
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+    
+    public BinaryWriter writeString(String value) {
+        if (value == null) {
+            return writeVarInt(0);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        return writeBytes(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * 写入可能重复出现的字符串，启用字符串表后重复的值只写编号
+     */
+    public BinaryWriter writeSharedString(String value) {
+        if (value == null) {
+            return writeVarInt(0);
+        }
+        if (sharedStrings != null) {
+            Integer id = sharedStrings.get(value);
+            if (id == null && sharedStrings.size() < maxSharedStrings) {
+                id = sharedStrings.size();
+                sharedStrings.put(value, id);
+                newSharedStrings.add(value);
+            }
+            if (id != null) {
+                return writeVarInt((id << 1) | 1);
+            }
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt((bytes.length + 1) << 1);
+        return writeBytes(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * 启用字符串表，之后写入的共享字符串按首次出现的顺序编号
+     * @param maxEntries 字符串表的最大条数，超过后新的字符串直接写入内容
+     */
+    public void enableSharedStrings(int maxEntries) {
+        this.sharedStrings = new HashMap<>();
+        this.newSharedStrings = new ArrayList<>();
+        this.maxSharedStrings = maxEntries;
+    }
+    
+    /**
+     * 把上次调用之后新加入字符串表的字符串写到 out：数量(变长) + 字符串
+     * 读取方须在读取引用它们的内容之前读取（BinaryReader.readSharedStringDefinitions）
+     */
+    public void writeNewSharedStrings(BinaryWriter out) {
+        int count = newSharedStrings == null ? 0 : newSharedStrings.size();
+        out.writeVarInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeString(newSharedStrings.get(i));
+        }
+        if (count > 0) {
+            newSharedStrings.clear();
+        }
+    }
+    
+    public BinaryWriter writeDate(LocalDate value) {
+        if (value == null) {
+            return writeVarLong(0);
+        }
+        return writeVarLong(zigzag(value.toEpochDay()) + 1);
+    }
+    
+    public BinaryWriter writeDateTime(LocalDateTime value) {
+        if (value == null) {
+            return writeVarLong(0);
+        }
+        writeVarLong(zigzag(value.toEpochSecond(ZoneOffset.UTC)) + 1);
+        return writeVarInt(value.getNano());
+    }
+    
+    public BinaryWriter writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+    
+    /**
+     * 写入 变长(长度) + 另一个写入器的全部内容，用于长度前缀的记录
+     */
+    public BinaryWriter writeRecord(BinaryWriter record) {
+        writeVarInt(record.size);
+        return writeBytes(record.buffer, 0, record.size);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void reset() {
+        size = 0;
+    }
+    
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+    
+    /**
+     * 把缓冲区内容写到输出流，不清空缓冲区
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+    
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -2,14 +2,25 @@ package main.util;
 
 import main.model.user.User;
 import main.model.document.Document;
+import main.model.document.LoanState;
 import main.model.system.SystemConfig;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * 数据持久化工具类
  * 处理数据的序列化存储和读取
+ *
+ * 用户、文档和快照以 ModelCodec 的二进制格式保存；读取时仍兼容旧版本以 Java 序列化保存的文件，
+ * 下次保存即转换为二进制格式。
  */
 public class DataPersistenceUtil {
     
@@ -21,9 +32,8 @@ public class DataPersistenceUtil {
             // 确保数据目录存在
             createDataDirectory();
             
-            try (ObjectOutputStream oos = new ObjectOutputStream(
-                    new FileOutputStream(SystemConfig.USERS_FILE))) {
-                oos.writeObject(users);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(SystemConfig.USERS_FILE))) {
+                ModelCodec.writeUsers(out, users);
                 System.out.println("用户数据保存成功：" + users.size() + " 个用户");
                 return true;
             }
@@ -44,12 +54,19 @@ public class DataPersistenceUtil {
             return new ArrayList<>();
         }
         
-        try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(SystemConfig.USERS_FILE))) {
-            List<User> users = (List<User>) ois.readObject();
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            List<User> users;
+            if (ModelCodec.isJavaSerialized(data)) {
+                try (ObjectInputStream ois = ModelCodec.openJavaSerialized(new ByteArrayInputStream(data))) {
+                    users = (List<User>) ois.readObject();
+                }
+            } else {
+                users = ModelCodec.readUsers(data);
+            }
             System.out.println("用户数据加载成功：" + users.size() + " 个用户");
             return users;
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
             System.err.println("加载用户数据失败：" + e.getMessage());
             return new ArrayList<>();
         }
@@ -62,9 +79,8 @@ public class DataPersistenceUtil {
         try {
             createDataDirectory();
             
-            try (ObjectOutputStream oos = new ObjectOutputStream(
-                    new FileOutputStream(SystemConfig.DOCUMENTS_FILE))) {
-                oos.writeObject(documents);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(SystemConfig.DOCUMENTS_FILE))) {
+                ModelCodec.writeDocuments(out, documents);
                 System.out.println("文档数据保存成功：" + documents.size() + " 个文档");
                 return true;
             }
@@ -76,26 +92,128 @@ public class DataPersistenceUtil {
     
     /**
      * 从文件读取文档数据
+     * @param users 已加载的用户，文档的借阅者按用户ID关联到其中的用户对象
      */
     @SuppressWarnings("unchecked")
-    public static List<Document> loadDocuments() {
+    public static List<Document> loadDocuments(List<User> users) {
         File file = new File(SystemConfig.DOCUMENTS_FILE);
         if (!file.exists()) {
             System.out.println("文档数据文件不存在，返回空列表");
             return new ArrayList<>();
         }
         
-        try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(SystemConfig.DOCUMENTS_FILE))) {
-            List<Document> documents = (List<Document>) ois.readObject();
+        Function<String, User> borrowers = byId(users);
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            List<Document> documents;
+            if (ModelCodec.isJavaSerialized(data)) {
+                try (ObjectInputStream ois = ModelCodec.openJavaSerialized(new ByteArrayInputStream(data))) {
+                    documents = (List<Document>) ois.readObject();
+                }
+                rebindBorrowers(documents, borrowers);
+            } else {
+                documents = ModelCodec.readDocuments(data, borrowers);
+            }
             System.out.println("文档数据加载成功：" + documents.size() + " 个文档");
             return documents;
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
             System.err.println("加载文档数据失败：" + e.getMessage());
             return new ArrayList<>();
         }
     }
     
+    /**
+     * 保存快照：用户和文档写入同一个文件（借阅者以用户ID引用），并记录快照对应的日志序号
+     * 先写临时文件并刷盘，再原子替换旧快照，崩溃时旧快照保持完整
+     */
+    public static boolean saveSnapshot(Snapshot snapshot) {
+        createDataDirectory();
+        Path target = Paths.get(SystemConfig.SNAPSHOT_FILE);
+        Path temp = Paths.get(SystemConfig.SNAPSHOT_FILE + ".tmp");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+                 OutputStream out = new BufferedOutputStream(fos)) {
+                ModelCodec.writeSnapshot(out, snapshot);
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println(String.format("快照保存成功：%d 个用户，%d 个文档，日志序号 %d",
+                                             snapshot.getUsers().size(), snapshot.getDocuments().size(),
+                                             snapshot.getLsn()));
+            return true;
+        } catch (IOException e) {
+            System.err.println("保存快照失败：" + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 读取快照；快照文件不存在时读取 users.dat 和 documents.dat，日志序号为0
+     */
+    @SuppressWarnings("unchecked")
+    public static Snapshot loadSnapshot() {
+        File file = new File(SystemConfig.SNAPSHOT_FILE);
+        if (!file.exists()) {
+            return loadDataFiles();
+        }
+        
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            Snapshot snapshot;
+            if (ModelCodec.isJavaSerialized(data)) {
+                try (ObjectInputStream ois = ModelCodec.openJavaSerialized(new ByteArrayInputStream(data))) {
+                    long lsn = ois.readLong();
+                    // 旧格式快照在同一个对象流中，借阅者与用户已是同一对象
+                    List<User> users = (List<User>) ois.readObject();
+                    List<Document> documents = (List<Document>) ois.readObject();
+                    snapshot = new Snapshot(lsn, users, documents);
+                }
+            } else {
+                snapshot = ModelCodec.readSnapshot(data);
+            }
+            System.out.println(String.format("快照加载成功：%d 个用户，%d 个文档，日志序号 %d",
+                                             snapshot.getUsers().size(), snapshot.getDocuments().size(),
+                                             snapshot.getLsn()));
+            return snapshot;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.err.println("加载快照失败：" + e.getMessage());
+            return loadDataFiles();
+        }
+    }
+    
+    /**
+     * 读取 users.dat 和 documents.dat，日志序号为0
+     */
+    private static Snapshot loadDataFiles() {
+        List<User> users = loadUsers();
+        return new Snapshot(0, users, loadDocuments(users));
+    }
+    
+    private static Function<String, User> byId(List<User> users) {
+        Map<String, User> map = new HashMap<>();
+        for (User user : users) {
+            map.put(user.getUserId(), user);
+        }
+        return map::get;
+    }
+    
+    /**
+     * 旧格式的用户文件和文档文件分别反序列化，文档中的借阅者是另一份用户对象，改为指向已加载的用户
+     */
+    private static void rebindBorrowers(List<Document> documents, Function<String, User> users) {
+        for (Document document : documents) {
+            LoanState loan = document.getLoanState();
+            if (loan.isAvailable()) {
+                continue;
+            }
+            User borrower = users.apply(loan.getBorrower().getUserId());
+            if (borrower != null) {
+                document.restoreLoanState(LoanState.borrowed(borrower, loan.getBorrowDate(), loan.getDueDate()));
+            }
+        }
+    }
+    
     /**
      * 保存单个对象到文件
      */
@@ -237,6 +355,11 @@ public class DataPersistenceUtil {
                                    documentsFile.exists() ? "存在" : "不存在",
                                    documentsFile.exists() ? formatFileSize(documentsFile.length()) : "0 B"));
         
+        File snapshotFile = new File(SystemConfig.SNAPSHOT_FILE);
+        status.append(String.format("- 快照文件: %s (%s)\n", 
+                                   snapshotFile.exists() ? "存在" : "不存在",
+                                   snapshotFile.exists() ? formatFileSize(snapshotFile.length()) : "0 B"));
+        
         File logsFile = new File(SystemConfig.LOGS_FILE);
         status.append(String.format("- 系统日志文件: %s (%s)\n", 
                                    logsFile.exists() ? "存在" : "不存在",
@@ -254,4 +377,34 @@ public class DataPersistenceUtil {
         String pre = "KMGTPE".charAt(exp - 1) + "";
         return String.format("%.1f %sB", bytes / Math.pow(1024, exp), pre);
     }
+    
+    /**
+     * 快照：某个日志序号时的全部用户和文档
+     */
+    public static class Snapshot {
+        private final long lsn;
+        private final List<User> users;
+        private final List<Document> documents;
+        
+        public Snapshot(long lsn, List<User> users, List<Document> documents) {
+            this.lsn = lsn;
+            this.users = users;
+            this.documents = documents;
+        }
+        
+        /**
+         * 快照包含序号不大于此值的全部日志记录
+         */
+        public long getLsn() {
+            return lsn;
+        }
+        
+        public List<User> getUsers() {
+            return users;
+        }
+        
+        public List<Document> getDocuments() {
+            return documents;
+        }
+    }
 }
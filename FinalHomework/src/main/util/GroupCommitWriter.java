@@ -0,0 +1,370 @@
+package main.util;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 组提交写入器
+ * 多个生产线程把记录放入有界队列，由一个后台线程批量取出并交给 Sink 写入（默认追加到长期打开的文件通道）。
+ * 累计写入一定条数或距上次刷盘超过一定时间后执行一次 fsync，多条记录共享一次刷盘。
+ * 队列满时 append 阻塞，形成背压。
+ *
+ * 生产线程持有读锁检查关闭标志并入队，close 持有写锁设置关闭标志，
+ * 因此停止标记之后不会再有记录入队；刷盘线程退出后队列中若仍有剩余项，其 Future 以异常完成。
+ * 入队和已刷盘的记录数分别计数，两者相等时 flush 直接返回，频繁调用 flush 的读取方不必每次等待刷盘线程。
+ */
+public class GroupCommitWriter<T> implements AutoCloseable {
+    
+    /**
+     * 记录编码器，把一条记录写入缓冲区；空间不足时抛出 BufferOverflowException，写入器会扩容后重试
+     */
+    public interface Encoder<T> {
+        void encode(T record, ByteBuffer buffer);
+    }
+    
+    /**
+     * 写入目标，所有方法都只在刷盘线程中调用
+     */
+    public interface Sink<T> {
+        /**
+         * 写入一批记录（不要求落盘）
+         */
+        void write(List<T> records) throws IOException;
+        
+        /**
+         * 把已写入的记录刷到磁盘
+         */
+        void sync() throws IOException;
+        
+        void close() throws IOException;
+    }
+    
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    
+    private final String name;
+    private final Sink<T> sink;
+    private final BlockingQueue<Pending<T>> queue;
+    private final int batchSize;
+    private final long syncIntervalMillis;
+    private final Thread flusher;
+    private final ReadWriteLock closeLock;
+    private final AtomicLong appendedCount; // 已入队的记录数
+    private volatile long syncedCount;      // 已刷盘的记录数，只由刷盘线程修改
+    private volatile boolean closed;
+    
+    /**
+     * 构造方法
+     * @param path 目标文件，以追加方式打开
+     * @param encoder 记录编码器
+     * @param queueCapacity 队列容量
+     * @param batchSize 累计多少条记录后刷盘
+     * @param syncIntervalMillis 最长刷盘间隔（毫秒）
+     */
+    public GroupCommitWriter(Path path, Encoder<T> encoder, int queueCapacity,
+                             int batchSize, long syncIntervalMillis) throws IOException {
+        this(path.getFileName().toString(), new FileSink<>(path, encoder),
+             queueCapacity, batchSize, syncIntervalMillis);
+    }
+    
+    /**
+     * 构造方法
+     * @param name 写入器名称，用于线程名和错误信息
+     * @param sink 写入目标
+     * @param queueCapacity 队列容量
+     * @param batchSize 累计多少条记录后刷盘
+     * @param syncIntervalMillis 最长刷盘间隔（毫秒）
+     */
+    public GroupCommitWriter(String name, Sink<T> sink, int queueCapacity,
+                             int batchSize, long syncIntervalMillis) {
+        this.name = name;
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.closeLock = new ReentrantReadWriteLock();
+        this.appendedCount = new AtomicLong();
+        this.flusher = new Thread(this::runFlusher, "group-commit-" + name);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+    
+    /**
+     * 追加一条记录，不等待落盘；队列满时阻塞
+     */
+    public void append(T record) {
+        enqueue(new Pending<>(record, null));
+    }
+    
+    /**
+     * 追加一条记录并在其落盘后完成返回的 Future
+     */
+    public CompletableFuture<Void> appendAndSync(T record) {
+        CompletableFuture<Void> synced = new CompletableFuture<>();
+        enqueue(new Pending<>(record, synced));
+        return synced;
+    }
+    
+    /**
+     * 等待此前追加的所有记录写入并刷盘
+     */
+    public void flush() {
+        if (syncedCount == appendedCount.get()) {
+            return;
+        }
+        CompletableFuture<Void> synced = new CompletableFuture<>();
+        if (!tryEnqueue(new Pending<>(null, synced))) {
+            return;
+        }
+        try {
+            synced.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("刷新日志文件失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 写入剩余记录、刷盘并关闭文件
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            // 不能中断刷盘线程，否则文件通道会被关闭；放入停止标记让其写完剩余记录后退出
+            queue.put(new Pending<>(null, null));
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+            if (!flusher.isAlive()) {
+                failRemaining();
+            }
+            sink.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("关闭日志文件失败: " + e.getMessage());
+        }
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * 当前排队等待写入的记录数
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+    
+    private void enqueue(Pending<T> pending) {
+        if (!tryEnqueue(pending)) {
+            throw new IllegalStateException("写入器已关闭: " + name);
+        }
+    }
+    
+    /**
+     * 入队；队列满时阻塞（不阻止其他生产线程入队，close 会等待这些线程入队完成）
+     * @return 写入器已关闭时返回false
+     */
+    private boolean tryEnqueue(Pending<T> pending) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            // 先计数再入队：已刷盘的记录都已计数，两个计数相等即说明已计数的记录都已刷盘
+            if (pending.record != null) {
+                appendedCount.incrementAndGet();
+            }
+            queue.put(pending);
+            return true;
+        } catch (InterruptedException e) {
+            if (pending.record != null) {
+                appendedCount.decrementAndGet();
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("写入日志被中断", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * 刷盘线程已退出，剩余项不会再被处理，等待它们的调用方以异常结束
+     */
+    private void failRemaining() {
+        List<Pending<T>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        IllegalStateException closedError = new IllegalStateException("写入器已关闭: " + name);
+        for (Pending<T> pending : remaining) {
+            if (pending.synced != null) {
+                pending.synced.completeExceptionally(closedError);
+            }
+        }
+    }
+    
+    /**
+     * 刷盘线程主循环
+     */
+    private void runFlusher() {
+        List<Pending<T>> batch = new ArrayList<>(batchSize);
+        List<T> records = new ArrayList<>(batchSize);
+        List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        int unsynced = 0;
+        long written = 0;
+        long lastSync = System.currentTimeMillis();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Pending<T> first = queue.poll(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            
+            try {
+                for (Pending<T> pending : batch) {
+                    if (pending.isStop()) {
+                        stopping = true;
+                    } else if (pending.record != null) {
+                        records.add(pending.record);
+                    }
+                    if (pending.synced != null) {
+                        waiting.add(pending.synced);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    sink.write(records);
+                    unsynced += records.size();
+                    written += records.size();
+                }
+                
+                long now = System.currentTimeMillis();
+                boolean due = unsynced >= batchSize || (unsynced > 0 && now - lastSync >= syncIntervalMillis);
+                if (due || stopping || !waiting.isEmpty()) {
+                    if (unsynced > 0) {
+                        sink.sync();
+                    }
+                    syncedCount = written;
+                    unsynced = 0;
+                    lastSync = now;
+                    waiting.forEach(future -> future.complete(null));
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("写入日志文件失败: " + e.getMessage());
+                waiting.forEach(future -> future.completeExceptionally(e));
+            }
+            waiting.clear();
+            records.clear();
+            batch.clear();
+        }
+    }
+    
+    /**
+     * 默认写入目标：用编码器把记录编码到复用的缓冲区，再追加到文件
+     */
+    private static class FileSink<T> implements Sink<T> {
+        private final Encoder<T> encoder;
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        
+        FileSink(Path path, Encoder<T> encoder) throws IOException {
+            this.encoder = encoder;
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+        
+        @Override
+        public void write(List<T> records) throws IOException {
+            try {
+                for (T record : records) {
+                    encode(record);
+                }
+                writeBuffer();
+            } finally {
+                buffer.clear();
+            }
+        }
+        
+        @Override
+        public void sync() throws IOException {
+            channel.force(false);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+        
+        private void encode(T record) throws IOException {
+            while (true) {
+                int mark = buffer.position();
+                try {
+                    encoder.encode(record, buffer);
+                    return;
+                } catch (BufferOverflowException e) {
+                    buffer.position(mark);
+                    if (mark > 0) {
+                        writeBuffer();
+                    } else {
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    }
+                }
+            }
+        }
+        
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+    
+    /**
+     * 队列中的一项；record 为null表示仅请求刷盘，两者都为null表示停止
+     */
+    private static class Pending<T> {
+        final T record;
+        final CompletableFuture<Void> synced;
+        
+        Pending(T record, CompletableFuture<Void> synced) {
+            this.record = record;
+            this.synced = synced;
+        }
+        
+        boolean isStop() {
+            return record == null && synced == null;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package main.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 标识符注册表
+ * 将文档ID、用户ID等字符串映射为从0开始连续分配的整数序号，序号一经分配不再改变。
+ * 各服务以序号作为数组下标或 OrdinalMap 的键，避免字符串键的重复哈希与装箱。
+ * 内部使用开放寻址哈希表，读操作为乐观读，不阻塞。
+ */
+public class IdRegistry {
+    
+    private static final IdRegistry DOCUMENTS = new IdRegistry();
+    private static final IdRegistry USERS = new IdRegistry();
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private final StampedLock lock;
+    private volatile Table table;
+    private String[] ids; // 序号 -> ID
+    private volatile int size;
+    
+    public IdRegistry() {
+        this.lock = new StampedLock();
+        this.table = new Table(INITIAL_CAPACITY);
+        this.ids = new String[INITIAL_CAPACITY / 2];
+        this.size = 0;
+    }
+    
+    /**
+     * 文档ID注册表（审计中的资源ID也使用该注册表）
+     */
+    public static IdRegistry documents() {
+        return DOCUMENTS;
+    }
+    
+    /**
+     * 用户ID注册表
+     */
+    public static IdRegistry users() {
+        return USERS;
+    }
+    
+    /**
+     * 查找ID对应的序号
+     * @param id 字符串ID
+     * @return 序号，未注册时返回-1
+     */
+    public int lookup(String id) {
+        if (id == null) {
+            return -1;
+        }
+        long stamp = lock.tryOptimisticRead();
+        int ordinal = table.probe(id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                ordinal = table.probe(id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return ordinal;
+    }
+    
+    /**
+     * 注册ID，已注册时返回原有序号
+     * @param id 字符串ID
+     * @return 序号
+     */
+    public int intern(String id) {
+        int ordinal = lookup(id);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+        
+        long stamp = lock.writeLock();
+        try {
+            ordinal = table.probe(id);
+            if (ordinal >= 0) {
+                return ordinal;
+            }
+            if ((size + 1) * 2 > table.keys.length) {
+                table = table.resize(table.keys.length * 2);
+            }
+            ordinal = size;
+            if (ordinal == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[ordinal] = id;
+            table.insert(id, ordinal);
+            size = ordinal + 1;
+            return ordinal;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * 根据序号取回ID
+     * @param ordinal 序号
+     * @return 字符串ID，序号无效时返回null
+     */
+    public String idOf(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        String[] current = ids;
+        String id = ordinal < current.length ? current[ordinal] : null;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                id = ids[ordinal];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return id;
+    }
+    
+    /**
+     * 已分配的序号数量
+     */
+    public int size() {
+        return size;
+    }
+    
+    private static int indexFor(String id, int capacity) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+    
+    /**
+     * 开放寻址哈希表，键数组与序号数组总是一起替换
+     */
+    private static class Table {
+        final String[] keys;
+        final int[] ordinals;
+        
+        Table(int capacity) {
+            this.keys = new String[capacity];
+            this.ordinals = new int[capacity];
+        }
+        
+        int probe(String id) {
+            int mask = keys.length - 1;
+            int slot = indexFor(id, keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                String key = keys[slot];
+                if (key == null) {
+                    return -1;
+                }
+                if (key.equals(id)) {
+                    return ordinals[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+        
+        void insert(String id, int ordinal) {
+            int mask = keys.length - 1;
+            int slot = indexFor(id, keys.length);
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ordinals[slot] = ordinal;
+            keys[slot] = id;
+        }
+        
+        Table resize(int capacity) {
+            Table resized = new Table(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    resized.insert(keys[i], ordinals[i]);
+                }
+            }
+            return resized;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package main.util;
+
+import main.model.document.ArchiveDocument;
+import main.model.document.Document;
+import main.model.document.EBook;
+import main.model.document.InternalDocument;
+import main.model.document.LoanState;
+import main.model.document.PhysicalBook;
+import main.model.user.Administrator;
+import main.model.user.ArchiveManager;
+import main.model.user.AuthorizedUser;
+import main.model.user.RegularUser;
+import main.model.user.User;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 用户、文档数据的二进制编码
+ * 代替 Java 序列化：不写类描述和对象图，各类只按固定顺序写出自己的属性（见各类的 writeFields），
+ * 文档的借阅者只写用户ID，读取时按ID关联到已读取的用户对象。
+ *
+ * 文件格式：魔数 "LMSB" + 版本(变长) + 文件类型(byte) + 内容
+ * - 用户文件：用户列表
+ * - 文档文件：文档列表
+ * - 快照文件：日志序号(变长) + 用户列表 + 文档列表
+ * 列表为 数量(变长) + 条目；每个条目为 新字符串定义 + 记录，记录为 长度(变长) + 类型标记(byte) + 属性，
+ * 读取时可以跳过不认识的类型，新版本只在记录末尾追加属性时旧版本仍能读取，不兼容的修改须增加 VERSION。
+ * 文档记录在类型标记之后先写借阅状态：借阅者ID(null 表示可借) + 借阅日期 + 到期日。
+ *
+ * 同一文件内的ID和重复出现的值（作者、出版社、分类、部门等，见各类的 writeSharedString）共用一个字符串表，
+ * 第一次出现时在所属记录之前写出定义，之后只写编号；借阅记录、借阅者引用文档和用户时也只写编号。
+ * 定义写在记录之外，跳过不认识的记录时字符串表仍然完整。
+ *
+ * 借阅日志中的单个用户或文档为 版本(变长) + 一条记录。
+ * 旧版本的 Java 序列化数据（以 0xACED 开头）仍可读取，只允许反序列化模型类和 JDK 的集合、时间类。
+ */
+public final class ModelCodec {
+    
+    public static final int VERSION = 1;
+    
+    private static final byte[] MAGIC = {'L', 'M', 'S', 'B'};
+    private static final byte USERS_FILE = 1;
+    private static final byte DOCUMENTS_FILE = 2;
+    private static final byte SNAPSHOT_FILE = 3;
+    
+    // 用户类型标记
+    private static final byte REGULAR_USER = 1;
+    private static final byte AUTHORIZED_USER = 2;
+    private static final byte ARCHIVE_MANAGER = 3;
+    private static final byte ADMINISTRATOR = 4;
+    
+    // 文档类型标记
+    private static final byte PHYSICAL_BOOK = 1;
+    private static final byte EBOOK = 2;
+    private static final byte INTERNAL_DOCUMENT = 3;
+    private static final byte ARCHIVE_DOCUMENT = 4;
+    
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    private static final int MAX_SHARED_STRINGS = 1 << 23;
+    
+    private static final ObjectInputFilter LEGACY_FILTER =
+            ObjectInputFilter.Config.createFilter("main.model.**;java.util.*;java.time.*;java.lang.*;!*");
+    
+    private ModelCodec() {
+    }
+    
+    // ========== 文件 ==========
+    
+    public static void writeUsers(OutputStream out, Collection<User> users) throws IOException {
+        BinaryWriter writer = header(USERS_FILE);
+        writeUserList(out, writer, recordWriter(), users);
+        writer.writeTo(out);
+    }
+    
+    public static List<User> readUsers(byte[] data) throws IOException {
+        return readUserList(openFile(data, USERS_FILE));
+    }
+    
+    public static void writeDocuments(OutputStream out, Collection<Document> documents) throws IOException {
+        BinaryWriter writer = header(DOCUMENTS_FILE);
+        writeDocumentList(out, writer, recordWriter(), documents);
+        writer.writeTo(out);
+    }
+    
+    /**
+     * @param users 按用户ID查找借阅者，找不到时文档按可借阅处理
+     */
+    public static List<Document> readDocuments(byte[] data, Function<String, User> users) throws IOException {
+        return readDocumentList(openFile(data, DOCUMENTS_FILE), users);
+    }
+    
+    public static void writeSnapshot(OutputStream out, DataPersistenceUtil.Snapshot snapshot) throws IOException {
+        BinaryWriter writer = header(SNAPSHOT_FILE);
+        writer.writeVarLong(snapshot.getLsn());
+        BinaryWriter record = recordWriter();
+        writeUserList(out, writer, record, snapshot.getUsers());
+        writeDocumentList(out, writer, record, snapshot.getDocuments());
+        writer.writeTo(out);
+    }
+    
+    public static DataPersistenceUtil.Snapshot readSnapshot(byte[] data) throws IOException {
+        BinaryReader in = openFile(data, SNAPSHOT_FILE);
+        long lsn = in.readVarLong();
+        List<User> users = readUserList(in);
+        List<Document> documents = readDocumentList(in, byId(users));
+        return new DataPersistenceUtil.Snapshot(lsn, users, documents);
+    }
+    
+    // ========== 单个对象（借阅日志） ==========
+    
+    public static byte[] encodeUser(User user) {
+        BinaryWriter record = new BinaryWriter();
+        writeUser(record, user);
+        return new BinaryWriter(record.size() + 8).writeVarInt(VERSION).writeRecord(record).toByteArray();
+    }
+    
+    public static User decodeUser(byte[] payload) throws IOException {
+        BinaryReader in = new BinaryReader(payload);
+        checkVersion(in.readVarInt());
+        User user = readUser(in.readRecord());
+        if (user == null) {
+            throw new IOException("不支持的用户类型");
+        }
+        return user;
+    }
+    
+    public static byte[] encodeDocument(Document document) {
+        BinaryWriter record = new BinaryWriter();
+        writeDocument(record, document);
+        return new BinaryWriter(record.size() + 8).writeVarInt(VERSION).writeRecord(record).toByteArray();
+    }
+    
+    public static Document decodeDocument(byte[] payload, Function<String, User> users) throws IOException {
+        BinaryReader in = new BinaryReader(payload);
+        checkVersion(in.readVarInt());
+        Document document = readDocument(in.readRecord(), users);
+        if (document == null) {
+            throw new IOException("不支持的文档类型");
+        }
+        return document;
+    }
+    
+    // ========== 旧格式 ==========
+    
+    /**
+     * 数据是否为 Java 序列化格式（旧版本保存的文件或日志记录）
+     */
+    public static boolean isJavaSerialized(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xFF) == 0xAC && (data[1] & 0xFF) == 0xED;
+    }
+    
+    /**
+     * 打开 Java 序列化格式的输入流，只允许反序列化模型类和 JDK 的集合、时间类
+     */
+    public static ObjectInputStream openJavaSerialized(InputStream in) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(in);
+        ois.setObjectInputFilter(LEGACY_FILTER);
+        return ois;
+    }
+    
+    // ========== 记录 ==========
+    
+    private static void writeUserList(OutputStream out, BinaryWriter writer, BinaryWriter record,
+                                      Collection<User> users) throws IOException {
+        writer.writeVarInt(users.size());
+        for (User user : users) {
+            record.reset();
+            writeUser(record, user);
+            record.writeNewSharedStrings(writer);
+            writer.writeRecord(record);
+            flushIfFull(out, writer);
+        }
+    }
+    
+    private static void writeDocumentList(OutputStream out, BinaryWriter writer, BinaryWriter record,
+                                          Collection<Document> documents) throws IOException {
+        writer.writeVarInt(documents.size());
+        for (Document document : documents) {
+            record.reset();
+            writeDocument(record, document);
+            record.writeNewSharedStrings(writer);
+            writer.writeRecord(record);
+            flushIfFull(out, writer);
+        }
+    }
+    
+    private static List<User> readUserList(BinaryReader in) throws IOException {
+        int count = in.readVarInt();
+        List<User> users = new ArrayList<>(count);
+        int skipped = 0;
+        for (int i = 0; i < count; i++) {
+            in.readSharedStringDefinitions();
+            User user = readUser(in.readRecord());
+            if (user != null) {
+                users.add(user);
+            } else {
+                skipped++;
+            }
+        }
+        if (skipped > 0) {
+            System.err.println("跳过不支持的用户记录：" + skipped + " 条");
+        }
+        return users;
+    }
+    
+    private static List<Document> readDocumentList(BinaryReader in, Function<String, User> users)
+            throws IOException {
+        int count = in.readVarInt();
+        List<Document> documents = new ArrayList<>(count);
+        int skipped = 0;
+        for (int i = 0; i < count; i++) {
+            in.readSharedStringDefinitions();
+            Document document = readDocument(in.readRecord(), users);
+            if (document != null) {
+                documents.add(document);
+            } else {
+                skipped++;
+            }
+        }
+        if (skipped > 0) {
+            System.err.println("跳过不支持的文档记录：" + skipped + " 条");
+        }
+        return documents;
+    }
+    
+    private static void writeUser(BinaryWriter out, User user) {
+        out.writeByte(userTag(user));
+        user.writeFields(out);
+    }
+    
+    /**
+     * @return 类型标记不认识时返回null
+     */
+    private static User readUser(BinaryReader in) throws IOException {
+        switch (in.readByte()) {
+            case REGULAR_USER:
+                return new RegularUser(in);
+            case AUTHORIZED_USER:
+                return new AuthorizedUser(in);
+            case ARCHIVE_MANAGER:
+                return new ArchiveManager(in);
+            case ADMINISTRATOR:
+                return new Administrator(in);
+            default:
+                return null;
+        }
+    }
+    
+    private static void writeDocument(BinaryWriter out, Document document) {
+        out.writeByte(documentTag(document));
+        LoanState loan = document.getLoanState();
+        if (loan.isAvailable()) {
+            out.writeSharedString(null);
+        } else {
+            out.writeSharedString(loan.getBorrower().getUserId())
+               .writeDate(loan.getBorrowDate())
+               .writeDate(loan.getDueDate());
+        }
+        document.writeFields(out);
+    }
+    
+    /**
+     * @return 类型标记不认识时返回null
+     */
+    private static Document readDocument(BinaryReader in, Function<String, User> users) throws IOException {
+        byte tag = (byte) in.readByte();
+        String borrowerId = in.readSharedString();
+        LoanState loan = LoanState.AVAILABLE;
+        if (borrowerId != null) {
+            User borrower = users.apply(borrowerId);
+            LocalDate borrowDate = in.readDate();
+            LocalDate dueDate = in.readDate();
+            if (borrower != null) {
+                loan = LoanState.borrowed(borrower, borrowDate, dueDate);
+            }
+        }
+        Document document;
+        switch (tag) {
+            case PHYSICAL_BOOK:
+                document = new PhysicalBook(in);
+                break;
+            case EBOOK:
+                document = new EBook(in);
+                break;
+            case INTERNAL_DOCUMENT:
+                document = new InternalDocument(in);
+                break;
+            case ARCHIVE_DOCUMENT:
+                document = new ArchiveDocument(in);
+                break;
+            default:
+                return null;
+        }
+        if (borrowerId != null && loan.isAvailable()) {
+            System.err.println("借阅者不存在，文档按可借阅处理：" + document.getDocumentId() + " (" + borrowerId + ")");
+        }
+        document.restoreLoanState(loan);
+        return document;
+    }
+    
+    private static byte userTag(User user) {
+        if (user instanceof RegularUser) {
+            return REGULAR_USER;
+        }
+        if (user instanceof AuthorizedUser) {
+            return AUTHORIZED_USER;
+        }
+        if (user instanceof ArchiveManager) {
+            return ARCHIVE_MANAGER;
+        }
+        if (user instanceof Administrator) {
+            return ADMINISTRATOR;
+        }
+        throw new IllegalArgumentException("不支持的用户类型：" + user.getClass().getName());
+    }
+    
+    private static byte documentTag(Document document) {
+        if (document instanceof PhysicalBook) {
+            return PHYSICAL_BOOK;
+        }
+        if (document instanceof EBook) {
+            return EBOOK;
+        }
+        if (document instanceof InternalDocument) {
+            return INTERNAL_DOCUMENT;
+        }
+        if (document instanceof ArchiveDocument) {
+            return ARCHIVE_DOCUMENT;
+        }
+        throw new IllegalArgumentException("不支持的文档类型：" + document.getClass().getName());
+    }
+    
+    private static BinaryWriter header(byte fileType) {
+        BinaryWriter writer = new BinaryWriter(FLUSH_THRESHOLD * 2);
+        writer.writeBytes(MAGIC, 0, MAGIC.length);
+        writer.writeVarInt(VERSION);
+        writer.writeByte(fileType);
+        return writer;
+    }
+    
+    private static BinaryReader openFile(byte[] data, byte fileType) throws IOException {
+        BinaryReader in = new BinaryReader(data);
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new IOException("不是二进制数据文件");
+            }
+        }
+        checkVersion(in.readVarInt());
+        int actual = in.readByte();
+        if (actual != fileType) {
+            throw new IOException("数据文件类型不符：" + actual);
+        }
+        in.enableSharedStrings();
+        return in;
+    }
+    
+    /**
+     * 一个文件中所有记录共用的记录写入器（共用字符串表）
+     */
+    private static BinaryWriter recordWriter() {
+        BinaryWriter record = new BinaryWriter();
+        record.enableSharedStrings(MAX_SHARED_STRINGS);
+        return record;
+    }
+    
+    private static void checkVersion(int version) throws IOException {
+        if (version < 1 || version > VERSION) {
+            throw new IOException("不支持的数据格式版本：" + version);
+        }
+    }
+    
+    private static void flushIfFull(OutputStream out, BinaryWriter writer) throws IOException {
+        if (writer.size() >= FLUSH_THRESHOLD) {
+            writer.writeTo(out);
+            writer.reset();
+        }
+    }
+    
+    private static Function<String, User> byId(List<User> users) {
+        Map<String, User> map = new HashMap<>();
+        for (User user : users) {
+            map.put(user.getUserId(), user);
+        }
+        return map::get;
+    }
+}
@@ -0,0 +1,195 @@
+package main.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * 以整数序号为键的并发映射
+ * 按页存放在 AtomicReferenceArray 中，序号即下标，读写均无锁，不需要对键装箱和哈希。
+ * 适合与 IdRegistry 配合使用（序号从0开始连续分配）。
+ */
+public class OrdinalMap<V> {
+    
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    
+    /**
+     * 序号与值的遍历回调
+     */
+    public interface EntryConsumer<V> {
+        void accept(int ordinal, V value);
+    }
+    
+    private volatile AtomicReferenceArray<AtomicReferenceArray<V>> pages;
+    private final AtomicInteger size;
+    
+    public OrdinalMap() {
+        this.pages = new AtomicReferenceArray<>(4);
+        this.size = new AtomicInteger();
+    }
+    
+    /**
+     * 获取序号对应的值
+     * @param ordinal 序号，为负数时返回null
+     */
+    public V get(int ordinal) {
+        if (ordinal < 0) {
+            return null;
+        }
+        AtomicReferenceArray<AtomicReferenceArray<V>> current = pages;
+        int pageIndex = ordinal >>> PAGE_SHIFT;
+        if (pageIndex >= current.length()) {
+            return null;
+        }
+        AtomicReferenceArray<V> page = current.get(pageIndex);
+        return page == null ? null : page.get(ordinal & PAGE_MASK);
+    }
+    
+    /**
+     * 设置序号对应的值
+     * @return 原有的值
+     */
+    public V put(int ordinal, V value) {
+        V previous = page(ordinal).getAndSet(ordinal & PAGE_MASK, value);
+        if (previous == null && value != null) {
+            size.incrementAndGet();
+        } else if (previous != null && value == null) {
+            size.decrementAndGet();
+        }
+        return previous;
+    }
+    
+    /**
+     * 仅当序号没有值时设置
+     * @return 原有的值，设置成功时返回null
+     */
+    public V putIfAbsent(int ordinal, V value) {
+        AtomicReferenceArray<V> page = page(ordinal);
+        int index = ordinal & PAGE_MASK;
+        while (true) {
+            V previous = page.get(index);
+            if (previous != null) {
+                return previous;
+            }
+            if (page.compareAndSet(index, null, value)) {
+                size.incrementAndGet();
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * 获取序号对应的值，不存在时创建
+     */
+    public V computeIfAbsent(int ordinal, IntFunction<V> factory) {
+        V value = get(ordinal);
+        if (value != null) {
+            return value;
+        }
+        V created = factory.apply(ordinal);
+        V previous = putIfAbsent(ordinal, created);
+        return previous != null ? previous : created;
+    }
+    
+    /**
+     * 移除序号对应的值
+     * @return 原有的值
+     */
+    public V remove(int ordinal) {
+        if (get(ordinal) == null) {
+            return null;
+        }
+        return put(ordinal, null);
+    }
+    
+    public int size() {
+        return size.get();
+    }
+    
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+    
+    /**
+     * 按序号顺序遍历所有值
+     */
+    public void forEach(Consumer<? super V> action) {
+        forEachEntry((ordinal, value) -> action.accept(value));
+    }
+    
+    /**
+     * 按序号顺序遍历所有序号和值
+     */
+    public void forEachEntry(EntryConsumer<? super V> action) {
+        AtomicReferenceArray<AtomicReferenceArray<V>> current = pages;
+        for (int p = 0; p < current.length(); p++) {
+            AtomicReferenceArray<V> page = current.get(p);
+            if (page == null) {
+                continue;
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                V value = page.get(i);
+                if (value != null) {
+                    action.accept((p << PAGE_SHIFT) | i, value);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 获取所有值的快照
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size());
+        forEach(values::add);
+        return values;
+    }
+    
+    /**
+     * 获取序号所在的页，不存在时创建
+     */
+    private AtomicReferenceArray<V> page(int ordinal) {
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("序号不能为负数: " + ordinal);
+        }
+        int pageIndex = ordinal >>> PAGE_SHIFT;
+        AtomicReferenceArray<AtomicReferenceArray<V>> current = pages;
+        if (pageIndex >= current.length()) {
+            current = growDirectory(pageIndex + 1);
+        }
+        AtomicReferenceArray<V> page = current.get(pageIndex);
+        if (page == null) {
+            current.compareAndSet(pageIndex, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = current.get(pageIndex);
+        }
+        return page;
+    }
+    
+    /**
+     * 扩充页目录；页对象在新旧目录间共享，因此扩充期间的写入不会丢失
+     */
+    private synchronized AtomicReferenceArray<AtomicReferenceArray<V>> growDirectory(int minLength) {
+        AtomicReferenceArray<AtomicReferenceArray<V>> current = pages;
+        if (current.length() >= minLength) {
+            return current;
+        }
+        AtomicReferenceArray<AtomicReferenceArray<V>> grown =
+                new AtomicReferenceArray<>(Math.max(minLength, current.length() * 2));
+        for (int i = 0; i < current.length(); i++) {
+            // 先在旧目录中占好页，避免复制后其他线程仍往旧目录里放新页
+            AtomicReferenceArray<V> page = current.get(i);
+            if (page == null) {
+                current.compareAndSet(i, null, new AtomicReferenceArray<>(PAGE_SIZE));
+                page = current.get(i);
+            }
+            grown.set(i, page);
+        }
+        pages = grown;
+        return grown;
+    }
+}
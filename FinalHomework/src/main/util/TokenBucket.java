@@ -0,0 +1,57 @@
+package main.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌桶限流器
+ * 每秒补充 rate 个令牌，最多积累 burst 个。
+ * 实现上只保存“下一个令牌的理论到达时间”，获取令牌是对一个 AtomicLong 的 CAS，
+ * 不需要定时补充令牌，也不需要加锁。
+ */
+public class TokenBucket {
+    
+    private final long intervalNanos;  // 每个令牌的间隔
+    private final long burstNanos;     // 允许提前消耗的时间，即 (burst - 1) 个间隔
+    private final AtomicLong nextArrival;
+    
+    /**
+     * 构造方法
+     * @param ratePerSecond 每秒补充的令牌数
+     * @param burst 最多积累的令牌数
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("令牌桶参数无效: rate=" + ratePerSecond + ", burst=" + burst);
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = intervalNanos * (burst - 1);
+        this.nextArrival = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+    
+    /**
+     * 尝试获取一个令牌
+     * @return 没有可用令牌时返回false
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long arrival = nextArrival.get();
+            // 空闲期间积累的令牌不超过 burst 个
+            long base = Math.max(arrival, now - burstNanos);
+            if (base - now > 0) {
+                return false;
+            }
+            if (nextArrival.compareAndSet(arrival, base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * 令牌是否已积满，即空闲到与新建的令牌桶没有区别
+     */
+    public boolean isFull() {
+        return nextArrival.get() - (System.nanoTime() - burstNanos) <= 0;
+    }
+}
@@ -0,0 +1,385 @@
+package main.util;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * 预写日志
+ * 每条记录分配一个递增的日志序号（LSN），以 [长度][CRC32][LSN][类型][内容] 的格式追加到段文件中，
+ * 由 GroupCommitWriter 在后台线程批量写入，并发提交的多条记录共享一次 fsync。
+ * 需要持久化保证的调用方使用 appendAndSync，在记录落盘后再向用户确认操作成功。
+ *
+ * 段文件以其第一条记录的序号命名，当前段超过 segmentMaxBytes 后封存并开启新段。
+ * 快照保存了某个序号之前的全部状态后，调用 truncateThrough 删除完全被快照覆盖的已封存段。
+ * 启动时校验最后一个段，截掉崩溃时未写完整的尾部记录。
+ */
+public class WriteAheadJournal implements AutoCloseable {
+    
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;          // 长度 + CRC32
+    private static final int BODY_FIXED_SIZE = 8 + 1;  // LSN + 类型
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * 日志记录
+     */
+    public static class Entry {
+        private final byte type;
+        private final byte[] payload;
+        private long lsn;
+        
+        public Entry(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+        
+        Entry(long lsn, byte type, byte[] payload) {
+            this(type, payload);
+            this.lsn = lsn;
+        }
+        
+        public long getLsn() {
+            return lsn;
+        }
+        
+        public byte getType() {
+            return type;
+        }
+        
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+    
+    /**
+     * 重放时逐条接收日志记录
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(Entry entry) throws IOException;
+    }
+    
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final List<Path> segments; // 按首条序号升序，最后一个为当前写入的段
+    private final GroupCommitWriter<Entry> writer;
+    private volatile long lastLsn;
+    
+    // 以下字段只在刷盘线程中访问
+    private FileChannel channel;
+    private long written;
+    private ByteBuffer buffer;
+    
+    /**
+     * 构造方法
+     * @param directory 段文件所在目录
+     * @param segmentMaxBytes 单个段文件的最大字节数
+     * @param queueCapacity 待写入队列容量
+     * @param batchSize 累计多少条记录刷盘一次
+     * @param syncIntervalMillis 最长刷盘间隔（毫秒）
+     */
+    public WriteAheadJournal(Path directory, long segmentMaxBytes, int queueCapacity,
+                             int batchSize, long syncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.segments = new ArrayList<>();
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                                                                    SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        // 文件名中的序号定长补零，按文件名排序即按序号排序
+        segments.sort(null);
+        
+        if (segments.isEmpty()) {
+            startSegment(1);
+        } else {
+            Path active = segments.get(segments.size() - 1);
+            long[] tail = scanSegment(active);
+            lastLsn = Math.max(tail[0], firstLsnOf(active) - 1);
+            channel = FileChannel.open(active, StandardOpenOption.WRITE);
+            if (channel.size() > tail[1]) {
+                System.err.println("日志文件尾部不完整，已截断: " + active.getFileName());
+                channel.truncate(tail[1]);
+                channel.force(true);
+            }
+            channel.position(tail[1]);
+            written = tail[1];
+        }
+        
+        this.writer = new GroupCommitWriter<>("journal", new JournalSink(), queueCapacity,
+                                              batchSize, syncIntervalMillis);
+    }
+    
+    /**
+     * 追加一条记录，不等待落盘
+     */
+    public void append(byte type, byte[] payload) {
+        writer.append(new Entry(type, payload));
+    }
+    
+    /**
+     * 追加一条记录，返回的 Future 在记录落盘后完成
+     */
+    public CompletableFuture<Void> appendAndSync(byte type, byte[] payload) {
+        return writer.appendAndSync(new Entry(type, payload));
+    }
+    
+    /**
+     * 等待此前追加的所有记录落盘
+     */
+    public void flush() {
+        writer.flush();
+    }
+    
+    /**
+     * 已写入的最大序号；flush 之后即已落盘的最大序号
+     */
+    public long getLastLsn() {
+        return lastLsn;
+    }
+    
+    /**
+     * 保证之后分配的序号大于指定序号（如快照中记录的序号），须在追加记录之前调用
+     */
+    public void advanceTo(long lsn) {
+        if (lastLsn < lsn) {
+            lastLsn = lsn;
+        }
+    }
+    
+    /**
+     * 按序号顺序重放记录
+     * @param afterLsn 只重放序号大于此值的记录
+     * @return 重放的最后一条记录的序号，没有记录时返回 afterLsn
+     */
+    public long replay(long afterLsn, Visitor visitor) throws IOException {
+        long last = afterLsn;
+        for (Path segment : copySegments()) {
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                long position = 0;
+                while (true) {
+                    Entry entry = readEntry(in, position, header);
+                    if (entry == null) {
+                        break;
+                    }
+                    position += HEADER_SIZE + BODY_FIXED_SIZE + entry.payload.length;
+                    if (entry.lsn > afterLsn) {
+                        visitor.visit(entry);
+                        last = entry.lsn;
+                    }
+                }
+            }
+        }
+        return last;
+    }
+    
+    /**
+     * 删除所有记录序号都不大于 lsn 的已封存段（这些记录已包含在快照中）
+     * @return 删除的段数
+     */
+    public int truncateThrough(long lsn) throws IOException {
+        int removed = 0;
+        synchronized (segments) {
+            // 下一段的首条序号减一即为本段的最大序号；当前写入的段不删除
+            while (segments.size() > 1 && firstLsnOf(segments.get(1)) - 1 <= lsn) {
+                Files.deleteIfExists(segments.remove(0));
+                removed++;
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * 所有段文件的总字节数
+     */
+    public long getSizeBytes() {
+        long total = 0;
+        for (Path segment : copySegments()) {
+            try {
+                total += Files.size(segment);
+            } catch (IOException e) {
+                // 段文件可能刚被删除
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * 写入剩余记录、刷盘并关闭
+     */
+    @Override
+    public void close() {
+        writer.close();
+    }
+    
+    private List<Path> copySegments() {
+        synchronized (segments) {
+            return new ArrayList<>(segments);
+        }
+    }
+    
+    /**
+     * 读取指定位置的一条记录
+     * @return 已到文件末尾、记录不完整或校验失败时返回null
+     */
+    private static Entry readEntry(FileChannel in, long position, ByteBuffer header) throws IOException {
+        header.clear();
+        if (readFully(in, header, position) < HEADER_SIZE) {
+            return null;
+        }
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length < BODY_FIXED_SIZE || length > MAX_RECORD_SIZE) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        if (readFully(in, body, position + HEADER_SIZE) < length) {
+            return null;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(body.array(), 0, length);
+        if ((int) checksum.getValue() != crc) {
+            return null;
+        }
+        body.flip();
+        long lsn = body.getLong();
+        byte type = body.get();
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        return new Entry(lsn, type, payload);
+    }
+    
+    private static int readFully(FileChannel in, ByteBuffer target, long position) throws IOException {
+        int total = 0;
+        while (target.hasRemaining()) {
+            int read = in.read(target, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+    
+    /**
+     * 扫描段文件
+     * @return [最后一条完整记录的序号（没有时为0）, 完整记录的结束位置]
+     */
+    private static long[] scanSegment(Path segment) throws IOException {
+        long lsn = 0;
+        long position = 0;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            Entry entry;
+            while ((entry = readEntry(in, position, header)) != null) {
+                lsn = entry.lsn;
+                position += HEADER_SIZE + BODY_FIXED_SIZE + entry.payload.length;
+            }
+        }
+        return new long[] {lsn, position};
+    }
+    
+    private static long firstLsnOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    private void startSegment(long firstLsn) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+        written = channel.size();
+        synchronized (segments) {
+            segments.add(file);
+        }
+    }
+    
+    /**
+     * 写入目标，只在刷盘线程中调用；写入时分配序号，因此序号顺序与文件中的顺序一致
+     */
+    private class JournalSink implements GroupCommitWriter.Sink<Entry> {
+        
+        @Override
+        public void write(List<Entry> entries) throws IOException {
+            try {
+                for (Entry entry : entries) {
+                    if (written + buffer.position() >= segmentMaxBytes) {
+                        rollSegment();
+                    }
+                    encode(entry);
+                }
+                writeBuffer();
+            } finally {
+                buffer.clear();
+            }
+        }
+        
+        @Override
+        public void sync() throws IOException {
+            channel.force(false);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.force(false);
+            channel.close();
+        }
+        
+        private void encode(Entry entry) throws IOException {
+            int length = BODY_FIXED_SIZE + entry.payload.length;
+            if (HEADER_SIZE + length > buffer.capacity()) {
+                writeBuffer();
+                buffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, HEADER_SIZE + length));
+            } else if (HEADER_SIZE + length > buffer.remaining()) {
+                writeBuffer();
+            }
+            try {
+                int start = buffer.position();
+                entry.lsn = lastLsn + 1;
+                buffer.putInt(length).putInt(0).putLong(entry.lsn).put(entry.type).put(entry.payload);
+                CRC32 checksum = new CRC32();
+                checksum.update(buffer.array(), start + HEADER_SIZE, length);
+                buffer.putInt(start + 4, (int) checksum.getValue());
+                lastLsn = entry.lsn;
+            } catch (BufferOverflowException e) {
+                // 上面已保证空间足够
+                throw new IOException("日志记录编码失败", e);
+            }
+        }
+        
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        
+        /**
+         * 封存当前段并开启新段
+         */
+        private void rollSegment() throws IOException {
+            writeBuffer();
+            channel.force(false);
+            channel.close();
+            startSegment(lastLsn + 1);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package main.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import main.exception.RequestRejectedException;
+import main.model.document.Document;
+import main.model.system.SystemConfig;
+import main.service.AdmissionController;
+import main.service.BorrowingService;
+import main.service.LibraryManagementSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 图书管理系统 HTTP 接口
+ * 基于 JDK 自带的 com.sun.net.httpserver，每个请求在一个虚拟线程中处理。
+ * 请求参数使用查询串或 application/x-www-form-urlencoded 请求体，响应为 JSON。
+ * 登录后返回的令牌放在请求头 Authorization: Bearer &lt;令牌&gt; 中。
+ *
+ * 接口：
+ * - POST /api/login     username, password       -> {"token": ...}
+ * - POST /api/logout
+ * - GET  /api/search    keyword                  -> {"count": n, "results": [...]}
+ * - POST /api/borrow    documentId               -> {"success": ..., "message": ...}
+ * - POST /api/return    documentId
+ * - POST /api/extend    documentId, days
+ * - GET  /api/loans                              -> 当前用户的借阅列表
+ *
+ * 未登录或会话过期返回 401，被限流返回 429，请求体超过 HTTP_MAX_BODY_BYTES 返回 413；登录按客户端地址限流。
+ */
+public class LibraryHttpServer {
+    
+    private static final String BEARER = "Bearer ";
+    
+    static {
+        // 响应都很小，开启 TCP_NODELAY，避免 Nagle 算法与客户端延迟确认叠加使每个请求多等约40ms
+        // 须在 HttpServer 首次创建前设置；已通过命令行指定时保持不变
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+    
+    private final LibraryManagementSystem system;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    
+    /**
+     * 构造方法
+     * @param port 监听端口，0 表示由系统分配
+     */
+    public LibraryHttpServer(LibraryManagementSystem system, int port) throws IOException {
+        this.system = system;
+        this.server = HttpServer.create(new InetSocketAddress(port), SystemConfig.HTTP_BACKLOG);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        
+        server.createContext("/api/login", handler("POST", this::login));
+        server.createContext("/api/logout", handler("POST", this::logout));
+        server.createContext("/api/search", handler("GET", this::search));
+        server.createContext("/api/borrow", handler("POST", this::borrow));
+        server.createContext("/api/return", handler("POST", this::giveBack));
+        server.createContext("/api/extend", handler("POST", this::extend));
+        server.createContext("/api/loans", handler("GET", this::loans));
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    /**
+     * 停止服务，最多等待1秒让正在处理的请求完成
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+    
+    /**
+     * 实际监听的端口
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    /**
+     * 请求处理函数
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        Response handle(Map<String, String> params, String token, String clientAddress);
+    }
+    
+    /**
+     * 响应：状态码和 JSON 内容
+     */
+    private static class Response {
+        final int status;
+        final String body;
+        
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+    
+    /**
+     * 请求体过大
+     */
+    private static class RequestTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        RequestTooLargeException() {
+            super("请求体超过 " + SystemConfig.HTTP_MAX_BODY_BYTES + " 字节");
+        }
+    }
+    
+    private HttpHandler handler(String method, Endpoint endpoint) {
+        return exchange -> {
+            Response response;
+            try {
+                if (!method.equals(exchange.getRequestMethod())) {
+                    response = error(405, "不支持的请求方法：" + exchange.getRequestMethod());
+                } else {
+                    response = endpoint.handle(readParams(exchange), readToken(exchange), clientAddress(exchange));
+                }
+            } catch (RequestRejectedException e) {
+                response = error(429, e.getMessage());
+            } catch (RequestTooLargeException e) {
+                // 请求体没有读完，响应后关闭连接
+                exchange.getResponseHeaders().set("Connection", "close");
+                response = error(413, e.getMessage());
+            } catch (IllegalArgumentException e) {
+                response = error(400, e.getMessage());
+            } catch (RuntimeException e) {
+                response = error(500, "服务器内部错误：" + e.getMessage());
+            }
+            send(exchange, response);
+        };
+    }
+    
+    private Response login(Map<String, String> params, String token, String clientAddress) {
+        AdmissionController.Decision decision = system.getAdmissionController().tryAdmitClient(clientAddress);
+        if (decision != AdmissionController.Decision.ADMITTED) {
+            return error(429, decision.getMessage());
+        }
+        String newToken = system.openSession(required(params, "username"), required(params, "password"),
+                                             clientAddress);
+        if (newToken == null) {
+            return error(401, "用户名或密码错误");
+        }
+        return new Response(200, "{\"token\":" + quote(newToken) + "}");
+    }
+    
+    private Response logout(Map<String, String> params, String token, String clientAddress) {
+        system.closeSession(token);
+        return new Response(200, "{\"success\":true}");
+    }
+    
+    private Response search(Map<String, String> params, String token, String clientAddress) {
+        if (system.getSessionUser(token) == null) {
+            return unauthorized();
+        }
+        List<Object> results = system.searchDocuments(token, params.getOrDefault("keyword", ""));
+        StringBuilder json = new StringBuilder();
+        json.append("{\"count\":").append(results.size()).append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendDocument(json, (Document) results.get(i));
+        }
+        return new Response(200, json.append("]}").toString());
+    }
+    
+    private Response borrow(Map<String, String> params, String token, String clientAddress) {
+        if (system.getSessionUser(token) == null) {
+            return unauthorized();
+        }
+        return result(system.borrowDocument(token, required(params, "documentId")));
+    }
+    
+    private Response giveBack(Map<String, String> params, String token, String clientAddress) {
+        if (system.getSessionUser(token) == null) {
+            return unauthorized();
+        }
+        return result(system.returnDocument(token, required(params, "documentId")));
+    }
+    
+    private Response extend(Map<String, String> params, String token, String clientAddress) {
+        if (system.getSessionUser(token) == null) {
+            return unauthorized();
+        }
+        int days;
+        try {
+            days = Integer.parseInt(required(params, "days"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("days 必须是整数");
+        }
+        return result(system.extendDocument(token, required(params, "documentId"), days));
+    }
+    
+    private Response loans(Map<String, String> params, String token, String clientAddress) {
+        if (system.getSessionUser(token) == null) {
+            return unauthorized();
+        }
+        List<Document> documents = system.getMyBorrowedDocuments(token);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"count\":").append(documents.size()).append(",\"loans\":[");
+        for (int i = 0; i < documents.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendDocument(json, documents.get(i));
+        }
+        return new Response(200, json.append("]}").toString());
+    }
+    
+    private static Response result(BorrowingService.BorrowResult result) {
+        String body = "{\"success\":" + result.isSuccess() + ",\"message\":" + quote(result.getMessage()) + "}";
+        return new Response(result.isRejected() ? 429 : 200, body);
+    }
+    
+    private static Response unauthorized() {
+        return error(401, "请先登录");
+    }
+    
+    private static Response error(int status, String message) {
+        return new Response(status, "{\"error\":" + quote(message) + "}");
+    }
+    
+    private static void appendDocument(StringBuilder json, Document document) {
+        json.append("{\"documentId\":").append(quote(document.getDocumentId()))
+            .append(",\"title\":").append(quote(document.getTitle()))
+            .append(",\"author\":").append(quote(document.getAuthor()))
+            .append(",\"type\":").append(quote(document.getDocumentType()))
+            .append(",\"available\":").append(document.isAvailable());
+        if (document.getDueDate() != null) {
+            json.append(",\"dueDate\":").append(quote(document.getDueDate().toString()));
+        }
+        json.append('}');
+    }
+    
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("缺少参数：" + name);
+        }
+        return value;
+    }
+    
+    /**
+     * 读取查询串和表单请求体中的参数
+     * 请求体最多读取 HTTP_MAX_BODY_BYTES 字节：Content-Length 超出时不读取，没有长度（分块传输）时读到上限为止
+     */
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > SystemConfig.HTTP_MAX_BODY_BYTES) {
+                    throw new RequestTooLargeException();
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Content-Length 无效：" + contentLength);
+            }
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(SystemConfig.HTTP_MAX_BODY_BYTES + 1);
+            if (body.length > SystemConfig.HTTP_MAX_BODY_BYTES) {
+                throw new RequestTooLargeException();
+            }
+            if (body.length > 0) {
+                parseForm(new String(body, StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+    
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                       URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+    
+    private static String readToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && authorization.startsWith(BEARER)) {
+            return authorization.substring(BEARER.length()).trim();
+        }
+        return null;
+    }
+    
+    /**
+     * 客户端IP地址，不使用可伪造的 X-Forwarded-For
+     */
+    private static String clientAddress(HttpExchange exchange) {
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        if (remote == null) {
+            return null;
+        }
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+    
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    /**
+     * 转为 JSON 字符串（含引号），null 转为 null
+     */
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}